@@ -0,0 +1,68 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.sampleapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import com.microsoft.rightsmanagement.ui.utils.MappedFileLogDecoder;
+
+/**
+ * Command line tool that decodes the segment files of a MappedFileLogSink pulled from a device. Runs on any JVM with
+ * the library on the class path:
+ * <p>
+ * java com.microsoft.rightsmanagement.sampleapp.LogDecoderTool &lt;segment directory&gt; [output file]
+ * </p>
+ */
+public final class LogDecoderTool
+{
+    /**
+     * Instantiates a new tool.
+     */
+    private LogDecoderTool()
+    {
+    }
+
+    /**
+     * Command line entry point.
+     * 
+     * @param args the segment directory and an optional output file
+     * @throws IOException Signals that decoding failed.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+        {
+            System.err.println("usage: LogDecoderTool <segment directory> [output file]");
+            return;
+        }
+        Writer writer = args.length == 2 ? new OutputStreamWriter(new FileOutputStream(args[1]), "UTF-8")
+                : new PrintWriter(System.out);
+        try
+        {
+            MappedFileLogDecoder.decode(new File(args[0]), writer);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -39,6 +39,7 @@ import com.microsoft.aad.adal.PromptBehavior;
 import com.microsoft.rightsmanagement.AuthenticationCompletionCallback;
 import com.microsoft.rightsmanagement.AuthenticationRequestCallback;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
 
 /**
  * The Class implements MSIPC AuthenticationRequestCallback using ADAL.
@@ -121,7 +122,7 @@ class MsipcAuthenticationCallback implements AuthenticationRequestCallback
                                 }
                                 else
                                 {
-                                    Logger.d(TAG, "Authentication error:" + exc.getMessage());
+                                    Logger.d(TAG, "Authentication error:%s", exc.getMessage());
                                     authenticationCompletionCallbackToMsipc.onFailure();
                                 }
                             }
@@ -136,14 +137,14 @@ class MsipcAuthenticationCallback implements AuthenticationRequestCallback
                                     Logger.d(TAG, "Token is empty");
                                     if (result != null)
                                     {
-                                        Logger.d(TAG, String.format("Error: %s", result.getErrorDescription()));
+                                        Logger.d(TAG, "Error: %s", result.getErrorDescription());
                                     }
                                 }
                                 else
                                 {
                                     // request is successful
-                                    Logger.i(TAG, String.format("status:%s, expiresOn:%s", result.getStatus(), result
-                                            .getExpiresOn().toString()), "");
+                                    Logger.event(LogLevel.Info, TAG, "token acquired").put("status", result.getStatus())
+                                            .put("expiresOn", result.getExpiresOn().getTime()).log();
                                     authenticationCompletionCallbackToMsipc.onSuccess(result.getAccessToken());
                                 }
                             }
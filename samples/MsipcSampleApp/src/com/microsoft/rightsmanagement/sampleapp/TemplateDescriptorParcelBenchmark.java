@@ -0,0 +1,236 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.sampleapp;
+
+import java.util.Locale;
+
+import android.os.Parcel;
+
+import com.microsoft.rightsmanagement.TemplateDescriptor;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModel;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModelCatalog;
+import com.microsoft.rightsmanagement.ui.utils.Logger;
+
+/**
+ * Compares the parcel size and the marshal and unmarshal times of a template descriptor model array written element
+ * by element with the same array written as a TemplateDescriptorModelCatalog. Meant to be run on a device, since
+ * Parcel is only implemented there.
+ */
+public final class TemplateDescriptorParcelBenchmark
+{
+    /**
+     * Sizes and average times of one format.
+     */
+    public static final class Result
+    {
+        private final int mDataSize;
+        private final long mMarshalNanos;
+        private final long mUnmarshalNanos;
+
+        /**
+         * Instantiates a new result.
+         * 
+         * @param dataSize the parcel size in bytes
+         * @param marshalNanos the average time to write the parcel
+         * @param unmarshalNanos the average time to read the parcel
+         */
+        Result(int dataSize, long marshalNanos, long unmarshalNanos)
+        {
+            mDataSize = dataSize;
+            mMarshalNanos = marshalNanos;
+            mUnmarshalNanos = unmarshalNanos;
+        }
+
+        /**
+         * Gets the parcel size.
+         * 
+         * @return the size in bytes
+         */
+        public int getDataSize()
+        {
+            return mDataSize;
+        }
+
+        /**
+         * Gets the average time to write the parcel.
+         * 
+         * @return the time in nanoseconds
+         */
+        public long getMarshalNanos()
+        {
+            return mMarshalNanos;
+        }
+
+        /**
+         * Gets the average time to read the parcel.
+         * 
+         * @return the time in nanoseconds
+         */
+        public long getUnmarshalNanos()
+        {
+            return mUnmarshalNanos;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "%d bytes, marshal %d us, unmarshal %d us", mDataSize,
+                    mMarshalNanos / 1000, mUnmarshalNanos / 1000);
+        }
+    }
+    public static final int DEFAULT_ITERATIONS = 20;
+    public static final int DEFAULT_TEMPLATE_COUNT = 1000;
+    private static final int DISTINCT_DESCRIPTION_COUNT = 10;
+    private static final String TAG = "TemplateDescriptorParcelBenchmark";
+
+    /**
+     * Instantiates a new benchmark.
+     */
+    private TemplateDescriptorParcelBenchmark()
+    {
+    }
+
+    /**
+     * Creates a catalog of models with unique ids and names and a few long descriptions shared between them, as
+     * tenants usually have.
+     * 
+     * @param templateCount the number of models
+     * @return the models
+     */
+    public static TemplateDescriptorModel[] createCatalog(int templateCount)
+    {
+        if (templateCount < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter templateCount");
+        }
+        String[] descriptions = new String[DISTINCT_DESCRIPTION_COUNT];
+        for (int i = 0; i < descriptions.length; i++)
+        {
+            descriptions[i] = "This content is proprietary information intended for employees only. Recipients can "
+                    + "view, reply and print, but cannot forward or copy the content. Policy group " + i;
+        }
+        TemplateDescriptorModel[] templateDescriptorItems = new TemplateDescriptorModel[templateCount];
+        for (int i = 0; i < templateCount; i++)
+        {
+            TemplateDescriptor templateDescriptor = new TemplateDescriptor();
+            templateDescriptor.setTemplateId(String.format(Locale.US, "%08x-0000-4000-8000-%012x", i, i * 31L));
+            templateDescriptor.setName("Contoso - Confidential View Only " + i);
+            templateDescriptor.setDescription(descriptions[i % descriptions.length]);
+            templateDescriptorItems[i] = new TemplateDescriptorModel(templateDescriptor, i);
+        }
+        return templateDescriptorItems;
+    }
+
+    /**
+     * Runs the benchmark with the default template count and iterations and logs the results.
+     * 
+     * @return the results, the element by element format first
+     */
+    public static Result[] run()
+    {
+        return run(DEFAULT_TEMPLATE_COUNT, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Runs the benchmark and logs the results. The first iteration of each format warms up and is not measured.
+     * 
+     * @param templateCount the number of models
+     * @param iterations the number of measured iterations
+     * @return the results, the element by element format first
+     */
+    public static Result[] run(int templateCount, int iterations)
+    {
+        if (iterations <= 0)
+        {
+            throw new IllegalArgumentException("invalid parameter iterations");
+        }
+        TemplateDescriptorModel[] templateDescriptorItems = createCatalog(templateCount);
+        Result[] results = new Result[] {
+                measure(templateDescriptorItems, false, iterations),
+                measure(templateDescriptorItems, true, iterations) };
+        Logger.info(TAG, "%d templates, element by element: %s", templateCount, results[0]);
+        Logger.info(TAG, "%d templates, catalog: %s", templateCount, results[1]);
+        return results;
+    }
+
+    /**
+     * Measures one format.
+     * 
+     * @param templateDescriptorItems the models
+     * @param isCatalog true, for the catalog format; false, for the element by element format
+     * @param iterations the number of measured iterations
+     * @return the result
+     */
+    private static Result measure(TemplateDescriptorModel[] templateDescriptorItems, boolean isCatalog, int iterations)
+    {
+        ClassLoader classLoader = TemplateDescriptorModel.class.getClassLoader();
+        int dataSize = 0;
+        long marshalNanos = 0;
+        long unmarshalNanos = 0;
+        for (int i = 0; i <= iterations; i++)
+        {
+            Parcel parcel = Parcel.obtain();
+            try
+            {
+                long startNanos = System.nanoTime();
+                if (isCatalog)
+                {
+                    parcel.writeParcelable(new TemplateDescriptorModelCatalog(templateDescriptorItems), 0);
+                }
+                else
+                {
+                    parcel.writeParcelableArray(templateDescriptorItems, 0);
+                }
+                byte[] bytes = parcel.marshall();
+                long marshalledNanos = System.nanoTime();
+                Parcel copy = Parcel.obtain();
+                try
+                {
+                    copy.unmarshall(bytes, 0, bytes.length);
+                    copy.setDataPosition(0);
+                    int count = isCatalog ? copy.<TemplateDescriptorModelCatalog> readParcelable(classLoader)
+                            .getTemplateDescriptorItems().length : copy.readParcelableArray(classLoader).length;
+                    if (count != templateDescriptorItems.length)
+                    {
+                        throw new IllegalStateException("unmarshal failed");
+                    }
+                }
+                finally
+                {
+                    copy.recycle();
+                }
+                long endNanos = System.nanoTime();
+                // the first iteration warms up
+                if (i > 0)
+                {
+                    marshalNanos += marshalledNanos - startNanos;
+                    unmarshalNanos += endNanos - marshalledNanos;
+                }
+                dataSize = bytes.length;
+            }
+            finally
+            {
+                parcel.recycle();
+            }
+        }
+        return new Result(dataSize, marshalNanos / iterations, unmarshalNanos / iterations);
+    }
+}
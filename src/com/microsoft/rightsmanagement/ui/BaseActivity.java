@@ -16,6 +16,8 @@
 
 package com.microsoft.rightsmanagement.ui;
 
+import java.lang.ref.WeakReference;
+
 import com.microsoft.rightsmanagement.ui.utils.Helpers;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
 
@@ -40,6 +42,8 @@ abstract class BaseActivity extends FragmentActivity
     
     protected static String TAG = "BaseAnimatedActivity";
 
+    protected static int TAG_ID = Logger.getTagId(TAG);
+
     protected View mBaseContainerView;
 
     protected ValueAnimator mBgColorAnimationAtActivityEnd;
@@ -58,8 +62,46 @@ abstract class BaseActivity extends FragmentActivity
     protected static void setTAG(String tag)
     {
         TAG = tag;
+        TAG_ID = Logger.getTagId(tag);
     }
     
+    /**
+     * Creates the future returned by the show() variants. Cancelling the future, or letting it time out, finishes the
+     * activity started for the request code. The parent activity is held weakly.
+     * 
+     * @param <T> the result type
+     * @param parentActivity the parent activity
+     * @param requestCode the request code the activity is started with
+     * @return the completion future
+     */
+    protected static <T> CompletionFuture<T> createCompletionFuture(Activity parentActivity, final int requestCode)
+    {
+        final WeakReference<Activity> parentActivityReference = new WeakReference<Activity>(
+                validateActivityInputParameter(parentActivity));
+        CompletionFuture<T> completionFuture = new CompletionFuture<T>();
+        completionFuture.setCancelAction(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final Activity activity = parentActivityReference.get();
+                if (activity != null)
+                {
+                    activity.runOnUiThread(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            Logger.d(TAG, TAG_ID, "finishing activity of cancelled future");
+                            activity.finishActivity(requestCode);
+                        }
+                    });
+                }
+            }
+        });
+        return completionFuture;
+    }
+
     /**
      * Validate activity input parameter.
      * 
@@ -97,11 +139,11 @@ abstract class BaseActivity extends FragmentActivity
     @Override
     public void onBackPressed()
     {
-        Logger.ms(TAG, "onBackPressed");
+        Logger.ms(TAG, TAG_ID, "onBackPressed");
         Intent data = new Intent();
         data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
         returnToCaller(RESULT_CANCELED, data);
-        Logger.me(TAG, "onBackPressed");
+        Logger.me(TAG, TAG_ID, "onBackPressed");
     }
 
     /*
@@ -136,11 +178,11 @@ abstract class BaseActivity extends FragmentActivity
                 @Override
                 public void onClick(View v)
                 {
-                    Logger.ms(TAG, "onClick - for dismissing activity");
+                    Logger.ms(TAG, TAG_ID, "onClick - for dismissing activity");
                     Intent data = new Intent();
                     data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
                     returnToCaller(RESULT_CANCELED, data);
-                    Logger.me(TAG, "onClick - for dismissing activity");
+                    Logger.me(TAG, TAG_ID, "onClick - for dismissing activity");
                 }
             });
         }
@@ -154,7 +196,7 @@ abstract class BaseActivity extends FragmentActivity
      */
     protected void createBgAnimators(int baseContainerId, Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "createBgAnimators");
+        Logger.ms(TAG, TAG_ID, "createBgAnimators");
         mBaseContainerView = findViewById(baseContainerId);
         if (mBaseContainerView != null)
         {
@@ -178,7 +220,7 @@ abstract class BaseActivity extends FragmentActivity
             mBgColorAnimationAtActivityEnd = Helpers.createBackgroundColorFaderAnimation(mBaseContainerView,
                     overlayBackgroundColor, originalBackgroundColor);
         }
-        Logger.me(TAG, "createBgAnimators");
+        Logger.me(TAG, TAG_ID, "createBgAnimators");
     }
     
     /**
@@ -0,0 +1,187 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.microsoft.rightsmanagement.ui.utils.Logger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Chooses the thread that processes activity results and invokes CompletionCallback methods.
+ * <p>
+ * The static onActivityResult methods hand the result to a dispatcher, which reads the extras of the result, resolves
+ * the selected template and invokes the callback. With the direct dispatcher, the default, all of this happens inline on
+ * the main thread as before. With a caller supplied executor the work, and whatever the callback starts, runs off the
+ * main thread. A dispatcher can be set for all flows with setDefault, or for one flow with the setCallbackDispatcher
+ * method of its activity.
+ * </p>
+ */
+public final class CallbackDispatcher implements Executor
+{
+    private static final CallbackDispatcher DIRECT = new CallbackDispatcher("direct", new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    });
+    private static final String TAG = "CallbackDispatcher";
+    private static volatile CallbackDispatcher sDefault = DIRECT;
+    private static volatile CallbackDispatcher sMainThread;
+    private final Executor mExecutor;
+    private final String mName;
+
+    /**
+     * Instantiates a new callback dispatcher.
+     * 
+     * @param name the name, for logging
+     * @param executor the executor
+     */
+    private CallbackDispatcher(String name, Executor executor)
+    {
+        mName = name;
+        mExecutor = executor;
+    }
+
+    /**
+     * Gets the dispatcher that runs callbacks inline on the thread that delivers the result, the main thread for
+     * onActivityResult.
+     * 
+     * @return the direct dispatcher
+     */
+    public static CallbackDispatcher direct()
+    {
+        return DIRECT;
+    }
+
+    /**
+     * Gets a dispatcher that runs callbacks on an executor.
+     * 
+     * @param executor the executor
+     * @return the dispatcher
+     */
+    public static CallbackDispatcher executor(Executor executor)
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("invalid parameter executor");
+        }
+        return new CallbackDispatcher(executor.getClass().getSimpleName(), executor);
+    }
+
+    /**
+     * Gets the dispatcher used by flows that have no dispatcher of their own.
+     * 
+     * @return the default dispatcher
+     */
+    public static CallbackDispatcher getDefault()
+    {
+        return sDefault;
+    }
+
+    /**
+     * Gets the dispatcher that runs callbacks on the main thread, inline if called there and posted otherwise.
+     * 
+     * @return the main thread dispatcher
+     */
+    public static CallbackDispatcher mainThread()
+    {
+        CallbackDispatcher mainThread = sMainThread;
+        if (mainThread == null)
+        {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            mainThread = new CallbackDispatcher("mainThread", new Executor()
+            {
+                @Override
+                public void execute(Runnable command)
+                {
+                    if (Looper.myLooper() == Looper.getMainLooper())
+                    {
+                        command.run();
+                    }
+                    else if (!handler.post(command))
+                    {
+                        throw new RejectedExecutionException("main looper is exiting");
+                    }
+                }
+            });
+            sMainThread = mainThread;
+        }
+        return mainThread;
+    }
+
+    /**
+     * Sets the dispatcher used by flows that have no dispatcher of their own.
+     * 
+     * @param dispatcher the new default dispatcher
+     */
+    public static void setDefault(CallbackDispatcher dispatcher)
+    {
+        if (dispatcher == null)
+        {
+            throw new IllegalArgumentException("invalid parameter dispatcher");
+        }
+        sDefault = dispatcher;
+    }
+
+    /**
+     * Gets the dispatcher of a flow.
+     * 
+     * @param dispatcher the dispatcher set for the flow, may be null
+     * @return the dispatcher of the flow, or the default dispatcher
+     */
+    static CallbackDispatcher resolve(CallbackDispatcher dispatcher)
+    {
+        return dispatcher != null ? dispatcher : sDefault;
+    }
+
+    /**
+     * Runs a command on the dispatcher. If the executor rejects it, the command runs inline so the callback is not
+     * lost.
+     * 
+     * @param command the command
+     */
+    @Override
+    public void execute(Runnable command)
+    {
+        try
+        {
+            mExecutor.execute(command);
+        }
+        catch (RejectedExecutionException e)
+        {
+            Logger.ie(TAG, String.format("Dispatcher %s rejected a callback, running it inline. %s", mName,
+                    e.getMessage()));
+            command.run();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return mName;
+    }
+}
@@ -19,7 +19,7 @@ package com.microsoft.rightsmanagement.ui;
 /**
  * The Interface CompletionCallback.
  * Provides callback methods for MSIPC UI Activity completion events.
- * All the methods are called on Main thread.
+ * The methods are called on the main thread, unless another CallbackDispatcher is set for the flow.
  *
  * @param <T> the generic type
  */
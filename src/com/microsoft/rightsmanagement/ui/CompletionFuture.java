@@ -0,0 +1,462 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.rightsmanagement.ui.utils.Logger;
+
+/**
+ * A handle on the result of a UI flow, returned by the show() variants that take no CompletionCallback.
+ * <p>
+ * The future succeeds with the item passed to onSuccess, is cancelled when the user cancels the activity, and fails
+ * when it times out or a chained step throws. Cancelling a future returned by show() also finishes its activity.
+ * Steps are chained with thenCompose and run on an executor chosen by the caller; cancelling the end of a chain
+ * cancels the step that is running. Since a future is also a CompletionCallback, callers can complete their own
+ * futures from other asynchronous APIs and chain them with the UI steps.
+ * </p>
+ * Results of activities are delivered on the main thread, so get() must not be called on the main thread while the
+ * activity is showing.
+ * 
+ * @param <T> the result type
+ */
+public class CompletionFuture<T> implements Future<T>, CompletionCallback<T>
+{
+    /**
+     * Computes the next step of a chain from the result of the previous one.
+     * 
+     * @param <I> the input type
+     * @param <O> the output type
+     */
+    public interface AsyncFunction<I, O>
+    {
+        /**
+         * Starts the next step.
+         * 
+         * @param input the result of the previous step
+         * @return the future of the next step
+         * @throws Exception fails the chained future
+         */
+        public CompletionFuture<O> apply(I input) throws Exception;
+    }
+
+    /**
+     * A listener and the executor it runs on.
+     */
+    private static final class Listener
+    {
+        private final Executor mExecutor;
+        private final Runnable mRunnable;
+
+        /**
+         * Instantiates a new listener.
+         * 
+         * @param runnable the runnable
+         * @param executor the executor
+         */
+        Listener(Runnable runnable, Executor executor)
+        {
+            mRunnable = runnable;
+            mExecutor = executor;
+        }
+    }
+
+    /**
+     * Holds the timer used by withTimeout, created on first use.
+     */
+    private static class TimerHolder
+    {
+        private static final ScheduledThreadPoolExecutor sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, TIMER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    private static final int CANCELLED = 4;
+    private static final int COMPLETING = 1;
+    private static final int FAILED = 3;
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 2;
+    private static final String TAG = "CompletionFuture";
+    private static final String TIMER_THREAD_NAME = "RmsUiFutureTimer";
+    private volatile Runnable mCancelAction;
+    private volatile CompletionFuture<?> mCurrentStep;
+    private final CountDownLatch mDoneLatch = new CountDownLatch(1);
+    private Throwable mFailure;
+    private final ConcurrentLinkedQueue<Listener> mListeners = new ConcurrentLinkedQueue<Listener>();
+    private final AtomicInteger mState = new AtomicInteger(PENDING);
+    private T mValue;
+
+    /**
+     * Adds a listener that runs on an executor once the future is done. Runs it right away if the future is already
+     * done.
+     * 
+     * @param listener the listener
+     * @param executor the executor
+     */
+    public void addListener(Runnable listener, Executor executor)
+    {
+        if (listener == null)
+        {
+            throw new IllegalArgumentException("invalid parameter listener");
+        }
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("invalid parameter executor");
+        }
+        mListeners.add(new Listener(listener, executor));
+        if (isDone())
+        {
+            runListeners();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        if (!complete(CANCELLED, null, null))
+        {
+            return false;
+        }
+        Runnable cancelAction = mCancelAction;
+        if (cancelAction != null)
+        {
+            cancelAction.run();
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#get()
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException
+    {
+        mDoneLatch.await();
+        return getResult();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!mDoneLatch.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#isCancelled()
+     */
+    @Override
+    public boolean isCancelled()
+    {
+        return mState.get() == CANCELLED;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#isDone()
+     */
+    @Override
+    public boolean isDone()
+    {
+        return mState.get() > COMPLETING;
+    }
+
+    /**
+     * Cancels the future without running its cancel action, since the activity is already gone.
+     */
+    @Override
+    public void onCancel()
+    {
+        complete(CANCELLED, null, null);
+    }
+
+    /**
+     * Completes the future successfully.
+     * 
+     * @param item the item
+     */
+    @Override
+    public void onSuccess(T item)
+    {
+        complete(SUCCEEDED, item, null);
+    }
+
+    /**
+     * Removes a listener that has not run yet, so that it no longer holds on to what it references.
+     * 
+     * @param listener the listener as passed to addListener
+     * @return true, if the listener was removed before it ran
+     */
+    public boolean removeListener(Runnable listener)
+    {
+        for (Listener entry : mListeners)
+        {
+            if (entry.mRunnable == listener)
+            {
+                return mListeners.remove(entry);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fails the future.
+     * 
+     * @param failure the failure
+     * @return true, if the future was completed by this call
+     */
+    public boolean setException(Throwable failure)
+    {
+        if (failure == null)
+        {
+            throw new IllegalArgumentException("invalid parameter failure");
+        }
+        return complete(FAILED, null, failure);
+    }
+
+    /**
+     * Chains the next step. Once this future succeeds, the function is called on the executor and the returned future
+     * completes like the future the function returned. Failures and cancellation of this future are passed on without
+     * calling the function. Cancelling the returned future cancels this future or the step started by the function.
+     * 
+     * @param <U> the result type of the next step
+     * @param function the function that starts the next step
+     * @param executor the executor the function is called on
+     * @return the future of the chain
+     */
+    public <U> CompletionFuture<U> thenCompose(final AsyncFunction<? super T, U> function, Executor executor)
+    {
+        if (function == null)
+        {
+            throw new IllegalArgumentException("invalid parameter function");
+        }
+        final CompletionFuture<U> chain = new CompletionFuture<U>();
+        chain.mCurrentStep = this;
+        chain.setCancelAction(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                CompletionFuture<?> currentStep = chain.mCurrentStep;
+                if (currentStep != null)
+                {
+                    currentStep.cancel(false);
+                }
+            }
+        });
+        addListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (mState.get() != SUCCEEDED)
+                {
+                    chain.complete(mState.get(), null, mFailure);
+                    return;
+                }
+                try
+                {
+                    final CompletionFuture<U> next = function.apply(mValue);
+                    if (next == null)
+                    {
+                        throw new NullPointerException("function returned null");
+                    }
+                    chain.mCurrentStep = next;
+                    if (chain.isCancelled())
+                    {
+                        next.cancel(false);
+                    }
+                    next.addListener(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            chain.completeLike(next);
+                        }
+                    }, CallbackDispatcher.direct());
+                }
+                catch (Exception e)
+                {
+                    chain.setException(e);
+                }
+            }
+        }, executor);
+        return chain;
+    }
+
+    /**
+     * Fails the future with a TimeoutException if it is not done within the timeout, and runs its cancel action, which
+     * finishes the activity of a future returned by show(). The timeout task is dropped from the timer as soon as the
+     * future completes first.
+     * 
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     * @return this future
+     */
+    public CompletionFuture<T> withTimeout(long timeout, TimeUnit unit)
+    {
+        if (timeout < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter timeout");
+        }
+        if (!isDone())
+        {
+            final ScheduledFuture<?> timeoutTask = TimerHolder.sTimer.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (complete(FAILED, null, new TimeoutException()))
+                    {
+                        Runnable cancelAction = mCancelAction;
+                        if (cancelAction != null)
+                        {
+                            cancelAction.run();
+                        }
+                    }
+                }
+            }, timeout, unit);
+            addListener(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // setRemoveOnCancelPolicy needs API 21, so remove the cancelled task from the queue by purging
+                    if (timeoutTask.cancel(false))
+                    {
+                        TimerHolder.sTimer.purge();
+                    }
+                }
+            }, CallbackDispatcher.direct());
+        }
+        return this;
+    }
+
+    /**
+     * Sets the action that stops the work behind this future when the caller cancels it or it times out.
+     * 
+     * @param cancelAction the cancel action
+     */
+    void setCancelAction(Runnable cancelAction)
+    {
+        mCancelAction = cancelAction;
+    }
+
+    /**
+     * Moves the future to a final state, once.
+     * 
+     * @param state the final state
+     * @param value the value if succeeded
+     * @param failure the failure if failed
+     * @return true, if the future was completed by this call
+     */
+    private boolean complete(int state, T value, Throwable failure)
+    {
+        if (!mState.compareAndSet(PENDING, COMPLETING))
+        {
+            return false;
+        }
+        mValue = value;
+        mFailure = failure;
+        mState.set(state);
+        mDoneLatch.countDown();
+        runListeners();
+        return true;
+    }
+
+    /**
+     * Completes this future with the outcome of another future that is done.
+     * 
+     * @param source the source future
+     */
+    private void completeLike(CompletionFuture<? extends T> source)
+    {
+        int state = source.mState.get();
+        complete(state, state == SUCCEEDED ? source.mValue : null, source.mFailure);
+    }
+
+    /**
+     * Gets the result of a future that is done.
+     * 
+     * @return the value
+     * @throws ExecutionException if the future failed
+     */
+    private T getResult() throws ExecutionException
+    {
+        switch (mState.get())
+        {
+            case SUCCEEDED:
+                return mValue;
+            case FAILED:
+                throw new ExecutionException(mFailure);
+            default:
+                throw new CancellationException();
+        }
+    }
+
+    /**
+     * Runs the listeners that were not run yet. Each listener is taken from the queue by exactly one caller.
+     */
+    private void runListeners()
+    {
+        Listener listener;
+        while ((listener = mListeners.poll()) != null)
+        {
+            try
+            {
+                listener.mExecutor.execute(listener.mRunnable);
+            }
+            catch (RejectedExecutionException e)
+            {
+                // like CallbackDispatcher; a dropped listener could be the one that completes a chained future
+                Logger.ie(TAG, "Executor rejected a listener, running it inline. " + e.getMessage());
+                listener.mRunnable.run();
+            }
+        }
+    }
+}
@@ -31,7 +31,10 @@ import com.microsoft.rightsmanagement.ConsentResult;
 import com.microsoft.rightsmanagement.ConsentType;
 import com.microsoft.rightsmanagement.ui.model.ConsentModel;
 import com.microsoft.rightsmanagement.ui.utils.CallbackManager;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.WaitingRequest;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.RequestIdAllocator;
 import com.microsoft.rightsmanagement.ui.widget.ConsentFragment;
 import com.microsoft.rightsmanagement.ui.widget.ConsentFragment.ConsentFragmentEventListner;
 
@@ -43,7 +46,8 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
 {
     private static final String REQUEST_CONSENT_MODEL = "REQUEST_CONSENT_MODEL";
     private static final String RESULT_CONSENT_MODEL = "RESULT_CONSENT_MODEL";
-    private static CallbackManager<Collection<Consent>,Collection<Consent>> sCallbackManager = new CallbackManager<Collection<Consent>, Collection<Consent>>();
+    private static volatile CallbackDispatcher sCallbackDispatcher;
+    private static CallbackManager<Collection<Consent>,Collection<Consent>> sCallbackManager = new CallbackManager<Collection<Consent>, Collection<Consent>>("ConsentActivity");
     private ConsentFragment mConsentFragment;
     private ConsentModel mConsentModel;
     static
@@ -58,53 +62,51 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
      * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
      * @param data the data parameter as supplied to parent Activity's onActivityResult
      */
-    public static void onActivityResult(int resultCode, Intent data)
+    public static void onActivityResult(final int resultCode, final Intent data)
     {
-        Logger.ms(TAG, "onActivityResult");
-        int requestCallbackId = 0;
+        Logger.ms(TAG, TAG_ID, "onActivityResult");
         if (data == null)
         {
             Logger.i(TAG, "System closed the activity", "");
             return;
         }
-        try
+        CallbackDispatcher.resolve(sCallbackDispatcher).execute(new Runnable()
         {
-            final Bundle extras = data.getExtras();
-            requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
-            final CompletionCallback<Collection<Consent>> callback = sCallbackManager
-                    .getWaitingRequest(requestCallbackId);
-            switch (resultCode)
+            @Override
+            public void run()
             {
-                case RESULT_OK:
-                    Logger.i(TAG, "resultCode=RESULT_OK", "");
-                    ConsentModel consentModel = (ConsentModel)extras.get(RESULT_CONSENT_MODEL);
-                    Collection<Consent> consents = sCallbackManager.getState(requestCallbackId);
-                    for (Consent consent : consents)
-                    {
-                        if (consent.getConsentType() == ConsentType.SERVICE_URL_CONSENT
-                                || consent.getConsentType() == ConsentType.DOCUMENT_TRACKING_CONSENT)
-                        {
-                            ConsentResult consentResult = new ConsentResult(consentModel.isAccepted(),
-                                    consentModel.isShowAgain(), null);
-                            consent.setConsentResult(consentResult);
-                        }
-                    }
-                    callback.onSuccess(consents);
-                    break;
-                case RESULT_CANCELED:
-                    Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
-                    callback.onCancel();
-                    break;
+                deliverActivityResult(resultCode, data);
             }
-        }
-        finally
-        {
-            if (requestCallbackId != 0)
-            {
-                sCallbackManager.removeWaitingRequest(requestCallbackId);
-            }
-            Logger.me(TAG, "onActivityResult");
-        }
+        });
+        Logger.me(TAG, TAG_ID, "onActivityResult");
+    }
+
+    /**
+     * Sets the dispatcher that processes the results of this activity and invokes the callbacks.
+     * 
+     * @param callbackDispatcher the callback dispatcher, or null to use CallbackDispatcher.getDefault()
+     */
+    public static void setCallbackDispatcher(CallbackDispatcher callbackDispatcher)
+    {
+        sCallbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Show UI and returns a future instead of taking a callback. The future is cancelled when the user cancels, and
+     * cancelling it finishes the activity. onActivityResult must still be called from the parent activity.
+     * 
+     * @param requestCode the request code to be returned when activity completes
+     * @param parentActivity the parent activity
+     * @param consents the consents
+     * @return the future of the consents with their results
+     */
+    public static CompletionFuture<Collection<Consent>> show(int requestCode,
+                                                             Activity parentActivity,
+                                                             Collection<Consent> consents)
+    {
+        CompletionFuture<Collection<Consent>> completionFuture = createCompletionFuture(parentActivity, requestCode);
+        show(requestCode, parentActivity, consents, completionFuture);
+        return completionFuture;
     }
 
     /**
@@ -120,19 +122,63 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
                             Collection<Consent> consents,
                             CompletionCallback<Collection<Consent>> consentActivityCompletionCallback)
     {
-        Logger.ms(TAG, "show");
+        Logger.ms(TAG, TAG_ID, "show");
         parentActivity = validateActivityInputParameter(parentActivity);
         consentActivityCompletionCallback = validateCompletionCallbackInputParameter(consentActivityCompletionCallback);
         consents = validateConsentInputParamter(consents);
         ConsentModel consentModel = new ConsentModel(consents);
-        int requestCallbackId = consentActivityCompletionCallback.hashCode();
+        int requestCallbackId = RequestIdAllocator.allocate(parentActivity);
         sCallbackManager.putWaitingRequest(requestCallbackId, consentActivityCompletionCallback, consents);
         Intent intent = new Intent(parentActivity, ConsentActivity.class);
         intent.putExtra(REQUEST_CALLBACK_ID, requestCallbackId);
         intent.putExtra(REQUEST_CONSENT_MODEL, consentModel);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         parentActivity.startActivityForResult(intent, requestCode);
-        Logger.me(TAG, "show");
+        Logger.me(TAG, TAG_ID, "show");
+    }
+
+    /**
+     * Reads the result and invokes the callback waiting for it. Runs on the dispatcher of this activity.
+     * 
+     * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
+     * @param data the data parameter as supplied to parent Activity's onActivityResult
+     */
+    private static void deliverActivityResult(int resultCode, Intent data)
+    {
+        final Bundle extras = data.getExtras();
+        int requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
+        WaitingRequest<Collection<Consent>, Collection<Consent>> waitingRequest = sCallbackManager
+                .takeWaitingRequest(requestCallbackId, resultCode == RESULT_OK ? Outcome.Ok : Outcome.Cancelled);
+        final CompletionCallback<Collection<Consent>> callback = waitingRequest != null ? waitingRequest
+                .getCompletionCallback() : null;
+        if (callback == null)
+        {
+            Logger.i(TAG, "No waiting request for the result", "");
+            return;
+        }
+        switch (resultCode)
+        {
+            case RESULT_OK:
+                Logger.i(TAG, "resultCode=RESULT_OK", "");
+                ConsentModel consentModel = (ConsentModel)extras.get(RESULT_CONSENT_MODEL);
+                Collection<Consent> consents = waitingRequest.getState();
+                for (Consent consent : consents)
+                {
+                    if (consent.getConsentType() == ConsentType.SERVICE_URL_CONSENT
+                            || consent.getConsentType() == ConsentType.DOCUMENT_TRACKING_CONSENT)
+                    {
+                        ConsentResult consentResult = new ConsentResult(consentModel.isAccepted(),
+                                consentModel.isShowAgain(), null);
+                        consent.setConsentResult(consentResult);
+                    }
+                }
+                callback.onSuccess(consents);
+                break;
+            case RESULT_CANCELED:
+                Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
+                callback.onCancel();
+                break;
+        }
     }
 
     /**
@@ -175,7 +221,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
         mConsentFragment = (ConsentFragment)getSupportFragmentManager().findFragmentByTag(ConsentFragment.TAG);
         if (mConsentFragment == null)
         {
-            Logger.d(TAG, "addConsentFragment() - mConsentFragment is null");
+            Logger.d(TAG, TAG_ID, "addConsentFragment() - mConsentFragment is null");
             mConsentFragment = ConsentFragment.create(mConsentModel);
             FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
             ft.setCustomAnimations(R.animator.slide_animation_in_from_down, 0);
@@ -183,7 +229,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
         }
         else
         {
-            Logger.d(TAG, "addConsentFragment() - mConsentFragment is not null");
+            Logger.d(TAG, TAG_ID, "addConsentFragment() - mConsentFragment is not null");
         }
     }
 
@@ -197,7 +243,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     protected void returnToCaller(int resultCode, Intent data)
     {
         super.returnToCaller(resultCode, data);
-        Logger.d(TAG, String.format("ReturnToCaller - resultCode=%d", resultCode));
+        Logger.d(TAG, TAG_ID, "ReturnToCaller - resultCode=%d", resultCode);
         setResult(resultCode, data);
         if (mConsentFragment == null)
         {
@@ -216,27 +262,27 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     @Override
     public void onAcceptButtonClicked(boolean showAgain)
     {
-        Logger.ms(TAG, "onAcceptButtonClicked");
+        Logger.ms(TAG, TAG_ID, "onAcceptButtonClicked");
         Intent data = new Intent();
         data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
         mConsentModel.setAccepted(true);
         mConsentModel.setShowAgain(showAgain);
         data.putExtra(RESULT_CONSENT_MODEL, mConsentModel);
         returnToCaller(RESULT_OK, data);
-        Logger.me(TAG, "onAcceptButtonClicked");
+        Logger.me(TAG, TAG_ID, "onAcceptButtonClicked");
     }
 
     @Override
     public void onCancelButtonClicked(boolean showAgain)
     {
-        Logger.ms(TAG, "onAcceptButtonClicked");
+        Logger.ms(TAG, TAG_ID, "onAcceptButtonClicked");
         Intent data = new Intent();
         data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
         mConsentModel.setAccepted(false);
         mConsentModel.setShowAgain(showAgain);
         data.putExtra(RESULT_CONSENT_MODEL, mConsentModel);
         returnToCaller(RESULT_OK, data);
-        Logger.me(TAG, "onAcceptButtonClicked");
+        Logger.me(TAG, TAG_ID, "onAcceptButtonClicked");
     }
 
     /*
@@ -246,12 +292,12 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreate");
+        Logger.ms(TAG, TAG_ID, "onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.consent_activity_layout);
         if (savedInstanceState == null)
         {
-            Logger.d(TAG, "bundle is null");
+            Logger.d(TAG, TAG_ID, "bundle is null");
             // creating from scratch
             Intent intent = getIntent();
             Bundle argumentsBundle = intent.getExtras();
@@ -259,7 +305,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
         }
         else
         {
-            Logger.d(TAG, "bundle is not null");
+            Logger.d(TAG, TAG_ID, "bundle is not null");
             // creation from saved state
             parseBundleInput(savedInstanceState);
         }
@@ -268,7 +314,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
         addTransparentPartDismissListener(R.id.right_transparent_part);
         // create fader animators
         createBgAnimators(R.id.consent_base_container, savedInstanceState);
-        Logger.me(TAG, "onCreate");
+        Logger.me(TAG, TAG_ID, "onCreate");
     }
 
     /*
@@ -278,11 +324,11 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     @Override
     protected void onSaveInstanceState(Bundle outState)
     {
-        Logger.ms(TAG, "onSaveInstanceState");
+        Logger.ms(TAG, TAG_ID, "onSaveInstanceState");
         super.onSaveInstanceState(outState);
         outState.putInt(REQUEST_CALLBACK_ID, mRequestCallbackId);
         outState.putParcelable(REQUEST_CONSENT_MODEL, mConsentModel);
-        Logger.me(TAG, "onSaveInstanceState");
+        Logger.me(TAG, TAG_ID, "onSaveInstanceState");
     }
     
     /*
@@ -294,7 +340,7 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     {
         if ((isFinishing() == true) && (mActivityFinishedWithResult == false))
         {
-            sCallbackManager.removeWaitingRequest(mRequestCallbackId);
+            sCallbackManager.takeWaitingRequest(mRequestCallbackId, Outcome.SystemClosed);
         }
         super.onDestroy();
     }
@@ -308,13 +354,13 @@ public class ConsentActivity extends BaseActivity implements ConsentFragmentEven
     {
         if (bundle.containsKey(REQUEST_CONSENT_MODEL))
         {
-            Logger.d(TAG, "parseBundleInput - parsing consentModel");
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing consentModel");
             Parcelable requestModel = bundle.getParcelable(REQUEST_CONSENT_MODEL);
             mConsentModel = (ConsentModel)requestModel;
         }
         if (bundle.containsKey(REQUEST_CALLBACK_ID))
         {
-            Logger.d(TAG, "parseBundleInput - parsing RequestCallbackId");
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing RequestCallbackId");
             mRequestCallbackId = bundle.getInt(REQUEST_CALLBACK_ID);
         }
     }
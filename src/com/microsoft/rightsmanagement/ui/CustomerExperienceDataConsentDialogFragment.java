@@ -33,7 +33,10 @@ import android.view.View.OnClickListener;
 import android.widget.Button;
 
 import com.microsoft.rightsmanagement.ui.utils.CallbackManager;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.WaitingRequest;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.RequestIdAllocator;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -55,8 +58,9 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
         UserResponded
     }
     public static final String TAG = "CustomerExperienceDataConsentDialogFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
     private static final String REQUEST_CALLBACK_ID = "REQUEST_CALLBACK_ID";
-    private static CallbackManager<Void, Void> sCallbackManager = new CallbackManager<Void, Void>();
+    private static CallbackManager<Void, Void> sCallbackManager = new CallbackManager<Void, Void>("CustomerExperienceDataConsentDialogFragment");
     private DialogState mDialogState = DialogState.None;
     private int mRequestCallbackId;
     
@@ -68,9 +72,9 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
      */
     public static CustomerExperienceDataConsentDialogFragment newInstance(CompletionCallback<Void> consentCompletionCallback)
     {
-        Logger.ms(TAG, "newInstance");
+        Logger.ms(TAG, TAG_ID, "newInstance");
         CustomerExperienceDataConsentDialogFragment consentDialogFragment = new CustomerExperienceDataConsentDialogFragment();
-        consentDialogFragment.mRequestCallbackId = consentCompletionCallback.hashCode();
+        consentDialogFragment.mRequestCallbackId = RequestIdAllocator.allocate();
         sCallbackManager.putWaitingRequest(consentDialogFragment.mRequestCallbackId, consentCompletionCallback);
         
         // Set the arguments for cases when fragment is recreated by OS
@@ -78,7 +82,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
         args.putInt(REQUEST_CALLBACK_ID, consentDialogFragment.mRequestCallbackId);
         consentDialogFragment.setArguments(args);
         
-        Logger.me(TAG, "newInstance");
+        Logger.me(TAG, TAG_ID, "newInstance");
         return consentDialogFragment;
     }
     
@@ -102,7 +106,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreateDialog");
+        Logger.ms(TAG, TAG_ID, "onCreateDialog");
         super.onCreateDialog(savedInstanceState);
         
         // initialize the field for cases when fragment is recreated by OS
@@ -121,7 +125,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "onClick listener called on yes button");
+                Logger.d(TAG, TAG_ID, "onClick listener called on yes button");
                 mDialogState = DialogState.UserResponded;
                 storeDebugLogPreference(true);
                 dismiss();
@@ -133,7 +137,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "onClick listener called on no button");
+                Logger.d(TAG, TAG_ID, "onClick listener called on no button");
                 mDialogState = DialogState.UserResponded;
                 storeDebugLogPreference(false);
                 dismiss();
@@ -145,7 +149,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "onClick listener called on learn more");
+                Logger.d(TAG, TAG_ID, "onClick listener called on learn more");
                 Intent internetIntent = new Intent(Intent.ACTION_VIEW, Uri.parse(getString(R.string.learn_more_uri)));
                 startActivity(internetIntent);
             }
@@ -158,7 +162,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
             {
                 if (keyCode == KeyEvent.KEYCODE_BACK)
                 {
-                    Logger.d(TAG, "onback press");
+                    Logger.d(TAG, TAG_ID, "onback press");
                     mDialogState = DialogState.UserCancelled;
                     // onback press dismiss dialog and assume no thanks
                     storeDebugLogPreference(false);
@@ -173,7 +177,7 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
         dialogbuilder.setView(view);
         dialogbuilder.setOnKeyListener(backKeyListener);
         AlertDialog dialog = dialogbuilder.create();
-        Logger.me(TAG, "onCreateDialog");
+        Logger.me(TAG, TAG_ID, "onCreateDialog");
         return dialog;
     }
     
@@ -207,10 +211,12 @@ public class CustomerExperienceDataConsentDialogFragment extends DialogFragment
      */
     private void invokeCompletionCallback(boolean wasDialogCancelled)
     {
-        CompletionCallback<Void> completionCallback = sCallbackManager.getWaitingRequest(mRequestCallbackId);
+        WaitingRequest<Void, Void> waitingRequest = sCallbackManager.takeWaitingRequest(mRequestCallbackId,
+                wasDialogCancelled ? Outcome.Cancelled : Outcome.Ok);
+        CompletionCallback<Void> completionCallback = waitingRequest != null ? waitingRequest.getCompletionCallback()
+                : null;
         if (completionCallback != null)
         {
-            sCallbackManager.removeWaitingRequest(mRequestCallbackId);
             if (wasDialogCancelled)
             {
                 completionCallback.onCancel();
@@ -25,8 +25,11 @@ import android.content.Intent;
 import android.os.Bundle;
 import com.microsoft.rightsmanagement.ui.CompletionCallback;
 import com.microsoft.rightsmanagement.ui.utils.CallbackManager;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.WaitingRequest;
 import com.microsoft.rightsmanagement.ui.utils.Helpers;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.RequestIdAllocator;
 import com.microsoft.rightsmanagement.ui.widget.EmailFragment;
 
 /**
@@ -35,7 +38,8 @@ import com.microsoft.rightsmanagement.ui.widget.EmailFragment;
 public class EmailActivity extends BaseActivity implements EmailFragment.EmailFragmentEventListener
 {
     private static final String RESULT_EMAIL = "RESULT_EMAIL";
-    private static CallbackManager<String, Void> sCallbackManager = new CallbackManager<String, Void>();
+    private static volatile CallbackDispatcher sCallbackDispatcher;
+    private static CallbackManager<String, Void> sCallbackManager = new CallbackManager<String, Void>("EmailActivity");
     private static Pattern sEmailPattern = Pattern
             .compile("[a-zA-Z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-zA-Z0-9!#$%&'*+/=?^_`{|}~-]+)*@(?:[a-zA-Z0-9](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?\\.)+[a-zA-Z0-9](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?");
     EmailFragment mEmailFragment;
@@ -52,41 +56,49 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
      * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
      * @param data the data parameter as supplied to parent Activity's onActivityResult
      */
-    public static void onActivityResult(int resultCode, Intent data)
+    public static void onActivityResult(final int resultCode, final Intent data)
     {
-        Logger.ms(TAG, "onActivityResult");
-        int requestCallbackId = 0;
+        Logger.ms(TAG, TAG_ID, "onActivityResult");
         if (data == null)
         {
             Logger.i(TAG, "System closed the activity", "");
             return;
         }
-        try
+        CallbackDispatcher.resolve(sCallbackDispatcher).execute(new Runnable()
         {
-            final Bundle extras = data.getExtras();
-            requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
-            final CompletionCallback<String> callback = sCallbackManager.getWaitingRequest(requestCallbackId);
-            switch (resultCode)
+            @Override
+            public void run()
             {
-                case RESULT_OK:
-                    Logger.i(TAG, "resultCode=RESULT_OK", "");
-                    String emailId = extras.getString(RESULT_EMAIL);
-                    callback.onSuccess(emailId);
-                    break;
-                case RESULT_CANCELED:
-                    Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
-                    callback.onCancel();
-                    break;
+                deliverActivityResult(resultCode, data);
             }
-        }
-        finally
-        {
-            if (requestCallbackId != 0)
-            {
-                sCallbackManager.removeWaitingRequest(requestCallbackId);
-            }
-            Logger.me(TAG, "onActivityResult");
-        }
+        });
+        Logger.me(TAG, TAG_ID, "onActivityResult");
+    }
+
+    /**
+     * Sets the dispatcher that processes the results of this activity and invokes the callbacks.
+     * 
+     * @param callbackDispatcher the callback dispatcher, or null to use CallbackDispatcher.getDefault()
+     */
+    public static void setCallbackDispatcher(CallbackDispatcher callbackDispatcher)
+    {
+        sCallbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Show UI and returns a future instead of taking a callback. The future is cancelled when the user cancels, and
+     * cancelling it finishes the activity. onActivityResult must still be called from the parent activity.
+     * 
+     * @param requestCode the request code to be returned when activity completes
+     * @param parentActivity the parent activity
+     * @return the future of the email id
+     */
+    public static CompletionFuture<String> show(int requestCode,
+                                                Activity parentActivity)
+    {
+        CompletionFuture<String> completionFuture = createCompletionFuture(parentActivity, requestCode);
+        show(requestCode, parentActivity, completionFuture);
+        return completionFuture;
     }
 
     /**
@@ -100,16 +112,49 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
                             Activity parentActivity,
                             CompletionCallback<String> emailActivityCompletionCallback)
     {
-        Logger.ms(TAG, "show");
+        Logger.ms(TAG, TAG_ID, "show");
         parentActivity = validateActivityInputParameter(parentActivity);
         emailActivityCompletionCallback = validateCompletionCallbackInputParameter(emailActivityCompletionCallback);
-        int requestCallbackId = emailActivityCompletionCallback.hashCode();
+        int requestCallbackId = RequestIdAllocator.allocate(parentActivity);
         sCallbackManager.putWaitingRequest(requestCallbackId, emailActivityCompletionCallback);
         Intent intent = new Intent(parentActivity, EmailActivity.class);
         intent.putExtra(REQUEST_CALLBACK_ID, requestCallbackId);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         parentActivity.startActivityForResult(intent, requestCode);
-        Logger.me(TAG, "show");
+        Logger.me(TAG, TAG_ID, "show");
+    }
+
+    /**
+     * Reads the result and invokes the callback waiting for it. Runs on the dispatcher of this activity.
+     * 
+     * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
+     * @param data the data parameter as supplied to parent Activity's onActivityResult
+     */
+    private static void deliverActivityResult(int resultCode, Intent data)
+    {
+        final Bundle extras = data.getExtras();
+        int requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
+        WaitingRequest<String, Void> waitingRequest = sCallbackManager.takeWaitingRequest(requestCallbackId,
+                resultCode == RESULT_OK ? Outcome.Ok : Outcome.Cancelled);
+        final CompletionCallback<String> callback = waitingRequest != null ? waitingRequest
+                .getCompletionCallback() : null;
+        if (callback == null)
+        {
+            Logger.i(TAG, "No waiting request for the result", "");
+            return;
+        }
+        switch (resultCode)
+        {
+            case RESULT_OK:
+                Logger.i(TAG, "resultCode=RESULT_OK", "");
+                String emailId = extras.getString(RESULT_EMAIL);
+                callback.onSuccess(emailId);
+                break;
+            case RESULT_CANCELED:
+                Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
+                callback.onCancel();
+                break;
+        }
     }
 
     /**
@@ -120,7 +165,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
      */
     private static boolean isValidEmail(String email)
     {
-        Logger.d(TAG, String.format("isValidEmail - email=%s", email));
+        Logger.d(TAG, TAG_ID, "isValidEmail - email=%s", email);
         Matcher m = sEmailPattern.matcher(email);
         return m.matches();
     }
@@ -132,10 +177,10 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
     @Override
     public void onContinue(final String item)
     {
-        Logger.ms(TAG, "onContinue");
+        Logger.ms(TAG, TAG_ID, "onContinue");
         if (!Helpers.IsNullOrEmpty(item) && isValidEmail(item))
         {
-            Logger.d(TAG, "item is valid");
+            Logger.d(TAG, TAG_ID, "item is valid");
             Intent data = new Intent();
             data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
             data.putExtra(RESULT_EMAIL, item);
@@ -143,7 +188,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
         }
         else
         {
-            Logger.d(TAG, "item is invalid");
+            Logger.d(TAG, TAG_ID, "item is invalid");
             if (mEmailFragment != null)
             {
                 mEmailFragment.setErrorText(getString(R.string.error_invalid_email_address_string));
@@ -154,7 +199,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
                 Logger.ie(TAG, "onContinue() - mEmailFragment shouldn't be null");
             }
         }
-        Logger.me(TAG, "onContinue");
+        Logger.me(TAG, TAG_ID, "onContinue");
     }
 
     /*
@@ -164,7 +209,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreate");
+        Logger.ms(TAG, TAG_ID, "onCreate");
         super.onCreate(savedInstanceState);
         int layoutId = R.layout.email_activity_layout;
         setContentView(layoutId);
@@ -175,7 +220,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
         addTransparentPartDismissListener(R.id.right_transparent_part);
         // create fader animators
         createBgAnimators(R.id.email_page_base_container, savedInstanceState);
-        Logger.me(TAG, "onCreate");
+        Logger.me(TAG, TAG_ID, "onCreate");
     }
     
     
@@ -187,7 +232,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
     {
         if ((isFinishing() == true) && (mActivityFinishedWithResult == false))
         {
-            sCallbackManager.removeWaitingRequest(mRequestCallbackId);
+            sCallbackManager.takeWaitingRequest(mRequestCallbackId, Outcome.SystemClosed);
         }
         super.onDestroy();
     }
@@ -202,7 +247,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
     protected void returnToCaller(int resultCode, Intent data)
     {
         super.returnToCaller(resultCode, data);
-        Logger.d(TAG, String.format("ReturnToCaller - resultCode=%d", resultCode));
+        Logger.d(TAG, TAG_ID, "ReturnToCaller - resultCode=%d", resultCode);
         setResult(resultCode, data);
         if (mEmailFragment == null)
         {
@@ -227,7 +272,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
         mEmailFragment = (EmailFragment)getSupportFragmentManager().findFragmentByTag(EmailFragment.TAG);
         if (mEmailFragment == null)
         {
-            Logger.d(TAG, "addEmailFragment() - mEmailFragment is null");
+            Logger.d(TAG, TAG_ID, "addEmailFragment() - mEmailFragment is null");
             mEmailFragment = new EmailFragment();
             FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
             ft.setCustomAnimations(R.animator.slide_animation_in_from_down, 0);
@@ -235,7 +280,7 @@ public class EmailActivity extends BaseActivity implements EmailFragment.EmailFr
         }
         else
         {
-            Logger.d(TAG, "addEmailFragment() - mEmailFragment is not null");
+            Logger.d(TAG, TAG_ID, "addEmailFragment() - mEmailFragment is not null");
         }
     }
 }
@@ -16,11 +16,17 @@
 
 package com.microsoft.rightsmanagement.ui;
 
-import java.util.Arrays;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.v4.app.FragmentTransaction;
@@ -28,9 +34,18 @@ import android.support.v4.app.FragmentTransaction;
 import com.microsoft.rightsmanagement.ui.PolicyPickerActivityResult.PolicyPickerActivityResultType;
 import com.microsoft.rightsmanagement.ui.R;
 import com.microsoft.rightsmanagement.TemplateDescriptor;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorCatalog;
 import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModel;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModelCatalog;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorSearchIndex;
 import com.microsoft.rightsmanagement.ui.utils.CallbackManager;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.WaitingRequest;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.ParcelableHandoffStore;
+import com.microsoft.rightsmanagement.ui.utils.PendingRequestStore;
+import com.microsoft.rightsmanagement.ui.utils.PendingRequestStore.StateCodec;
+import com.microsoft.rightsmanagement.ui.utils.RequestIdAllocator;
 import com.microsoft.rightsmanagement.ui.widget.TemplateDescriptorListFragment;
 import com.microsoft.rightsmanagement.ui.widget.TemplateDescriptorPickerFragment;
 
@@ -42,17 +57,107 @@ public class PolicyPickerActivity extends BaseActivity implements
         TemplateDescriptorListFragment.TemplateDescriptorDataProvider,
         TemplateDescriptorListFragment.TemplateDescriptorListEventListener
 {
+    /**
+     * Writes the ids, names and descriptions of the template descriptors of a catalog for the pending request store.
+     */
+    private static final class TemplateDescriptorCatalogCodec implements StateCodec<TemplateDescriptorCatalog>
+    {
+        /*
+         * (non-Javadoc)
+         * @see com.microsoft.rightsmanagement.ui.utils.PendingRequestStore.StateCodec#read(java.io.DataInputStream)
+         */
+        @Override
+        public TemplateDescriptorCatalog read(DataInputStream in) throws IOException
+        {
+            TemplateDescriptor[] templateDescriptors = new TemplateDescriptor[in.readInt()];
+            for (int i = 0; i < templateDescriptors.length; i++)
+            {
+                TemplateDescriptor templateDescriptor = new TemplateDescriptor();
+                templateDescriptor.setTemplateId(readString(in));
+                templateDescriptor.setName(readString(in));
+                templateDescriptor.setDescription(readString(in));
+                templateDescriptors[i] = templateDescriptor;
+            }
+            return new TemplateDescriptorCatalog(templateDescriptors);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.microsoft.rightsmanagement.ui.utils.PendingRequestStore.StateCodec#write(java.lang.Object,
+         * java.io.DataOutputStream)
+         */
+        @Override
+        public void write(TemplateDescriptorCatalog templateDescriptorCatalog, DataOutputStream out) throws IOException
+        {
+            TemplateDescriptor[] templateDescriptors = templateDescriptorCatalog.getTemplateDescriptors();
+            out.writeInt(templateDescriptors.length);
+            for (TemplateDescriptor templateDescriptor : templateDescriptors)
+            {
+                writeString(templateDescriptor.getTemplateId(), out);
+                writeString(templateDescriptor.getName(), out);
+                writeString(templateDescriptor.getDescription(), out);
+            }
+        }
+
+        /**
+         * Reads a string that may be null.
+         * 
+         * @param in the input
+         * @return the string
+         * @throws IOException Signals that the string could not be read.
+         */
+        private static String readString(DataInputStream in) throws IOException
+        {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        /**
+         * Writes a string that may be null.
+         * 
+         * @param value the string
+         * @param out the output
+         * @throws IOException Signals that the string could not be written.
+         */
+        private static void writeString(String value, DataOutputStream out) throws IOException
+        {
+            out.writeBoolean(value != null);
+            if (value != null)
+            {
+                out.writeUTF(value);
+            }
+        }
+    }
     private static final String CURRENT_SELECTED_TEMPLATE_DESCRIPTOR_INDEX = "CURRENT_SELECTED_TEMPLATE_DESCRIPTOR_INDEX";
+    private static final String HANDOFF_FILE_PREFIX = "rmsui_policy_picker_handoff_";
+    // snapshots left behind by processes that died are deleted after a day, whatever the request time to live
+    private static final long HANDOFF_MAX_SNAPSHOT_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final String PENDING_REQUEST_STORE_FILE_NAME = "rmsui_pending_policy_picker_requests";
     private static final String REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM = "REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM";
-    private static final String REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY = "REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY";
+    private static final String REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE = "REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE";
+    private static final String REQUEST_TEMPLATE_DESCRIPTOR_STREAM = "REQUEST_TEMPLATE_DESCRIPTOR_STREAM";
     private static final String RESULT_TEMPLATE_DESCRIPTOR_ITEM = "RESULT_TEMPLATE_DESCRIPTOR_ITEM";
-    private static CallbackManager<PolicyPickerActivityResult, TemplateDescriptor[]> sCallbackManager = new CallbackManager<PolicyPickerActivityResult, TemplateDescriptor[]>();
+    private static final String TEMPLATE_DESCRIPTOR_ITEM_COUNT = "TEMPLATE_DESCRIPTOR_ITEM_COUNT";
+    private static volatile CallbackDispatcher sCallbackDispatcher;
+    private static CallbackManager<PolicyPickerActivityResult, TemplateDescriptorCatalog> sCallbackManager = new CallbackManager<PolicyPickerActivityResult, TemplateDescriptorCatalog>("PolicyPickerActivity");
+    private static ParcelableHandoffStore sHandoffStore;
+    private static ConcurrentHashMap<Integer, TemplateDescriptorStream> sTemplateDescriptorStreams = new ConcurrentHashMap<Integer, TemplateDescriptorStream>();
     private int mCurrentSelectedtemplateDescriptorItemIndex = -1;
     private TemplateDescriptorModel mCustomPermissionDescriptorFakeItem;
     private TemplateDescriptorModel mNoProtectionDescriptorFakeItem;
     private TemplateDescriptorModel mOriginalTemplateDescriptorItem;
     private TemplateDescriptorModel[] mTemplateDescriptorItemArray;
+    private TemplateDescriptorModelCatalog mTemplateDescriptorItemCatalog;
+    private String mTemplateDescriptorItemArrayHandle;
     private TemplateDescriptorPickerFragment mTemplateDescriptorPickerFragment;
+    private TemplateDescriptorStream mTemplateDescriptorStream;
+    private final Runnable mTemplateDescriptorStreamListener = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onTemplateDescriptorPageAvailable();
+        }
+    };
     static
     {
         setTAG("TemplateDescriptorPickerActivity");
@@ -70,6 +175,28 @@ public class PolicyPickerActivity extends BaseActivity implements
         return !templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem();
     }
 
+    /**
+     * Keeps the template descriptors of pending requests in a journal in the files directory of the application, so
+     * that a result that reaches a process recreated after process death can be matched to its template descriptor
+     * without fetching the templates again. Call it before show(), for example in Application.onCreate.
+     * 
+     * @param context any context of the application
+     */
+    public static void enablePendingRequestStore(Context context)
+    {
+        if (context == null)
+        {
+            throw new IllegalArgumentException("invalid parameter context");
+        }
+        File file = new File(context.getApplicationContext().getFilesDir(), PENDING_REQUEST_STORE_FILE_NAME);
+        PendingRequestStore<TemplateDescriptorCatalog> pendingRequestStore = new PendingRequestStore<TemplateDescriptorCatalog>(
+                file, new TemplateDescriptorCatalogCodec(), CallbackManager.getTimeToLive());
+        // read the journal and the request id generation in the background, so that show() does not wait for them
+        pendingRequestStore.preload();
+        RequestIdAllocator.preload(context);
+        sCallbackManager.setPendingRequestStore(pendingRequestStore);
+    }
+
     /**
      * Processes the result of PolicyPickerActivity started via startActivityForResult from the parent
      * activity, and invokes the callback supplied to show(). This method must be called from parent Activity's
@@ -80,64 +207,72 @@ public class PolicyPickerActivity extends BaseActivity implements
      */
     public static void onActivityResult(int resultCode, Intent data)
     {
-        Logger.ms(TAG, "onActivityResult");
-        int requestCallbackId = 0;
+        onActivityResult(resultCode, data, null);
+    }
+
+    /**
+     * Processes the result like onActivityResult(int, Intent). If the callback supplied to show() was lost with its
+     * process and the pending request store is enabled, the result is matched to the stored template descriptors and
+     * delivered to the restored request callback instead. Matching a restored result waits for the journal of the
+     * store; with the default direct dispatcher that wait is on the main thread, so set an executor dispatcher through
+     * setCallbackDispatcher to keep it off the UI thread.
+     * 
+     * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
+     * @param data the data parameter as supplied to parent Activity's onActivityResult
+     * @param restoredRequestCallback the callback for results of requests made by a previous process, may be null
+     */
+    public static void onActivityResult(final int resultCode,
+                                        final Intent data,
+                                        final CompletionCallback<PolicyPickerActivityResult> restoredRequestCallback)
+    {
+        Logger.ms(TAG, TAG_ID, "onActivityResult");
         if (data == null)
         {
             Logger.i(TAG, "System closed the activity", "");
+            // the request id is unknown, drop the streams of all requests that are gone
+            purgeTemplateDescriptorStreams();
             return;
         }
-        try
-        {
-            final Bundle extras = data.getExtras();
-            requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
-            final CompletionCallback<PolicyPickerActivityResult> callback = sCallbackManager
-                    .getWaitingRequest(requestCallbackId);
-            switch (resultCode)
-            {
-                case RESULT_OK:
-                    Logger.i(TAG, "resultCode=RESULT_OK", "");
-                    Parcelable result = extras.getParcelable(RESULT_TEMPLATE_DESCRIPTOR_ITEM);
-                    PolicyPickerActivityResult policyPickerActivityResult = new PolicyPickerActivityResult();
-                    TemplateDescriptorModel templateDescriptorItem = (TemplateDescriptorModel)result;
-                    if (templateDescriptorItem.isNoProtectionTemplateDescriptorItem())
-                    {
-                        Logger.d(TAG, "in templateDescriptorItem.isNoProtectionTemplateDescriptorItem()");
-                        policyPickerActivityResult.mTemplateDescriptor = null;
-                        policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Template;
-                    }
-                    else if (templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem())
-                    {
-                        Logger.d(TAG, "in templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem()");
-                        policyPickerActivityResult.mTemplateDescriptor = null;
-                        policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Custom;
-                    }
-                    else
-                    {
-                        Logger.d(
-                                TAG,
-                                "neither templateDescriptorItem.isNoProtectionTemplateDescriptorItem(), nor templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem()");
-                        TemplateDescriptor[] savedTemplateDescriptors = sCallbackManager.getState(requestCallbackId);
-                        policyPickerActivityResult.mTemplateDescriptor = templateDescriptorItem
-                                .find(savedTemplateDescriptors);
-                        policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Template;
-                    }
-                    callback.onSuccess(policyPickerActivityResult);
-                    break;
-                case RESULT_CANCELED:
-                    Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
-                    callback.onCancel();
-                    break;
-            }
-        }
-        finally
+        CallbackDispatcher.resolve(sCallbackDispatcher).execute(new Runnable()
         {
-            if (requestCallbackId != 0)
+            @Override
+            public void run()
             {
-                sCallbackManager.removeWaitingRequest(requestCallbackId);
+                deliverActivityResult(resultCode, data, restoredRequestCallback);
             }
-            Logger.me(TAG, "onActivityResult");
-        }
+        });
+        Logger.me(TAG, TAG_ID, "onActivityResult");
+    }
+
+    /**
+     * Sets the dispatcher that processes the results of this activity and invokes the callbacks.
+     * 
+     * @param callbackDispatcher the callback dispatcher, or null to use CallbackDispatcher.getDefault()
+     */
+    public static void setCallbackDispatcher(CallbackDispatcher callbackDispatcher)
+    {
+        sCallbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Show UI and returns a future instead of taking a callback. The future is cancelled when the user cancels, and
+     * cancelling it finishes the activity. onActivityResult must still be called from the parent activity.
+     * 
+     * @param requestCode the request code to be returned when activity completes
+     * @param parentActivity the parent activity
+     * @param templateDescriptorList the template descriptor list
+     * @param originalTemplateDescriptor the original template descriptor
+     * @return the future of the picker result
+     */
+    public static CompletionFuture<PolicyPickerActivityResult> show(int requestCode,
+                                                                    Activity parentActivity,
+                                                                    List<TemplateDescriptor> templateDescriptorList,
+                                                                    TemplateDescriptor originalTemplateDescriptor)
+    {
+        CompletionFuture<PolicyPickerActivityResult> completionFuture = createCompletionFuture(parentActivity,
+                requestCode);
+        show(requestCode, parentActivity, templateDescriptorList, originalTemplateDescriptor, completionFuture);
+        return completionFuture;
     }
 
     /**
@@ -155,29 +290,232 @@ public class PolicyPickerActivity extends BaseActivity implements
                             TemplateDescriptor originalTemplateDescriptor,
                             CompletionCallback<PolicyPickerActivityResult> pickerCompletionCallback)
     {
-        Logger.ms(TAG, "show");
+        Logger.ms(TAG, TAG_ID, "show");
         parentActivity = validateActivityInputParameter(parentActivity);
         templateDescriptorList = validateTemplateDescriptorListInputParameter(templateDescriptorList);
         pickerCompletionCallback = validateCompletionCallbackInputParameter(pickerCompletionCallback);
-        int requestCallbackId = pickerCompletionCallback.hashCode();
+        int requestCallbackId = RequestIdAllocator.allocate(parentActivity);
         TemplateDescriptor[] templateDescriptorArray = new TemplateDescriptor[templateDescriptorList.size()];
         templateDescriptorList.toArray(templateDescriptorArray); // fill the array
-        sCallbackManager.putWaitingRequest(requestCallbackId, pickerCompletionCallback, templateDescriptorArray);
+        // index the ids once; the result and the initial selection are resolved through it
+        TemplateDescriptorCatalog templateDescriptorCatalog = new TemplateDescriptorCatalog(templateDescriptorArray);
+        sCallbackManager.putWaitingRequest(requestCallbackId, pickerCompletionCallback, templateDescriptorCatalog);
         Intent intent = new Intent(parentActivity, PolicyPickerActivity.class);
-        // translate MSIPC SDK object model to UI model
+        // translate MSIPC SDK object model to UI model, the models carry their indexes
         TemplateDescriptorModel[] templateDescriptorItemArray = TemplateDescriptorModel.create(templateDescriptorArray);
         TemplateDescriptorModel originalTemplateDescriptorItem = null;
         if (originalTemplateDescriptor != null)
         {
-            originalTemplateDescriptorItem = new TemplateDescriptorModel(originalTemplateDescriptor);
+            originalTemplateDescriptorItem = new TemplateDescriptorModel(originalTemplateDescriptor,
+                    templateDescriptorCatalog.indexOf(originalTemplateDescriptor.getTemplateId()));
+        }
+        // start activity, the array is handed over by reference to stay clear of the Binder transaction limit
+        intent.putExtra(REQUEST_CALLBACK_ID, requestCallbackId);
+        TemplateDescriptorModelCatalog templateDescriptorItemCatalog = new TemplateDescriptorModelCatalog(
+                templateDescriptorItemArray);
+        // the search index is ready by the time the user types
+        templateDescriptorItemCatalog.buildSearchIndexInBackground(AsyncTask.THREAD_POOL_EXECUTOR);
+        intent.putExtra(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE,
+                getHandoffStore(parentActivity).put(templateDescriptorItemCatalog));
+        intent.putExtra(REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM, originalTemplateDescriptorItem);
+        intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        parentActivity.startActivityForResult(intent, requestCode);
+        Logger.me(TAG, TAG_ID, "show");
+    }
+
+    /**
+     * Show UI before the templates are fetched and returns a future instead of taking a callback, like show(int,
+     * Activity, TemplateDescriptorSource, TemplateDescriptor, CompletionCallback).
+     * 
+     * @param requestCode the request code to be returned when activity completes
+     * @param parentActivity the parent activity
+     * @param templateDescriptorSource the source of the template descriptors
+     * @param originalTemplateDescriptor the original template descriptor
+     * @return the future of the picker result
+     */
+    public static CompletionFuture<PolicyPickerActivityResult> show(int requestCode,
+                                                                    Activity parentActivity,
+                                                                    TemplateDescriptorSource templateDescriptorSource,
+                                                                    TemplateDescriptor originalTemplateDescriptor)
+    {
+        CompletionFuture<PolicyPickerActivityResult> completionFuture = createCompletionFuture(parentActivity,
+                requestCode);
+        show(requestCode, parentActivity, templateDescriptorSource, originalTemplateDescriptor, completionFuture);
+        return completionFuture;
+    }
+
+    /**
+     * Show UI before the templates are fetched. The picker opens with the custom permissions and no protection items
+     * and shows the templates page by page as the source supplies them. A request made this way is not kept by the
+     * pending request store, as its templates are not known when it is made.
+     * 
+     * @param requestCode the request code
+     * @param parentActivity the activity
+     * @param templateDescriptorSource the source of the template descriptors, loaded from this call
+     * @param originalTemplateDescriptor the original template descriptor
+     * @param pickerCompletionCallback the picker completion callback
+     */
+    public static void show(int requestCode,
+                            Activity parentActivity,
+                            TemplateDescriptorSource templateDescriptorSource,
+                            TemplateDescriptor originalTemplateDescriptor,
+                            CompletionCallback<PolicyPickerActivityResult> pickerCompletionCallback)
+    {
+        Logger.ms(TAG, TAG_ID, "show");
+        parentActivity = validateActivityInputParameter(parentActivity);
+        templateDescriptorSource = validateTemplateDescriptorSourceInputParameter(templateDescriptorSource);
+        pickerCompletionCallback = validateCompletionCallbackInputParameter(pickerCompletionCallback);
+        int requestCallbackId = RequestIdAllocator.allocate(parentActivity);
+        // the result is resolved through the templates the stream has loaded by then
+        sCallbackManager.putWaitingRequest(requestCallbackId, pickerCompletionCallback);
+        // putting the request sweeps expired ones, their streams go with them
+        purgeTemplateDescriptorStreams();
+        TemplateDescriptorStream templateDescriptorStream = new TemplateDescriptorStream(templateDescriptorSource);
+        sTemplateDescriptorStreams.put(requestCallbackId, templateDescriptorStream);
+        Intent intent = new Intent(parentActivity, PolicyPickerActivity.class);
+        TemplateDescriptorModel originalTemplateDescriptorItem = null;
+        if (originalTemplateDescriptor != null)
+        {
+            // the position is not known yet, the original is found by its id as pages arrive
+            originalTemplateDescriptorItem = new TemplateDescriptorModel(originalTemplateDescriptor,
+                    TemplateDescriptorCatalog.NO_INDEX);
         }
-        // start activity
         intent.putExtra(REQUEST_CALLBACK_ID, requestCallbackId);
-        intent.putExtra(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY, templateDescriptorItemArray);
+        intent.putExtra(REQUEST_TEMPLATE_DESCRIPTOR_STREAM, true);
         intent.putExtra(REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM, originalTemplateDescriptorItem);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        // the first pages load while the activity starts
+        templateDescriptorStream.load();
         parentActivity.startActivityForResult(intent, requestCode);
-        Logger.me(TAG, "show");
+        Logger.me(TAG, TAG_ID, "show");
+    }
+
+    /**
+     * Reads the result and invokes the callback waiting for it. Runs on the dispatcher of this activity.
+     * 
+     * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
+     * @param data the data parameter as supplied to parent Activity's onActivityResult
+     * @param restoredRequestCallback the callback for results of requests made by a previous process, may be null
+     */
+    private static void deliverActivityResult(int resultCode,
+                                              Intent data,
+                                              CompletionCallback<PolicyPickerActivityResult> restoredRequestCallback)
+    {
+        final Bundle extras = data.getExtras();
+        int requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
+        // take the stream before the request, a purge on another thread drops the streams of requests that are gone
+        TemplateDescriptorStream templateDescriptorStream = sTemplateDescriptorStreams.remove(requestCallbackId);
+        WaitingRequest<PolicyPickerActivityResult, TemplateDescriptorCatalog> waitingRequest = sCallbackManager
+                .takeWaitingRequest(requestCallbackId, resultCode == RESULT_OK ? Outcome.Ok : Outcome.Cancelled);
+        purgeTemplateDescriptorStreams();
+        CompletionCallback<PolicyPickerActivityResult> callback = null;
+        TemplateDescriptorCatalog savedTemplateDescriptorCatalog = null;
+        if (waitingRequest != null)
+        {
+            callback = waitingRequest.getCompletionCallback();
+            savedTemplateDescriptorCatalog = waitingRequest.getState();
+            if (savedTemplateDescriptorCatalog == null && templateDescriptorStream != null)
+            {
+                savedTemplateDescriptorCatalog = templateDescriptorStream.getTemplateDescriptorCatalog();
+            }
+        }
+        if (templateDescriptorStream != null)
+        {
+            templateDescriptorStream.cancel();
+        }
+        else if (restoredRequestCallback != null)
+        {
+            savedTemplateDescriptorCatalog = sCallbackManager.takeRestoredState(requestCallbackId);
+            if (savedTemplateDescriptorCatalog != null)
+            {
+                Logger.i(TAG, "Matched the result to a restored request", "");
+                callback = restoredRequestCallback;
+            }
+        }
+        if (callback == null)
+        {
+            Logger.i(TAG, "No waiting request for the result", "");
+            return;
+        }
+        switch (resultCode)
+        {
+            case RESULT_OK:
+                Logger.i(TAG, "resultCode=RESULT_OK", "");
+                Parcelable result = extras.getParcelable(RESULT_TEMPLATE_DESCRIPTOR_ITEM);
+                PolicyPickerActivityResult policyPickerActivityResult = new PolicyPickerActivityResult();
+                TemplateDescriptorModel templateDescriptorItem = (TemplateDescriptorModel)result;
+                if (templateDescriptorItem.isNoProtectionTemplateDescriptorItem())
+                {
+                    Logger.d(TAG, TAG_ID, "in templateDescriptorItem.isNoProtectionTemplateDescriptorItem()");
+                    policyPickerActivityResult.mTemplateDescriptor = null;
+                    policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Template;
+                }
+                else if (templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem())
+                {
+                    Logger.d(TAG, TAG_ID, "in templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem()");
+                    policyPickerActivityResult.mTemplateDescriptor = null;
+                    policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Custom;
+                }
+                else if (savedTemplateDescriptorCatalog == null)
+                {
+                    Logger.ie(TAG, "Template descriptors of the request are not available, cancelling the result");
+                    callback.onCancel();
+                    break;
+                }
+                else
+                {
+                    Logger.d(
+                            TAG,
+                            TAG_ID,
+                            "neither templateDescriptorItem.isNoProtectionTemplateDescriptorItem(), nor templateDescriptorItem.isCustomPermissionsTemplateDescriptorItem()");
+                    policyPickerActivityResult.mTemplateDescriptor = savedTemplateDescriptorCatalog
+                            .find(templateDescriptorItem);
+                    policyPickerActivityResult.mResultType = PolicyPickerActivityResultType.Template;
+                }
+                callback.onSuccess(policyPickerActivityResult);
+                break;
+            case RESULT_CANCELED:
+                Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
+                callback.onCancel();
+                break;
+        }
+    }
+
+    /**
+     * Gets the store that hands the template descriptor models to the activity, creating it on first use.
+     * 
+     * @param context any context of the application
+     * @return the handoff store
+     */
+    private static synchronized ParcelableHandoffStore getHandoffStore(Context context)
+    {
+        if (sHandoffStore == null)
+        {
+            sHandoffStore = new ParcelableHandoffStore(context.getApplicationContext().getFilesDir(),
+                    HANDOFF_FILE_PREFIX, HANDOFF_MAX_SNAPSHOT_AGE_MILLIS);
+        }
+        return sHandoffStore;
+    }
+
+    /**
+     * Cancels and drops the streams of requests that are no longer waiting, because their result was lost or the
+     * callback manager removed them as expired or collected. A stream holds its source and every loaded template.
+     */
+    private static void purgeTemplateDescriptorStreams()
+    {
+        for (Integer requestCallbackId : sTemplateDescriptorStreams.keySet())
+        {
+            if (sCallbackManager.getWaitingRequest(requestCallbackId) == null)
+            {
+                TemplateDescriptorStream templateDescriptorStream = sTemplateDescriptorStreams
+                        .remove(requestCallbackId);
+                if (templateDescriptorStream != null)
+                {
+                    Logger.d(TAG, TAG_ID, "Dropped the template descriptor stream of request %d", requestCallbackId);
+                    templateDescriptorStream.cancel();
+                }
+            }
+        }
     }
 
     /**
@@ -195,6 +533,21 @@ public class PolicyPickerActivity extends BaseActivity implements
         return templateDescriptorList;
     }
 
+    /**
+     * Validate template descriptor source input parameter.
+     * 
+     * @param templateDescriptorSource the template descriptor source
+     * @return the source
+     */
+    private static TemplateDescriptorSource validateTemplateDescriptorSourceInputParameter(TemplateDescriptorSource templateDescriptorSource)
+    {
+        if (templateDescriptorSource == null)
+        {
+            throw new IllegalArgumentException("invalid parameter templateDescriptorSource");
+        }
+        return templateDescriptorSource;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.microsoft.rightsmanagement.ui.widget.TemplateDescriptorListFragment.TemplateDescriptorDataProvider#
@@ -217,6 +570,17 @@ public class PolicyPickerActivity extends BaseActivity implements
         return mTemplateDescriptorItemArray;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.widget.TemplateDescriptorListFragment.TemplateDescriptorDataProvider#
+     * getTemplateDescriptorSearchIndex()
+     */
+    @Override
+    public TemplateDescriptorSearchIndex getTemplateDescriptorSearchIndex()
+    {
+        return mTemplateDescriptorItemCatalog != null ? mTemplateDescriptorItemCatalog.getSearchIndex() : null;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.microsoft.rightsmanagement.ui.widget.TemplateDescriptorPickerFragment.
@@ -225,13 +589,13 @@ public class PolicyPickerActivity extends BaseActivity implements
     @Override
     public void onProtectionButtonClicked()
     {
-        Logger.ms(TAG, "onProtectionButtonClicked");
+        Logger.ms(TAG, TAG_ID, "onProtectionButtonClicked");
         Intent data = new Intent();
         data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
         data.putExtra(RESULT_TEMPLATE_DESCRIPTOR_ITEM,
                 mTemplateDescriptorItemArray[mCurrentSelectedtemplateDescriptorItemIndex]);
         returnToCaller(RESULT_OK, data);
-        Logger.me(TAG, "onProtectionButtonClicked");
+        Logger.me(TAG, TAG_ID, "onProtectionButtonClicked");
     }
 
     /*
@@ -242,7 +606,7 @@ public class PolicyPickerActivity extends BaseActivity implements
     @Override
     public void onTemplateDescriptorItemSelected(int selectedTemplateDescriptorItemIndex)
     {
-        Logger.ms(TAG, "onTemplateDescriptorItemSelected");
+        Logger.ms(TAG, TAG_ID, "onTemplateDescriptorItemSelected");
         if (mTemplateDescriptorPickerFragment == null)
             return;
         // enable protection button if a template is selected
@@ -259,7 +623,7 @@ public class PolicyPickerActivity extends BaseActivity implements
         {
             mTemplateDescriptorPickerFragment.setProtectionButtonEnabled(false);
         }
-        Logger.me(TAG, "onTemplateDescriptorItemSelected");
+        Logger.me(TAG, TAG_ID, "onTemplateDescriptorItemSelected");
     }
 
     /*
@@ -269,34 +633,51 @@ public class PolicyPickerActivity extends BaseActivity implements
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreate");
+        Logger.ms(TAG, TAG_ID, "onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.tempate_descriptor_picker_activity_layout);
         if (savedInstanceState == null)
         {
-            Logger.d(TAG, "bundle is null");
+            Logger.d(TAG, TAG_ID, "bundle is null");
             // creation from scratch
             Intent intent = getIntent();
             Bundle argumentsBundle = intent.getExtras();
             parseBundleInput(argumentsBundle);
-            updateTemplateDescriptorArrayWithFakeTemplates();
-            // get value in mCurrentSelectedtemplateDescriptorIndex based on mOriginalTemplateDescriptor
-            for (int i = 0; i < mTemplateDescriptorItemArray.length; i++)
+            if (mTemplateDescriptorItemArray == null)
             {
-                if (mTemplateDescriptorItemArray[i].getId().equals(mOriginalTemplateDescriptorItem.getId()))
-                {
-                    mCurrentSelectedtemplateDescriptorItemIndex = i;
-                    break;
-                }
+                finishWithoutTemplateDescriptors();
+                return;
             }
+            updateTemplateDescriptorArrayWithFakeTemplates();
+            // get value in mCurrentSelectedtemplateDescriptorIndex based on mOriginalTemplateDescriptor
+            mCurrentSelectedtemplateDescriptorItemIndex = findOriginalTemplateDescriptorItemIndex();
         }
         else
         {
-            Logger.d(TAG, "bundle is not null");
+            Logger.d(TAG, TAG_ID, "bundle is not null");
             // creation from saved state
             parseBundleInput(savedInstanceState);
+            if (mTemplateDescriptorItemArray == null)
+            {
+                finishWithoutTemplateDescriptors();
+                return;
+            }
+            updateTemplateDescriptorArrayWithFakeTemplates();
+            // the no protection item moves down as templates stream in
+            if (mTemplateDescriptorStream != null
+                    && mCurrentSelectedtemplateDescriptorItemIndex == savedInstanceState.getInt(
+                            TEMPLATE_DESCRIPTOR_ITEM_COUNT, -1) - 1)
+            {
+                mCurrentSelectedtemplateDescriptorItemIndex = mTemplateDescriptorItemArray.length - 1;
+            }
         }
         addTempalteDescriptorPickerFragment();
+        if (mTemplateDescriptorStream != null)
+        {
+            mTemplateDescriptorStream.setListener(mTemplateDescriptorStreamListener);
+            // picks up a page published before the listener was set
+            onTemplateDescriptorPageAvailable();
+        }
         addTransparentPartDismissListener(R.id.template_descriptor_picker_transparent_part);
         // create fader animators
         createBgAnimators(R.id.template_descriptor_picker_base_container, savedInstanceState);
@@ -310,7 +691,26 @@ public class PolicyPickerActivity extends BaseActivity implements
     {
         if ((isFinishing() == true) && (mActivityFinishedWithResult == false))
         {
-            sCallbackManager.removeWaitingRequest(mRequestCallbackId);
+            sCallbackManager.takeWaitingRequest(mRequestCallbackId, Outcome.SystemClosed);
+            // cancelled below, no result resolves through it
+            sTemplateDescriptorStreams.remove(mRequestCallbackId);
+        }
+        if (isFinishing() && mTemplateDescriptorItemArrayHandle != null)
+        {
+            getHandoffStore(this).release(mTemplateDescriptorItemArrayHandle);
+        }
+        if (mTemplateDescriptorStream != null)
+        {
+            if (isFinishing())
+            {
+                // the stream stays registered until the result is resolved through it
+                mTemplateDescriptorStream.cancel();
+            }
+            else
+            {
+                mTemplateDescriptorStream.setListener(null);
+            }
+            mTemplateDescriptorStream = null;
         }
         super.onDestroy();
     }
@@ -322,13 +722,24 @@ public class PolicyPickerActivity extends BaseActivity implements
     @Override
     protected void onSaveInstanceState(Bundle outState)
     {
-        Logger.ms(TAG, "onSaveInstanceState");
+        Logger.ms(TAG, TAG_ID, "onSaveInstanceState");
         super.onSaveInstanceState(outState);
         outState.putInt(REQUEST_CALLBACK_ID, mRequestCallbackId);
-        outState.putParcelableArray(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY, mTemplateDescriptorItemArray);
+        if (mTemplateDescriptorItemArrayHandle != null)
+        {
+            // only the handle is saved, the snapshot covers process death
+            outState.putString(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE, mTemplateDescriptorItemArrayHandle);
+            getHandoffStore(this).snapshot(mTemplateDescriptorItemArrayHandle);
+        }
+        if (mTemplateDescriptorStream != null)
+        {
+            // the stream outlives the activity but not the process
+            outState.putBoolean(REQUEST_TEMPLATE_DESCRIPTOR_STREAM, true);
+            outState.putInt(TEMPLATE_DESCRIPTOR_ITEM_COUNT, mTemplateDescriptorItemArray.length);
+        }
         outState.putParcelable(REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM, mOriginalTemplateDescriptorItem);
         outState.putInt(CURRENT_SELECTED_TEMPLATE_DESCRIPTOR_INDEX, mCurrentSelectedtemplateDescriptorItemIndex);
-        Logger.me(TAG, "onSaveInstanceState");
+        Logger.me(TAG, TAG_ID, "onSaveInstanceState");
     }
 
     /**
@@ -341,7 +752,7 @@ public class PolicyPickerActivity extends BaseActivity implements
     protected void returnToCaller(int resultCode, Intent data)
     {
         super.returnToCaller(resultCode, data);
-        Logger.d(TAG, String.format("ReturnToCaller - resultCode=%d", resultCode));
+        Logger.d(TAG, TAG_ID, "ReturnToCaller - resultCode=%d", resultCode);
         setResult(resultCode, data);
         if (mTemplateDescriptorPickerFragment == null)
         {
@@ -369,7 +780,7 @@ public class PolicyPickerActivity extends BaseActivity implements
                 .findFragmentByTag(TemplateDescriptorPickerFragment.TAG);
         if (mTemplateDescriptorPickerFragment == null)
         {
-            Logger.d(TAG, "addTempalteDescriptorPickerFragment - mTemplateDescriptorPickerFragment is null");
+            Logger.d(TAG, TAG_ID, "addTempalteDescriptorPickerFragment - mTemplateDescriptorPickerFragment is null");
             mTemplateDescriptorPickerFragment = new TemplateDescriptorPickerFragment();
             FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
             ft.setCustomAnimations(R.animator.slide_animation_in, 0);
@@ -377,7 +788,8 @@ public class PolicyPickerActivity extends BaseActivity implements
         }
         else
         {
-            Logger.d(TAG, "addTempalteDescriptorPickerFragment - mTemplateDescriptorPickerFragment is not null");
+            Logger.d(TAG, TAG_ID,
+                    "addTempalteDescriptorPickerFragment - mTemplateDescriptorPickerFragment is not null");
         }
     }
 
@@ -391,7 +803,7 @@ public class PolicyPickerActivity extends BaseActivity implements
     {
         if (bundle.containsKey(REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM))
         {
-            Logger.d(TAG, "parseBundleInput - parsing OriginalTemplateDescriptorItem");
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing OriginalTemplateDescriptorItem");
             Parcelable requestOriginalTemplateDescriptor = bundle
                     .getParcelable(PolicyPickerActivity.REQUEST_ORIGINAL_TEMPLATE_DESCRIPTOR_ITEM);
             if (requestOriginalTemplateDescriptor != null)
@@ -408,35 +820,134 @@ public class PolicyPickerActivity extends BaseActivity implements
                 throw ex;
             }
         }
-        if (bundle.containsKey(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY))
+        if (bundle.containsKey(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE))
         {
-            Logger.d(TAG, "parseBundleInput - parsing TemplateDescriptorItemArray");
-            Parcelable[] requestArray = bundle
-                    .getParcelableArray(PolicyPickerActivity.REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY);
-            try
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing TemplateDescriptorItemArrayHandle");
+            mTemplateDescriptorItemArrayHandle = bundle.getString(REQUEST_TEMPLATE_DESCRIPTOR_ITEM_ARRAY_HANDLE);
+            mTemplateDescriptorItemCatalog = getHandoffStore(this).get(mTemplateDescriptorItemArrayHandle,
+                    TemplateDescriptorModelCatalog.CREATOR);
+            if (mTemplateDescriptorItemCatalog != null)
             {
-                Object[] requestObjectArray = requestArray;
-                mTemplateDescriptorItemArray = Arrays.copyOf(requestObjectArray, requestObjectArray.length,
-                        TemplateDescriptorModel[].class);
-            }
-            catch (ClassCastException ex)
-            {
-                Logger.ie(TAG, ex.getMessage());
-                throw ex;
+                mTemplateDescriptorItemArray = mTemplateDescriptorItemCatalog.getTemplateDescriptorItems();
+                // a catalog read from a snapshot has no search index yet
+                mTemplateDescriptorItemCatalog.buildSearchIndexInBackground(AsyncTask.THREAD_POOL_EXECUTOR);
             }
         }
         if (bundle.containsKey(REQUEST_CALLBACK_ID))
         {
-            Logger.d(TAG, "parseBundleInput - parsing RequestCallbackId");
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing RequestCallbackId");
             mRequestCallbackId = bundle.getInt(REQUEST_CALLBACK_ID);
         }
+        if (bundle.getBoolean(REQUEST_TEMPLATE_DESCRIPTOR_STREAM))
+        {
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing TemplateDescriptorStream");
+            mTemplateDescriptorStream = sTemplateDescriptorStreams.get(mRequestCallbackId);
+            if (mTemplateDescriptorStream != null)
+            {
+                mTemplateDescriptorItemCatalog = mTemplateDescriptorStream.getTemplateDescriptorItemCatalog();
+                mTemplateDescriptorItemArray = mTemplateDescriptorItemCatalog.getTemplateDescriptorItems();
+            }
+        }
         if (bundle.containsKey(CURRENT_SELECTED_TEMPLATE_DESCRIPTOR_INDEX))
         {
-            Logger.d(TAG, "parseBundleInput - parsing CurrentSelectedtemplateDescriptorItemIndex");
+            Logger.d(TAG, TAG_ID, "parseBundleInput - parsing CurrentSelectedtemplateDescriptorItemIndex");
             mCurrentSelectedtemplateDescriptorItemIndex = bundle.getInt(CURRENT_SELECTED_TEMPLATE_DESCRIPTOR_INDEX);
         }
     }
 
+    /**
+     * Finishes the activity when its template descriptors are lost, for example when the snapshot of a handoff could
+     * not be written before process death. The waiting request is closed by onDestroy.
+     */
+    private void finishWithoutTemplateDescriptors()
+    {
+        Logger.ie(TAG, "Template descriptors of the request are not available");
+        setResult(RESULT_CANCELED);
+        finish();
+    }
+
+    /**
+     * Finds the position of the original template descriptor in the full array from the index it carries. Scans the
+     * array only if the index does not match, for example for an original model parcelled by an older version.
+     * 
+     * @return the position or -1 if the array does not contain the original template descriptor
+     */
+    private int findOriginalTemplateDescriptorItemIndex()
+    {
+        String originalId = mOriginalTemplateDescriptorItem.getId();
+        int index;
+        if (mOriginalTemplateDescriptorItem == mNoProtectionDescriptorFakeItem)
+        {
+            index = mTemplateDescriptorItemArray.length - 1;
+        }
+        else
+        {
+            // the custom permissions item on top shifts the templates by one
+            index = mOriginalTemplateDescriptorItem.getIndex() + 1;
+        }
+        if (index > 0 && index < mTemplateDescriptorItemArray.length
+                && mTemplateDescriptorItemArray[index].getId().equals(originalId))
+        {
+            return index;
+        }
+        for (int i = 0; i < mTemplateDescriptorItemArray.length; i++)
+        {
+            if (mTemplateDescriptorItemArray[i].getId().equals(originalId))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Shows the templates the stream has loaded since the last call and hides the progress once it is complete. Runs
+     * on the main thread.
+     */
+    private void onTemplateDescriptorPageAvailable()
+    {
+        if (mTemplateDescriptorStream == null || mTemplateDescriptorPickerFragment == null)
+        {
+            return;
+        }
+        TemplateDescriptorModelCatalog templateDescriptorItemCatalog = mTemplateDescriptorStream
+                .getTemplateDescriptorItemCatalog();
+        if (templateDescriptorItemCatalog != mTemplateDescriptorItemCatalog)
+        {
+            int noProtectionItemIndex = mTemplateDescriptorItemArray.length - 1;
+            mTemplateDescriptorItemCatalog = templateDescriptorItemCatalog;
+            mTemplateDescriptorItemArray = pinFakeTemplates(templateDescriptorItemCatalog
+                    .getTemplateDescriptorItems());
+            if (mCurrentSelectedtemplateDescriptorItemIndex == noProtectionItemIndex)
+            {
+                mCurrentSelectedtemplateDescriptorItemIndex = mTemplateDescriptorItemArray.length - 1;
+            }
+            else if (mCurrentSelectedtemplateDescriptorItemIndex < 0)
+            {
+                // the original template may be in this page, unless the user picked another item already
+                mCurrentSelectedtemplateDescriptorItemIndex = findOriginalTemplateDescriptorItemIndex();
+            }
+            mTemplateDescriptorPickerFragment.onTemplateDescriptorItemsChanged();
+        }
+        mTemplateDescriptorPickerFragment.setLoading(!mTemplateDescriptorStream.isComplete());
+    }
+
+    /**
+     * Puts custom protection on top of the templates and no protection at bottom.
+     * 
+     * @param templateDescriptorItems the template descriptor items
+     * @return the full template descriptor item array
+     */
+    private TemplateDescriptorModel[] pinFakeTemplates(TemplateDescriptorModel[] templateDescriptorItems)
+    {
+        TemplateDescriptorModel[] fullTemplateDescriptorItemArray = new TemplateDescriptorModel[templateDescriptorItems.length + 2];
+        System.arraycopy(templateDescriptorItems, 0, fullTemplateDescriptorItemArray, 1,
+                templateDescriptorItems.length);
+        fullTemplateDescriptorItemArray[0] = mCustomPermissionDescriptorFakeItem;
+        fullTemplateDescriptorItemArray[fullTemplateDescriptorItemArray.length - 1] = mNoProtectionDescriptorFakeItem;
+        return fullTemplateDescriptorItemArray;
+    }
+
     /**
      * Update template descriptor array with fake templates.
      */
@@ -446,12 +957,7 @@ public class PolicyPickerActivity extends BaseActivity implements
                 .createCustomPermissionFakeItem(getApplicationContext());
         mNoProtectionDescriptorFakeItem = TemplateDescriptorModel.createNoProtectionFakeItem(getApplicationContext());
         // resize and put custom protection on top and no protection at bottom
-        TemplateDescriptorModel[] fullTemplateDescriptorItemArray = new TemplateDescriptorModel[mTemplateDescriptorItemArray.length + 2];
-        System.arraycopy(mTemplateDescriptorItemArray, 0, fullTemplateDescriptorItemArray, 1,
-                mTemplateDescriptorItemArray.length);
-        mTemplateDescriptorItemArray = fullTemplateDescriptorItemArray;
-        mTemplateDescriptorItemArray[0] = mCustomPermissionDescriptorFakeItem;
-        mTemplateDescriptorItemArray[mTemplateDescriptorItemArray.length - 1] = mNoProtectionDescriptorFakeItem;
+        mTemplateDescriptorItemArray = pinFakeTemplates(mTemplateDescriptorItemArray);
         // if there is no original descriptor, assume that content is unprotected
         if (mOriginalTemplateDescriptorItem == null)
         {
@@ -0,0 +1,67 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui;
+
+import java.util.List;
+
+import com.microsoft.rightsmanagement.TemplateDescriptor;
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+
+/**
+ * The Interface TemplateDescriptorSource. Supplies the template descriptors of PolicyPickerActivity page by page, so
+ * that the picker opens before all templates are fetched.
+ */
+public interface TemplateDescriptorSource
+{
+    /**
+     * The listener interface for receiving pages of template descriptors. The methods can be called on any thread, but
+     * not concurrently.
+     */
+    public interface PageListener
+    {
+        /**
+         * On complete. No page follows.
+         */
+        public void onComplete();
+
+        /**
+         * On failure. No page follows; the picker keeps the pages it received.
+         * 
+         * @param exception the exception
+         */
+        public void onFailure(ProtectionException exception);
+
+        /**
+         * On page.
+         * 
+         * @param templateDescriptors the template descriptors that follow the ones of the previous pages, copied
+         */
+        public void onPage(List<TemplateDescriptor> templateDescriptors);
+    }
+
+    /**
+     * Stops loading. Called when the picker finishes before the last page.
+     */
+    public void cancel();
+
+    /**
+     * Starts loading the pages. Must return without waiting for them.
+     * 
+     * @param pageListener the page listener
+     */
+    public void load(PageListener pageListener);
+}
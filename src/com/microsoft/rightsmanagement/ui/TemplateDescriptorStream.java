@@ -0,0 +1,255 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.rightsmanagement.TemplateDescriptor;
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorCatalog;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModel;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModelCatalog;
+import com.microsoft.rightsmanagement.ui.utils.Logger;
+
+/**
+ * Collects the pages of a TemplateDescriptorSource for PolicyPickerActivity.
+ * <p>
+ * Pages are appended on a private loader thread, which also builds the model catalog and its search index, and the
+ * result is published as an immutable snapshot. Pages that arrive while one is appended are published together. The
+ * listener then runs on the main thread and only swaps the snapshot in, so a page costs the main thread one list
+ * rebind. The models carry their position among all pages, so results resolve through the catalog like those of a
+ * complete list.
+ * </p>
+ */
+final class TemplateDescriptorStream implements TemplateDescriptorSource.PageListener
+{
+    /**
+     * Holds the loader thread shared by all streams, created on first use.
+     */
+    private static class LoaderHolder
+    {
+        private static final ExecutorService sLoader = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    private static final String TAG = "TemplateDescriptorStream";
+    private static final int TAG_ID = Logger.getTagId(TAG);
+    private static final String THREAD_NAME = "RmsUiTemplateDescriptorStream";
+    private volatile boolean mIsCancelled;
+    private volatile boolean mIsComplete;
+    private volatile Runnable mListener;
+    // appended on the loader thread only
+    private final ArrayList<TemplateDescriptorModel> mLoadedItems = new ArrayList<TemplateDescriptorModel>();
+    private final ArrayList<TemplateDescriptor> mLoadedTemplateDescriptors = new ArrayList<TemplateDescriptor>();
+    private final AtomicInteger mQueuedPageCount = new AtomicInteger();
+    private final TemplateDescriptorSource mSource;
+    private volatile TemplateDescriptorModelCatalog mTemplateDescriptorItemCatalog = new TemplateDescriptorModelCatalog(
+            new TemplateDescriptorModel[0]);
+    private volatile TemplateDescriptor[] mTemplateDescriptors = new TemplateDescriptor[0];
+
+    /**
+     * Instantiates a new template descriptor stream. Loading starts with load().
+     * 
+     * @param source the source
+     */
+    TemplateDescriptorStream(TemplateDescriptorSource source)
+    {
+        mSource = source;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.TemplateDescriptorSource.PageListener#onComplete()
+     */
+    @Override
+    public void onComplete()
+    {
+        LoaderHolder.sLoader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Logger.d(TAG, TAG_ID, "loaded %d template descriptors", mLoadedTemplateDescriptors.size());
+                mIsComplete = true;
+                notifyListener();
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.TemplateDescriptorSource.PageListener#onFailure(com.microsoft.
+     * rightsmanagement.exceptions.ProtectionException)
+     */
+    @Override
+    public void onFailure(final ProtectionException exception)
+    {
+        LoaderHolder.sLoader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Logger.ie(TAG, "Loading template descriptors failed after " + mLoadedTemplateDescriptors.size()
+                        + " templates. " + (exception != null ? exception.getMessage() : ""));
+                mIsComplete = true;
+                notifyListener();
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.TemplateDescriptorSource.PageListener#onPage(java.util.List)
+     */
+    @Override
+    public void onPage(List<TemplateDescriptor> templateDescriptors)
+    {
+        if (templateDescriptors == null)
+        {
+            throw new IllegalArgumentException("invalid parameter templateDescriptors");
+        }
+        // the source may reuse its list once this returns
+        final TemplateDescriptor[] page = templateDescriptors.toArray(new TemplateDescriptor[templateDescriptors
+                .size()]);
+        mQueuedPageCount.incrementAndGet();
+        LoaderHolder.sLoader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mQueuedPageCount.decrementAndGet();
+                append(page);
+            }
+        });
+    }
+
+    /**
+     * Stops loading. Pages that arrive afterwards are dropped.
+     */
+    void cancel()
+    {
+        if (!mIsCancelled && !mIsComplete)
+        {
+            mIsCancelled = true;
+            mSource.cancel();
+        }
+        mListener = null;
+    }
+
+    /**
+     * Gets the catalog of the template descriptors loaded so far, to resolve a result.
+     * 
+     * @return the template descriptor catalog
+     */
+    TemplateDescriptorCatalog getTemplateDescriptorCatalog()
+    {
+        return new TemplateDescriptorCatalog(mTemplateDescriptors);
+    }
+
+    /**
+     * Gets the models of the template descriptors loaded so far, with their search index built.
+     * 
+     * @return the template descriptor model catalog
+     */
+    TemplateDescriptorModelCatalog getTemplateDescriptorItemCatalog()
+    {
+        return mTemplateDescriptorItemCatalog;
+    }
+
+    /**
+     * Checks if the last page arrived or loading failed.
+     * 
+     * @return true, if is complete
+     */
+    boolean isComplete()
+    {
+        return mIsComplete;
+    }
+
+    /**
+     * Starts loading the pages.
+     */
+    void load()
+    {
+        mSource.load(this);
+    }
+
+    /**
+     * Sets the listener that runs on the main thread after a page is published or loading ends.
+     * 
+     * @param listener the listener, or null to remove it
+     */
+    void setListener(Runnable listener)
+    {
+        mListener = listener;
+    }
+
+    /**
+     * Appends a page and publishes a new snapshot, unless more pages are queued. Runs on the loader thread.
+     * 
+     * @param page the template descriptors of the page
+     */
+    private void append(TemplateDescriptor[] page)
+    {
+        if (mIsCancelled || mIsComplete)
+        {
+            return;
+        }
+        for (TemplateDescriptor templateDescriptor : page)
+        {
+            mLoadedItems.add(new TemplateDescriptorModel(templateDescriptor, mLoadedTemplateDescriptors.size()));
+            mLoadedTemplateDescriptors.add(templateDescriptor);
+        }
+        // the snapshot copies all pages and rebuilds the index, so a burst of pages is published once
+        if (mQueuedPageCount.get() > 0 || mLoadedItems.size() == mTemplateDescriptors.length)
+        {
+            return;
+        }
+        TemplateDescriptorModelCatalog templateDescriptorItemCatalog = new TemplateDescriptorModelCatalog(
+                mLoadedItems.toArray(new TemplateDescriptorModel[mLoadedItems.size()]));
+        // build the index here, the main thread only swaps the snapshot in
+        templateDescriptorItemCatalog.getSearchIndex();
+        mTemplateDescriptors = mLoadedTemplateDescriptors.toArray(new TemplateDescriptor[mLoadedTemplateDescriptors
+                .size()]);
+        mTemplateDescriptorItemCatalog = templateDescriptorItemCatalog;
+        notifyListener();
+    }
+
+    /**
+     * Posts the listener to the main thread.
+     */
+    private void notifyListener()
+    {
+        Runnable listener = mListener;
+        if (listener != null)
+        {
+            CallbackDispatcher.mainThread().execute(listener);
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package com.microsoft.rightsmanagement.ui;
 
 import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
 import android.app.Activity;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.v4.app.FragmentTransaction;
@@ -26,7 +30,10 @@ import com.microsoft.rightsmanagement.ui.R;
 import com.microsoft.rightsmanagement.UserPolicy;
 import com.microsoft.rightsmanagement.ui.model.UserPolicyModel;
 import com.microsoft.rightsmanagement.ui.utils.CallbackManager;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.WaitingRequest;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
+import com.microsoft.rightsmanagement.ui.utils.RequestIdAllocator;
 import com.microsoft.rightsmanagement.ui.widget.UserPolicyViewerFragment;
 
 /**
@@ -64,7 +71,12 @@ public class UserPolicyViewerActivity extends BaseActivity implements
     private static final String RESULT_POLICY_VIEWER = "RESULT_POLICY_VIEWER";
     private static final String REQUEST_RESULT_POLICY_VIEWER_OPTIONS = "REQUEST_RESULT_POLICY_VIEWER_OPTIONS";
     private static final String REQUEST_RESULT_USER_POLICY_MODEL = "REQUEST_RESULT_USER_POLICY_MODEL";
-    private static CallbackManager<Integer, Void> sCallbackManager = new CallbackManager<Integer, Void>();
+    private static volatile CallbackDispatcher sCallbackDispatcher;
+    private static CallbackManager<Integer, Void> sCallbackManager = new CallbackManager<Integer, Void>("UserPolicyViewerActivity");
+    // rights computed in the background, by request callback id, until the activity of the request finishes
+    private static ConcurrentHashMap<Integer, CompletionFuture<boolean[]>> sPendingEffectiveRights = new ConcurrentHashMap<Integer, CompletionFuture<boolean[]>>();
+    private CompletionFuture<boolean[]> mEffectiveRights;
+    private Runnable mEffectiveRightsListener;
     private UserPolicyModel mUserPolicyModel;
     private int mUserPolicyViewerActivityRequestOption;
     private UserPolicyViewerFragment mUserPolicyViewerFragment;
@@ -81,41 +93,56 @@ public class UserPolicyViewerActivity extends BaseActivity implements
      * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
      * @param data the data parameter as supplied to parent Activity's onActivityResult
      */
-    public static void onActivityResult(int resultCode, Intent data)
+    public static void onActivityResult(final int resultCode, final Intent data)
     {
-        Logger.ms(TAG, "onActivityResult");
-        int requestCallbackId = 0;
+        Logger.ms(TAG, TAG_ID, "onActivityResult");
         if (data == null)
         {
             Logger.i(TAG, "System closed the activity", "");
             return;
         }
-        try
+        CallbackDispatcher.resolve(sCallbackDispatcher).execute(new Runnable()
         {
-            final Bundle extras = data.getExtras();
-            requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
-            final CompletionCallback<Integer> callback = sCallbackManager.getWaitingRequest(requestCallbackId);
-            switch (resultCode)
+            @Override
+            public void run()
             {
-                case RESULT_OK:
-                    Logger.i(TAG, "resultCode=RESULT_OK", "");
-                    int result = extras.getInt(RESULT_POLICY_VIEWER);
-                    callback.onSuccess(result);
-                    break;
-                case RESULT_CANCELED:
-                    Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
-                    callback.onCancel();
-                    break;
+                deliverActivityResult(resultCode, data);
             }
-        }
-        finally
-        {
-            if (requestCallbackId != 0)
-            {
-                sCallbackManager.removeWaitingRequest(requestCallbackId);
-            }
-            Logger.me(TAG, "onActivityResult");
-        }
+        });
+        Logger.me(TAG, TAG_ID, "onActivityResult");
+    }
+
+    /**
+     * Sets the dispatcher that processes the results of this activity and invokes the callbacks.
+     * 
+     * @param callbackDispatcher the callback dispatcher, or null to use CallbackDispatcher.getDefault()
+     */
+    public static void setCallbackDispatcher(CallbackDispatcher callbackDispatcher)
+    {
+        sCallbackDispatcher = callbackDispatcher;
+    }
+
+    /**
+     * Show UI and returns a future instead of taking a callback. The future is cancelled when the user cancels, and
+     * cancelling it finishes the activity. onActivityResult must still be called from the parent activity.
+     * 
+     * @param requestCode the request code to be returned when activity completes
+     * @param parentActivity the parent activity
+     * @param userPolicy the user policy
+     * @param supportedRights rights to check access for and display
+     * @param policyViewerActivityRequestOption the policy viewer activity request option
+     * @return the future of the policy viewer result
+     */
+    public static CompletionFuture<Integer> show(int requestCode,
+                                                 Activity parentActivity,
+                                                 UserPolicy userPolicy,
+                                                 LinkedHashSet<String> supportedRights,
+                                                 int policyViewerActivityRequestOption)
+    {
+        CompletionFuture<Integer> completionFuture = createCompletionFuture(parentActivity, requestCode);
+        show(requestCode, parentActivity, userPolicy, supportedRights, policyViewerActivityRequestOption,
+                completionFuture);
+        return completionFuture;
     }
 
     /**
@@ -136,24 +163,92 @@ public class UserPolicyViewerActivity extends BaseActivity implements
                             int policyViewerActivityRequestOption,
                             CompletionCallback<Integer> policyViewerActivityCompletionCallback)
     {
-        Logger.ms(TAG, "show");
+        Logger.ms(TAG, TAG_ID, "show");
         parentActivity = validateActivityInputParameter(parentActivity);
         userPolicy = validateUserPolicyInputParameter(userPolicy);
         policyViewerActivityCompletionCallback = validateCompletionCallbackInputParameter(policyViewerActivityCompletionCallback);
         policyViewerActivityRequestOption = validatePolicyViewerActivityRequestOption(policyViewerActivityRequestOption);
         // put callback
-        int requestCallbackId = policyViewerActivityCompletionCallback.hashCode();
+        int requestCallbackId = RequestIdAllocator.allocate(parentActivity);
         sCallbackManager.putWaitingRequest(requestCallbackId, policyViewerActivityCompletionCallback);
         // set launch intent
         Intent intent = new Intent(parentActivity, UserPolicyViewerActivity.class);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
         intent.putExtra(REQUEST_CALLBACK_ID, requestCallbackId);
         intent.putExtra(REQUEST_RESULT_POLICY_VIEWER_OPTIONS, policyViewerActivityRequestOption);
-        intent.putExtra(REQUEST_RESULT_USER_POLICY_MODEL,
-                (new UserPolicyModel(userPolicy, supportedRights, parentActivity.getApplicationContext())));
+        // only the header is built here, the rights follow from a background batch
+        intent.putExtra(REQUEST_RESULT_USER_POLICY_MODEL, new UserPolicyModel(userPolicy, supportedRights));
+        startEffectiveRightsEvaluation(requestCallbackId, userPolicy, supportedRights);
         intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         parentActivity.startActivityForResult(intent, requestCode);
-        Logger.me(TAG, "show");
+        Logger.me(TAG, TAG_ID, "show");
+    }
+
+    /**
+     * Reads the result and invokes the callback waiting for it. Runs on the dispatcher of this activity.
+     * 
+     * @param resultCode the result code parameter as supplied to parent Activity's onActivityResult
+     * @param data the data parameter as supplied to parent Activity's onActivityResult
+     */
+    private static void deliverActivityResult(int resultCode, Intent data)
+    {
+        final Bundle extras = data.getExtras();
+        int requestCallbackId = extras.getInt(REQUEST_CALLBACK_ID);
+        WaitingRequest<Integer, Void> waitingRequest = sCallbackManager.takeWaitingRequest(requestCallbackId,
+                resultCode == RESULT_OK ? Outcome.Ok : Outcome.Cancelled);
+        final CompletionCallback<Integer> callback = waitingRequest != null ? waitingRequest
+                .getCompletionCallback() : null;
+        if (callback == null)
+        {
+            Logger.i(TAG, "No waiting request for the result", "");
+            return;
+        }
+        switch (resultCode)
+        {
+            case RESULT_OK:
+                Logger.i(TAG, "resultCode=RESULT_OK", "");
+                int result = extras.getInt(RESULT_POLICY_VIEWER);
+                callback.onSuccess(result);
+                break;
+            case RESULT_CANCELED:
+                Logger.i(TAG, "resultCode=RESULT_CANCELED", "");
+                callback.onCancel();
+                break;
+        }
+    }
+
+    /**
+     * Computes the effective rights of a request on a background thread.
+     * 
+     * @param requestCallbackId the request callback id
+     * @param userPolicy the user policy
+     * @param supportedRights rights to check access for
+     */
+    private static void startEffectiveRightsEvaluation(int requestCallbackId,
+                                                       final UserPolicy userPolicy,
+                                                       LinkedHashSet<String> supportedRights)
+    {
+        // the caller may change its set after show() returns
+        final LinkedHashSet<String> supportedRightsCopy = new LinkedHashSet<String>(supportedRights);
+        final CompletionFuture<boolean[]> effectiveRights = new CompletionFuture<boolean[]>();
+        sPendingEffectiveRights.put(requestCallbackId, effectiveRights);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    effectiveRights.onSuccess(UserPolicyModel.createViewableRightAccess(userPolicy,
+                            supportedRightsCopy));
+                }
+                catch (RuntimeException e)
+                {
+                    Logger.ie(TAG, "Could not compute the effective rights. " + e.getMessage());
+                    effectiveRights.setException(e);
+                }
+            }
+        });
     }
 
     /**
@@ -220,12 +315,12 @@ public class UserPolicyViewerActivity extends BaseActivity implements
     @Override
     public void onEditButtonClicked()
     {
-        Logger.ms(TAG, "onEditButtonClicked");
+        Logger.ms(TAG, TAG_ID, "onEditButtonClicked");
         Intent data = new Intent();
         data.putExtra(REQUEST_CALLBACK_ID, mRequestCallbackId);
         data.putExtra(RESULT_POLICY_VIEWER, UserPolicyViewerActivityResult.EDIT_POLICY);
         returnToCaller(RESULT_OK, data);
-        Logger.me(TAG, "onEditButtonClicked");
+        Logger.me(TAG, TAG_ID, "onEditButtonClicked");
     }
 
     /*
@@ -235,7 +330,7 @@ public class UserPolicyViewerActivity extends BaseActivity implements
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreate");
+        Logger.ms(TAG, TAG_ID, "onCreate");
         super.onCreate(savedInstanceState);
         int layoutId = R.layout.user_policy_viewer_activity_layout;
         setContentView(layoutId);
@@ -243,7 +338,10 @@ public class UserPolicyViewerActivity extends BaseActivity implements
         mRequestCallbackId = intent.getIntExtra(REQUEST_CALLBACK_ID, 0);
         mUserPolicyViewerActivityRequestOption = intent.getIntExtra(REQUEST_RESULT_POLICY_VIEWER_OPTIONS,
                 UserPolicyViewerActivityRequestOption.NONE);
-        Parcelable possbileUserPolicyModelInstance = intent.getParcelableExtra(REQUEST_RESULT_USER_POLICY_MODEL);
+        // the saved model carries the rights if they arrived before the state was saved
+        Parcelable possbileUserPolicyModelInstance = savedInstanceState != null ? savedInstanceState
+                .getParcelable(REQUEST_RESULT_USER_POLICY_MODEL) : intent
+                .getParcelableExtra(REQUEST_RESULT_USER_POLICY_MODEL);
         try
         {
             mUserPolicyModel = (UserPolicyModel)possbileUserPolicyModelInstance;
@@ -253,10 +351,14 @@ public class UserPolicyViewerActivity extends BaseActivity implements
             Logger.ie(TAG, ex.getMessage());
         }
         addUserPolicyViewerFragment();
+        if (mUserPolicyModel != null && !mUserPolicyModel.hasEffectiveRights())
+        {
+            awaitEffectiveRights();
+        }
         addTransparentPartDismissListener(R.id.user_policy_viewer_transparent_part);
         // create fader animators
         createBgAnimators(R.id.user_policy_viewer_base_container, savedInstanceState);
-        Logger.me(TAG, "onCreate");
+        Logger.me(TAG, TAG_ID, "onCreate");
     }
 
     /* (non-Javadoc)
@@ -267,10 +369,32 @@ public class UserPolicyViewerActivity extends BaseActivity implements
     {
         if ((isFinishing() == true) && (mActivityFinishedWithResult == false))
         {
-            sCallbackManager.removeWaitingRequest(mRequestCallbackId);
+            sCallbackManager.takeWaitingRequest(mRequestCallbackId, Outcome.SystemClosed);
+        }
+        if (isFinishing())
+        {
+            sPendingEffectiveRights.remove(mRequestCallbackId);
+        }
+        if (mEffectiveRights != null)
+        {
+            // the batch outlives this activity, do not let it call back into it
+            mEffectiveRights.removeListener(mEffectiveRightsListener);
+            mEffectiveRights = null;
+            mEffectiveRightsListener = null;
         }
         super.onDestroy();
     }
+
+    /*
+     * (non-Javadoc)
+     * @see android.support.v4.app.FragmentActivity#onSaveInstanceState(android.os.Bundle)
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState)
+    {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(REQUEST_RESULT_USER_POLICY_MODEL, mUserPolicyModel);
+    }
     
     /**
      * activity sets result to go back to the caller.
@@ -282,7 +406,7 @@ public class UserPolicyViewerActivity extends BaseActivity implements
     protected void returnToCaller(int resultCode, Intent data)
     {
         super.returnToCaller(resultCode, data);
-        Logger.d(TAG, String.format("ReturnToCaller - resultCode=%d", resultCode));
+        Logger.d(TAG, TAG_ID, "ReturnToCaller - resultCode=%d", resultCode);
         setResult(resultCode, data);
         if (mUserPolicyViewerFragment == null)
         {
@@ -298,6 +422,52 @@ public class UserPolicyViewerActivity extends BaseActivity implements
         }
     }
 
+    /**
+     * Sets the effective rights on the model when the background batch completes and lets the fragment replace its
+     * placeholder. If the batch is gone, for example after process death, no rights are shown.
+     */
+    private void awaitEffectiveRights()
+    {
+        final CompletionFuture<boolean[]> effectiveRights = sPendingEffectiveRights.get(mRequestCallbackId);
+        if (effectiveRights == null)
+        {
+            Logger.ie(TAG, "Effective rights of the request are not available");
+            mUserPolicyModel.setEffectiveRightsUnavailable();
+            return;
+        }
+        mEffectiveRights = effectiveRights;
+        mEffectiveRightsListener = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // the listener may already be queued on the main thread when onDestroy removes it
+                if (mEffectiveRightsListener != this || isFinishing())
+                {
+                    return;
+                }
+                try
+                {
+                    mUserPolicyModel.setEffectiveRights(effectiveRights.get());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    mUserPolicyModel.setEffectiveRightsUnavailable();
+                }
+                catch (ExecutionException e)
+                {
+                    mUserPolicyModel.setEffectiveRightsUnavailable();
+                }
+                if (mUserPolicyViewerFragment != null)
+                {
+                    mUserPolicyViewerFragment.onEffectiveViewableRightsAvailable();
+                }
+            }
+        };
+        effectiveRights.addListener(mEffectiveRightsListener, CallbackDispatcher.mainThread());
+    }
+
     /**
      * Adds the user policy viewer fragment.
      */
@@ -308,7 +478,7 @@ public class UserPolicyViewerActivity extends BaseActivity implements
                 UserPolicyViewerFragment.TAG);
         if (mUserPolicyViewerFragment == null)
         {
-            Logger.d(TAG, "addUserPolicyViewerFragment - mUserPolicyViewerFragment is null");
+            Logger.d(TAG, TAG_ID, "addUserPolicyViewerFragment - mUserPolicyViewerFragment is null");
             mUserPolicyViewerFragment = new UserPolicyViewerFragment();
             FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
             ft.setCustomAnimations(R.animator.slide_animation_in, 0);
@@ -316,7 +486,7 @@ public class UserPolicyViewerActivity extends BaseActivity implements
         }
         else
         {
-            Logger.d(TAG, "addUserPolicyViewerFragment - mUserPolicyViewerFragment is not null");
+            Logger.d(TAG, TAG_ID, "addUserPolicyViewerFragment - mUserPolicyViewerFragment is not null");
         }
     }
 }
@@ -0,0 +1,263 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.model;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.microsoft.rightsmanagement.ui.R;
+import com.microsoft.rightsmanagement.ui.utils.Logger;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.Resources.NotFoundException;
+
+/**
+ * Maps the names of the rights known to the UI to small fixed ids, so that a set of them fits in the bits of a long.
+ * Other rights have no id and are handled by name, so any number of them can be seen in a process.
+ * <p>
+ * Display names are cached per locale: a name is looked up the first time a right is displayed and reused until the
+ * locale of the resources changes or invalidateDisplayNames is called. A right whose string resource is missing, and
+ * a right that is not known to the UI, are remembered too, so each is logged once per locale.
+ * </p>
+ */
+public final class RightRegistry
+{
+    /**
+     * Display names of the rights in one locale, by right id, and the rights without an id that were displayed.
+     */
+    private static final class DisplayNameCache
+    {
+        private final AtomicReferenceArray<String> mDisplayNames = new AtomicReferenceArray<String>(
+                BUILT_IN_NAMES.length);
+        private final Locale mLocale;
+        private final ConcurrentHashMap<String, Boolean> mUnknownRights = new ConcurrentHashMap<String, Boolean>();
+
+        /**
+         * Instantiates a new display name cache.
+         * 
+         * @param locale the locale of the display names
+         */
+        DisplayNameCache(Locale locale)
+        {
+            mLocale = locale;
+        }
+    }
+    public static final int COMMENT = 9;
+    public static final int EDIT = 2;
+    public static final int EXPORT = 3;
+    public static final int EXTRACT = 4;
+    public static final int FORWARD = 8;
+    /**
+     * Id of the rights that are not known to the UI.
+     */
+    public static final int NO_ID = -1;
+    public static final int OWNER = 0;
+    public static final int PRINT = 5;
+    public static final int REPLY = 6;
+    public static final int REPLYALL = 7;
+    public static final int VIEW = 1;
+    private static final String[] BUILT_IN_NAMES = {
+            "OWNER", "VIEW", "EDIT", "EXPORT", "EXTRACT", "PRINT", "REPLY", "REPLYALL", "FORWARD", "COMMENT" };
+    private static final int[] BUILT_IN_RESOURCE_IDS = {
+            R.string.owner_description_string,
+            R.string.view_description_string,
+            R.string.edit_description_string,
+            R.string.export_description_string,
+            R.string.extract_description_string,
+            R.string.print_description_string,
+            R.string.reply_description_string,
+            R.string.reply_all_description_string,
+            R.string.forward_description_string,
+            R.string.comment_description_string };
+    private static final String TAG = "RightRegistry";
+    private static volatile DisplayNameCache sDisplayNameCache;
+    private static final HashMap<String, Integer> sIds = new HashMap<String, Integer>();
+    static
+    {
+        for (int i = 0; i < BUILT_IN_NAMES.length; i++)
+        {
+            sIds.put(BUILT_IN_NAMES[i], i);
+        }
+    }
+
+    /**
+     * Instantiates a new right registry.
+     */
+    private RightRegistry()
+    {
+    }
+
+    /**
+     * Gets the localized display name of a right known to the UI.
+     * 
+     * @param applicationContext the application context
+     * @param rightId the right id
+     * @return the display name
+     */
+    public static String getDisplayName(Context applicationContext, int rightId)
+    {
+        if (!isBuiltIn(rightId))
+        {
+            throw new IllegalArgumentException("invalid parameter rightId");
+        }
+        Resources resources = applicationContext.getResources();
+        DisplayNameCache displayNameCache = getDisplayNameCache(resources);
+        String displayName = displayNameCache.mDisplayNames.get(rightId);
+        if (displayName == null)
+        {
+            // concurrent misses look the name up twice and store the same value
+            displayName = loadDisplayName(resources, rightId);
+            displayNameCache.mDisplayNames.set(rightId, displayName);
+        }
+        return displayName;
+    }
+
+    /**
+     * Gets the localized display name of any right. A right that is not known to the UI is displayed by its name and
+     * logged the first time it is displayed in a locale.
+     * 
+     * @param applicationContext the application context
+     * @param right the right name
+     * @param rightId the id returned by getId for the right
+     * @return the display name
+     */
+    public static String getDisplayName(Context applicationContext, String right, int rightId)
+    {
+        if (isBuiltIn(rightId))
+        {
+            return getDisplayName(applicationContext, rightId);
+        }
+        if (right == null)
+        {
+            throw new IllegalArgumentException("invalid parameter right");
+        }
+        DisplayNameCache displayNameCache = getDisplayNameCache(applicationContext.getResources());
+        if (displayNameCache.mUnknownRights.putIfAbsent(right, Boolean.TRUE) == null)
+        {
+            Logger.info(TAG, "Right: %s - resource id was not found", right);
+        }
+        return right;
+    }
+
+    /**
+     * Gets the id of a right.
+     * 
+     * @param right the right name
+     * @return the right id, or NO_ID if the right is not known to the UI
+     */
+    public static int getId(String right)
+    {
+        if (right == null)
+        {
+            throw new IllegalArgumentException("invalid parameter right");
+        }
+        Integer id = sIds.get(right);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * Gets the name of a right known to the UI.
+     * 
+     * @param rightId the right id
+     * @return the right name
+     */
+    public static String getName(int rightId)
+    {
+        if (!isBuiltIn(rightId))
+        {
+            throw new IllegalArgumentException("invalid parameter rightId");
+        }
+        return BUILT_IN_NAMES[rightId];
+    }
+
+    /**
+     * Checks if a right is known to the UI, in which case it has an id.
+     * 
+     * @param rightId the right id
+     * @return true, if the right is built in
+     */
+    public static boolean isBuiltIn(int rightId)
+    {
+        return rightId >= 0 && rightId < BUILT_IN_NAMES.length;
+    }
+
+    /**
+     * Drops the cached display names. Call it when the configuration changes in a way that affects string resources
+     * other than the locale, which is detected without it.
+     */
+    public static void invalidateDisplayNames()
+    {
+        sDisplayNameCache = null;
+    }
+
+    /**
+     * Gets the bit of a right in a set of rights.
+     * 
+     * @param rightId the right id
+     * @return the mask
+     */
+    public static long toMask(int rightId)
+    {
+        return 1L << rightId;
+    }
+
+    /**
+     * Gets the display name cache of the current locale, replacing the cache of another locale.
+     * 
+     * @param resources the resources
+     * @return the display name cache
+     */
+    private static DisplayNameCache getDisplayNameCache(Resources resources)
+    {
+        Configuration configuration = resources.getConfiguration();
+        Locale locale = (configuration != null && configuration.locale != null) ? configuration.locale : Locale
+                .getDefault();
+        DisplayNameCache displayNameCache = sDisplayNameCache;
+        if (displayNameCache == null || !displayNameCache.mLocale.equals(locale))
+        {
+            displayNameCache = new DisplayNameCache(locale);
+            sDisplayNameCache = displayNameCache;
+        }
+        return displayNameCache;
+    }
+
+    /**
+     * Looks up the display name of a right in the resources.
+     * 
+     * @param resources the resources
+     * @param rightId the right id
+     * @return the display name
+     */
+    private static String loadDisplayName(Resources resources, int rightId)
+    {
+        String right = getName(rightId);
+        try
+        {
+            return resources.getString(BUILT_IN_RESOURCE_IDS[rightId]);
+        }
+        catch (NotFoundException ex)
+        {
+            Logger.ie(TAG, String.format("Resource id for Right: %s was not found in resources. Exception Message: %s",
+                    right, ex.getMessage()));
+            return right;
+        }
+    }
+}
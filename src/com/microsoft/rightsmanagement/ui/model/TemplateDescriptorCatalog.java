@@ -0,0 +1,116 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.model;
+
+import java.util.HashMap;
+
+import com.microsoft.rightsmanagement.TemplateDescriptor;
+
+/**
+ * The template descriptors passed to PolicyPickerActivity.show() with an index from template id to position, built
+ * once so that resolving a picked item and locating the original template take constant time.
+ */
+public final class TemplateDescriptorCatalog
+{
+    /**
+     * Returned by indexOf for an unknown template id.
+     */
+    public static final int NO_INDEX = -1;
+    private final HashMap<String, Integer> mIndexes;
+    private final TemplateDescriptor[] mTemplateDescriptors;
+
+    /**
+     * Instantiates a new template descriptor catalog. If ids repeat, the first descriptor with the id is indexed.
+     * 
+     * @param templateDescriptors the template descriptors, not copied
+     */
+    public TemplateDescriptorCatalog(TemplateDescriptor[] templateDescriptors)
+    {
+        if (templateDescriptors == null)
+        {
+            throw new IllegalArgumentException("invalid parameter templateDescriptors");
+        }
+        mTemplateDescriptors = templateDescriptors;
+        // sized so that the map never rehashes
+        mIndexes = new HashMap<String, Integer>(templateDescriptors.length * 4 / 3 + 1);
+        for (int i = templateDescriptors.length - 1; i >= 0; i--)
+        {
+            mIndexes.put(templateDescriptors[i].getTemplateId(), i);
+        }
+    }
+
+    /**
+     * Finds the template descriptor of a model. Uses the index the model carries and falls back to the id.
+     * 
+     * @param templateDescriptorItem the template descriptor model
+     * @return the template descriptor or null if the catalog has none with the id of the model
+     */
+    public TemplateDescriptor find(TemplateDescriptorModel templateDescriptorItem)
+    {
+        int index = templateDescriptorItem.getIndex();
+        String templateId = templateDescriptorItem.getId();
+        if (index < 0 || index >= mTemplateDescriptors.length
+                || !mTemplateDescriptors[index].getTemplateId().equals(templateId))
+        {
+            index = indexOf(templateId);
+        }
+        return index != NO_INDEX ? mTemplateDescriptors[index] : null;
+    }
+
+    /**
+     * Gets the template descriptor at a position.
+     * 
+     * @param index the position
+     * @return the template descriptor
+     */
+    public TemplateDescriptor get(int index)
+    {
+        return mTemplateDescriptors[index];
+    }
+
+    /**
+     * Gets the template descriptors.
+     * 
+     * @return the template descriptors, not a copy
+     */
+    public TemplateDescriptor[] getTemplateDescriptors()
+    {
+        return mTemplateDescriptors;
+    }
+
+    /**
+     * Gets the position of a template id.
+     * 
+     * @param templateId the template id
+     * @return the position or NO_INDEX if the catalog has no descriptor with the id
+     */
+    public int indexOf(String templateId)
+    {
+        Integer index = mIndexes.get(templateId);
+        return index != null ? index : NO_INDEX;
+    }
+
+    /**
+     * Gets the number of template descriptors.
+     * 
+     * @return the size
+     */
+    public int size()
+    {
+        return mTemplateDescriptors.length;
+    }
+}
@@ -46,6 +46,7 @@ public class TemplateDescriptorModel implements Parcelable
     private static final String NO_PROTECTION_TEMPLATE_DESCRIPTOR_ID = "$NoProtection$";
     protected String mDescription;
     protected String mId;
+    protected int mIndex = TemplateDescriptorCatalog.NO_INDEX;
     protected String mName;
 
     /**
@@ -59,7 +60,7 @@ public class TemplateDescriptorModel implements Parcelable
         TemplateDescriptorModel[] templateDescriptorItems = new TemplateDescriptorModel[templateDescriptors.length];
         for (int i = 0; i < templateDescriptors.length; i++)
         {
-            templateDescriptorItems[i] = new TemplateDescriptorModel(templateDescriptors[i]);
+            templateDescriptorItems[i] = new TemplateDescriptorModel(templateDescriptors[i], i);
         }
         return templateDescriptorItems;
     }
@@ -109,6 +110,18 @@ public class TemplateDescriptorModel implements Parcelable
         mId = templateDescriptor.getTemplateId();
     }
 
+    /**
+     * Instantiates a new template descriptor model that knows its position in the array passed to show().
+     * 
+     * @param templateDescriptor the template descriptor
+     * @param index the position, or TemplateDescriptorCatalog.NO_INDEX
+     */
+    public TemplateDescriptorModel(TemplateDescriptor templateDescriptor, int index)
+    {
+        this(templateDescriptor);
+        mIndex = index;
+    }
+
     /**
      * Instantiates a new template descriptor model.
      */
@@ -126,6 +139,7 @@ public class TemplateDescriptorModel implements Parcelable
         mDescription = in.readString();
         mId = in.readString();
         mName = in.readString();
+        mIndex = in.readInt();
     }
 
     /*
@@ -139,7 +153,7 @@ public class TemplateDescriptorModel implements Parcelable
     }
 
     /**
-     * Self discovery.
+     * Self discovery. Scans the pool; prefer TemplateDescriptorCatalog.find, which takes constant time.
      * 
      * @param inThisPoolOfTemplateDescriptors source pool of template descriptors
      * @return the template descriptor
@@ -181,6 +195,16 @@ public class TemplateDescriptorModel implements Parcelable
         return mId;
     }
 
+    /**
+     * Gets the position of the descriptor in the array passed to show().
+     * 
+     * @return the index, or TemplateDescriptorCatalog.NO_INDEX for items that are not templates
+     */
+    public int getIndex()
+    {
+        return mIndex;
+    }
+
     /**
      * Gets the name.
      * 
@@ -229,5 +253,6 @@ public class TemplateDescriptorModel implements Parcelable
         out.writeString(mDescription);
         out.writeString(mId);
         out.writeString(mName);
+        out.writeInt(mIndex);
     }
 }
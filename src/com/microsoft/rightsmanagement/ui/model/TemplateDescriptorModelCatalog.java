@@ -0,0 +1,238 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Parcels an array of template descriptor models as one object instead of one object per element.
+ * <p>
+ * The parcel holds a header (magic, format version), a table of the distinct strings of all models and, per model,
+ * the table indexes of its description, id and name followed by its index. Descriptions that repeat across templates
+ * are written once, and the unparcelled models share the same string instances.
+ * </p>
+ * <p>
+ * The catalog also owns the search index of its models, which is not parcelled and is rebuilt when needed.
+ * </p>
+ */
+public final class TemplateDescriptorModelCatalog implements Parcelable
+{
+    public static final Parcelable.Creator<TemplateDescriptorModelCatalog> CREATOR = new Creator<TemplateDescriptorModelCatalog>()
+    {
+        @Override
+        public TemplateDescriptorModelCatalog createFromParcel(Parcel in)
+        {
+            return new TemplateDescriptorModelCatalog(in);
+        }
+
+        @Override
+        public TemplateDescriptorModelCatalog[] newArray(int size)
+        {
+            return new TemplateDescriptorModelCatalog[size];
+        }
+    };
+    private static final int ENTRY_SIZE = 4;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x524D5443;
+    private static final int NULL_STRING = -1;
+    private volatile TemplateDescriptorSearchIndex mSearchIndex;
+    private final TemplateDescriptorModel[] mTemplateDescriptorItems;
+
+    /**
+     * Instantiates a new template descriptor model catalog.
+     * 
+     * @param templateDescriptorItems the template descriptor models, not copied
+     */
+    public TemplateDescriptorModelCatalog(TemplateDescriptorModel[] templateDescriptorItems)
+    {
+        if (templateDescriptorItems == null)
+        {
+            throw new IllegalArgumentException("invalid parameter templateDescriptorItems");
+        }
+        mTemplateDescriptorItems = templateDescriptorItems;
+    }
+
+    /**
+     * Instantiates a new template descriptor model catalog.
+     * 
+     * @param in the in
+     */
+    private TemplateDescriptorModelCatalog(Parcel in)
+    {
+        int magic = in.readInt();
+        int formatVersion = in.readInt();
+        if (magic != MAGIC || formatVersion != FORMAT_VERSION)
+        {
+            throw new BadParcelableException("unsupported template descriptor catalog format " + formatVersion);
+        }
+        String[] strings = in.createStringArray();
+        int[] entries = in.createIntArray();
+        mTemplateDescriptorItems = new TemplateDescriptorModel[entries.length / ENTRY_SIZE];
+        for (int i = 0, entry = 0; i < mTemplateDescriptorItems.length; i++, entry += ENTRY_SIZE)
+        {
+            TemplateDescriptorModel templateDescriptorItem = new TemplateDescriptorModel();
+            templateDescriptorItem.mDescription = getString(strings, entries[entry]);
+            templateDescriptorItem.mId = getString(strings, entries[entry + 1]);
+            templateDescriptorItem.mName = getString(strings, entries[entry + 2]);
+            templateDescriptorItem.mIndex = entries[entry + 3];
+            mTemplateDescriptorItems[i] = templateDescriptorItem;
+        }
+    }
+
+    /**
+     * Adds a string to the table unless it is already there.
+     * 
+     * @param value the string, may be null
+     * @param stringIndexes the table indexes of the strings added so far
+     * @param strings the table
+     * @return the table index of the string, or NULL_STRING
+     */
+    private static int addString(String value, HashMap<String, Integer> stringIndexes, ArrayList<String> strings)
+    {
+        if (value == null)
+        {
+            return NULL_STRING;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null)
+        {
+            index = strings.size();
+            stringIndexes.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Gets a string of the table.
+     * 
+     * @param strings the table
+     * @param index the table index, or NULL_STRING
+     * @return the string
+     */
+    private static String getString(String[] strings, int index)
+    {
+        if (index == NULL_STRING)
+        {
+            return null;
+        }
+        if (index < 0 || index >= strings.length)
+        {
+            throw new BadParcelableException("invalid string index " + index);
+        }
+        return strings[index];
+    }
+
+    /**
+     * Builds the search index on an executor unless it is built already.
+     * 
+     * @param executor the executor, usually a background one
+     */
+    public void buildSearchIndexInBackground(Executor executor)
+    {
+        if (mSearchIndex != null)
+        {
+            return;
+        }
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                buildSearchIndex();
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.os.Parcelable#describeContents()
+     */
+    @Override
+    public int describeContents()
+    {
+        return 0;
+    }
+
+    /**
+     * Gets the search index over the models, whose positions are the indexes of the models. Builds it on the calling
+     * thread, or waits for a background build, if it is not ready.
+     * 
+     * @return the search index
+     */
+    public TemplateDescriptorSearchIndex getSearchIndex()
+    {
+        TemplateDescriptorSearchIndex searchIndex = mSearchIndex;
+        return searchIndex != null ? searchIndex : buildSearchIndex();
+    }
+
+    /**
+     * Gets the template descriptor models.
+     * 
+     * @return the template descriptor models, not a copy
+     */
+    public TemplateDescriptorModel[] getTemplateDescriptorItems()
+    {
+        return mTemplateDescriptorItems;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.os.Parcelable#writeToParcel(android.os.Parcel, int)
+     */
+    @Override
+    public void writeToParcel(Parcel out, int flags)
+    {
+        int count = mTemplateDescriptorItems.length;
+        // descriptions repeat, ids and names mostly do not
+        HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>(count * 2);
+        ArrayList<String> strings = new ArrayList<String>(count * 2);
+        int[] entries = new int[count * ENTRY_SIZE];
+        for (int i = 0, entry = 0; i < count; i++, entry += ENTRY_SIZE)
+        {
+            TemplateDescriptorModel templateDescriptorItem = mTemplateDescriptorItems[i];
+            entries[entry] = addString(templateDescriptorItem.mDescription, stringIndexes, strings);
+            entries[entry + 1] = addString(templateDescriptorItem.mId, stringIndexes, strings);
+            entries[entry + 2] = addString(templateDescriptorItem.mName, stringIndexes, strings);
+            entries[entry + 3] = templateDescriptorItem.mIndex;
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeStringArray(strings.toArray(new String[strings.size()]));
+        out.writeIntArray(entries);
+    }
+
+    /**
+     * Builds the search index once.
+     * 
+     * @return the search index
+     */
+    private synchronized TemplateDescriptorSearchIndex buildSearchIndex()
+    {
+        if (mSearchIndex == null)
+        {
+            mSearchIndex = new TemplateDescriptorSearchIndex(mTemplateDescriptorItems);
+        }
+        return mSearchIndex;
+    }
+}
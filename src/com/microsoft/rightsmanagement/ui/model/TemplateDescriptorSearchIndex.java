@@ -0,0 +1,189 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Prefix index over the words of template descriptor names and descriptions, for incremental search.
+ * <p>
+ * The distinct words are kept sorted, so the words that start with a query word form one range found by binary search.
+ * Each word has the ascending list of templates it occurs in. A query matches the templates that have, for every query
+ * word, a word starting with it. Building the index sorts all words and should run off the main thread; a query only
+ * walks the ranges and the lists, into buffers owned by the index, so search must be called from one thread at a time.
+ * </p>
+ */
+public final class TemplateDescriptorSearchIndex
+{
+    private final long[] mMatches;
+    private final int[][] mPostings;
+    private final long[] mQueryWordMatches;
+    private final int mSize;
+    private final String[] mWords;
+
+    /**
+     * Builds the index.
+     * 
+     * @param templateDescriptorItems the template descriptor models, indexed by position
+     */
+    public TemplateDescriptorSearchIndex(TemplateDescriptorModel[] templateDescriptorItems)
+    {
+        if (templateDescriptorItems == null)
+        {
+            throw new IllegalArgumentException("invalid parameter templateDescriptorItems");
+        }
+        mSize = templateDescriptorItems.length;
+        HashMap<String, ArrayList<Integer>> postings = new HashMap<String, ArrayList<Integer>>();
+        ArrayList<String> words = new ArrayList<String>();
+        for (int position = 0; position < mSize; position++)
+        {
+            TemplateDescriptorModel templateDescriptorItem = templateDescriptorItems[position];
+            words.clear();
+            tokenize(templateDescriptorItem.mName, words);
+            tokenize(templateDescriptorItem.mDescription, words);
+            for (String word : words)
+            {
+                ArrayList<Integer> positions = postings.get(word);
+                if (positions == null)
+                {
+                    positions = new ArrayList<Integer>(2);
+                    postings.put(word, positions);
+                }
+                // positions ascend, so a repeated word of the same template is the last entry
+                if (positions.isEmpty() || positions.get(positions.size() - 1) != position)
+                {
+                    positions.add(position);
+                }
+            }
+        }
+        mWords = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(mWords);
+        mPostings = new int[mWords.length][];
+        for (int i = 0; i < mWords.length; i++)
+        {
+            ArrayList<Integer> positions = postings.get(mWords[i]);
+            int[] wordPostings = new int[positions.size()];
+            for (int j = 0; j < wordPostings.length; j++)
+            {
+                wordPostings[j] = positions.get(j);
+            }
+            mPostings[i] = wordPostings;
+        }
+        mMatches = new long[(mSize + 63) >>> 6];
+        mQueryWordMatches = new long[mMatches.length];
+    }
+
+    /**
+     * Splits a text into lower case words of letters and digits.
+     * 
+     * @param text the text, may be null
+     * @param words receives the words
+     */
+    private static void tokenize(String text, ArrayList<String> words)
+    {
+        if (text == null)
+        {
+            return;
+        }
+        String lowerCaseText = text.toLowerCase(Locale.getDefault());
+        int length = lowerCaseText.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++)
+        {
+            boolean isWordCharacter = i < length && Character.isLetterOrDigit(lowerCaseText.charAt(i));
+            if (isWordCharacter && start < 0)
+            {
+                start = i;
+            }
+            else if (!isWordCharacter && start >= 0)
+            {
+                words.add(lowerCaseText.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Finds the templates that match a query.
+     * 
+     * @param query the words typed by the user; an empty query matches all templates
+     * @param results receives the matching positions in ascending order, must hold size() positions
+     * @return the number of matching templates
+     */
+    public int search(String query, int[] results)
+    {
+        if (results == null || results.length < mSize)
+        {
+            throw new IllegalArgumentException("invalid parameter results");
+        }
+        Arrays.fill(mMatches, -1L);
+        if (query != null)
+        {
+            ArrayList<String> queryWords = new ArrayList<String>();
+            tokenize(query, queryWords);
+            for (String queryWord : queryWords)
+            {
+                intersectPrefix(queryWord);
+            }
+        }
+        int count = 0;
+        for (int position = 0; position < mSize; position++)
+        {
+            if ((mMatches[position >>> 6] & (1L << position)) != 0)
+            {
+                results[count++] = position;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of indexed templates.
+     * 
+     * @return the size
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    /**
+     * Keeps the matches that have a word starting with a prefix.
+     * 
+     * @param prefix the prefix
+     */
+    private void intersectPrefix(String prefix)
+    {
+        Arrays.fill(mQueryWordMatches, 0);
+        int index = Arrays.binarySearch(mWords, prefix);
+        // the first word not less than the prefix
+        for (int i = index >= 0 ? index : -index - 1; i < mWords.length && mWords[i].startsWith(prefix); i++)
+        {
+            for (int position : mPostings[i])
+            {
+                mQueryWordMatches[position >>> 6] |= 1L << position;
+            }
+        }
+        for (int i = 0; i < mMatches.length; i++)
+        {
+            mMatches[i] &= mQueryWordMatches[i];
+        }
+    }
+}
@@ -17,22 +17,23 @@
 package com.microsoft.rightsmanagement.ui.model;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 
-import com.microsoft.rightsmanagement.ui.R;
-import com.microsoft.rightsmanagement.ui.utils.Helpers;
-import com.microsoft.rightsmanagement.ui.utils.Logger;
-
 import android.content.Context;
-import android.content.res.Resources.NotFoundException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import com.microsoft.rightsmanagement.UserPolicy;
 
 /**
- * Models User Policy.
+ * Models User Policy. The header (name, description, owner) is cheap to read from the policy; the effective rights
+ * need an access check per right, so they can be computed separately, off the main thread, and set when they are
+ * ready.
+ * <p>
+ * The viewable rights are kept in display order by name and by RightRegistry id. The effective rights known to the UI
+ * are the bits of a long; other rights have no id and their access is kept by display position, so any number of them
+ * is supported. Display names are resolved when the rights are rendered.
+ * </p>
  */
 public class UserPolicyModel implements Parcelable
 {
@@ -51,84 +52,133 @@ public class UserPolicyModel implements Parcelable
         }
     };
     public static final String TAG = "UserPolicyModel";
-    private static HashMap<String, Integer> sRightIDToResourceIDMap = Helpers.createHashMap(String.class, Integer.class,
-            "OWNER", R.string.owner_description_string,
-            "VIEW", R.string.view_description_string,
-            "EDIT", R.string.edit_description_string,
-            "EXPORT", R.string.export_description_string,
-            "EXTRACT", R.string.extract_description_string,
-            "PRINT", R.string.print_description_string,
-            "REPLY", R.string.reply_description_string,
-            "REPLYALL", R.string.reply_all_description_string,
-            "FORWARD", R.string.forward_description_string,
-            "COMMENT", R.string.comment_description_string);
+    // marks a parcelled right that is not built in and follows by name
+    private static final int PARCELLED_RIGHT_BY_NAME = -1;
+    // the application context seen last, to resolve display names for getEffectiveViewableRights()
+    private static volatile Context sApplicationContext;
+    private boolean[] mCustomRightAccess;
     private String mDescription;
-    private List<RightAccessCheckModel> mEffectiveViewableRights;
+    private long mEffectiveRights;
+    private boolean mHasEffectiveRights;
     private boolean mIsIssuedToOwner;
     private String mName;
     private String mOwner;
+    // not parcelled, checks access on demand until the effective rights are set
+    private UserPolicy mUserPolicy;
+    private int[] mViewableRightIds;
+    private String[] mViewableRights;
 
     /**
      * Instantiates a new user policy model.
      * 
      * @param userPolicy the user policy
      * @param supportedRights rights to check access for and display
-     * @param applicationContext the application context
+     * @param applicationContext the application context, used by getEffectiveViewableRights()
      */
     public UserPolicyModel(UserPolicy userPolicy,
                            LinkedHashSet<String> supportedRights,
                            Context applicationContext)
+    {
+        this(userPolicy, supportedRights);
+        if (applicationContext != null)
+        {
+            sApplicationContext = applicationContext.getApplicationContext();
+        }
+        setEffectiveRights(createViewableRightAccess(userPolicy, supportedRights));
+    }
+
+    /**
+     * Instantiates a new user policy model with the header and the viewable rights only. The effective rights are
+     * checked on demand until they are set.
+     * 
+     * @param userPolicy the user policy
+     * @param supportedRights rights to check access for and display
+     */
+    public UserPolicyModel(UserPolicy userPolicy, LinkedHashSet<String> supportedRights)
     {
         mName = userPolicy.getName();
         mDescription = userPolicy.getDescription();
         mOwner = userPolicy.getOwner();
         mIsIssuedToOwner = userPolicy.isIssuedToOwner();
-        makeEffectiveRights(userPolicy, supportedRights, applicationContext);
+        mUserPolicy = userPolicy;
+        mViewableRights = supportedRights.toArray(new String[supportedRights.size()]);
+        mViewableRightIds = new int[mViewableRights.length];
+        for (int position = 0; position < mViewableRights.length; position++)
+        {
+            mViewableRightIds[position] = RightRegistry.getId(mViewableRights[position]);
+        }
+        mCustomRightAccess = new boolean[mViewableRights.length];
     }
 
     /**
-     * Gets the rights display name.
+     * Instantiates a new user policy model.
      * 
-     * @param applicationContext the context
-     * @param right the right string ID
-     * @return the rights display name if found else the right ID
+     * @param in the in
      */
-    public static String getRightsDisplayName(Context applicationContext, String right)
+    private UserPolicyModel(Parcel in)
     {
-        String rightsDisplayName = right;
-        if (sRightIDToResourceIDMap.containsKey(right))
+        mName = in.readString();
+        mDescription = in.readString();
+        mOwner = in.readString();
+        mIsIssuedToOwner = in.readByte() != 0;
+        int viewableRightCount = in.readInt();
+        mViewableRights = new String[viewableRightCount];
+        mViewableRightIds = new int[viewableRightCount];
+        mCustomRightAccess = new boolean[viewableRightCount];
+        for (int position = 0; position < viewableRightCount; position++)
         {
-            try
+            int rightId = in.readInt();
+            if (rightId == PARCELLED_RIGHT_BY_NAME)
             {
-                rightsDisplayName = applicationContext.getResources().getString(sRightIDToResourceIDMap.get(right));
+                mViewableRights[position] = in.readString();
+                mViewableRightIds[position] = RightRegistry.NO_ID;
             }
-            catch (NotFoundException ex)
+            else
             {
-                Logger.ie(TAG, String.format(
-                        "Resource id for Right: %s was not found in resources. Exception Message: %s", right,
-                        ex.getMessage()));
+                mViewableRights[position] = RightRegistry.getName(rightId);
+                mViewableRightIds[position] = rightId;
             }
         }
-        else
+        mHasEffectiveRights = in.readByte() != 0;
+        if (mHasEffectiveRights)
         {
-            Logger.i(TAG, String.format("Right: %s - resource id was not found", right), "");
+            boolean[] viewableRightAccess = new boolean[viewableRightCount];
+            for (int position = 0; position < viewableRightCount; position++)
+            {
+                viewableRightAccess[position] = in.readByte() != 0;
+            }
+            setEffectiveRights(viewableRightAccess);
         }
-        return rightsDisplayName;
     }
 
     /**
-     * Instantiates a new user policy model.
+     * Checks access for a batch of rights. Can run on any thread.
      * 
-     * @param in the in
+     * @param userPolicy the user policy
+     * @param supportedRights rights to check access for
+     * @return the access to each right, in the order of the set
      */
-    private UserPolicyModel(Parcel in)
+    public static boolean[] createViewableRightAccess(UserPolicy userPolicy, LinkedHashSet<String> supportedRights)
     {
-        mName = in.readString();
-        mDescription = in.readString();
-        mOwner = in.readString();
-        mIsIssuedToOwner = in.readByte() != 0;
-        mEffectiveViewableRights = new ArrayList<RightAccessCheckModel>();
-        in.readTypedList(mEffectiveViewableRights, RightAccessCheckModel.CREATOR);
+        boolean[] viewableRightAccess = new boolean[supportedRights.size()];
+        int position = 0;
+        for (String right : supportedRights)
+        {
+            viewableRightAccess[position++] = userPolicy.accessCheck(right);
+        }
+        return viewableRightAccess;
+    }
+
+    /**
+     * Gets the rights display name.
+     * 
+     * @param applicationContext the context
+     * @param right the right string ID
+     * @return the rights display name if found else the right ID
+     */
+    public static String getRightsDisplayName(Context applicationContext, String right)
+    {
+        return RightRegistry.getDisplayName(applicationContext, right, RightRegistry.getId(right));
     }
 
     /*
@@ -152,13 +202,64 @@ public class UserPolicyModel implements Parcelable
     }
 
     /**
-     * Gets the effective viewable rights.
+     * Gets the effective rights known to the UI.
+     * 
+     * @return the effective rights, a RightRegistry mask, 0 while they are not known
+     */
+    public long getEffectiveRights()
+    {
+        return mEffectiveRights;
+    }
+
+    /**
+     * Gets the effective viewable rights with their display names, resolved through the application context passed
+     * to this class last. Allocates the list, renderers should use getViewableRightDisplayName and
+     * hasViewableRightAccess instead.
      * 
      * @return the effective viewable rights
      */
     public List<RightAccessCheckModel> getEffectiveViewableRights()
     {
-        return mEffectiveViewableRights;
+        return getEffectiveViewableRights(sApplicationContext);
+    }
+
+    /**
+     * Gets the effective viewable rights with their display names. Checks access on the calling thread if the
+     * effective rights are not set yet. Allocates the list, renderers should use getViewableRightDisplayName and
+     * hasViewableRightAccess instead.
+     * 
+     * @param applicationContext the application context, or null to use the right names
+     * @return the effective viewable rights, empty if they are not known, for example for a parcelled model whose
+     *         rights were not set
+     */
+    public List<RightAccessCheckModel> getEffectiveViewableRights(Context applicationContext)
+    {
+        if (applicationContext != null)
+        {
+            sApplicationContext = applicationContext.getApplicationContext();
+        }
+        if (!mHasEffectiveRights && mUserPolicy != null)
+        {
+            boolean[] viewableRightAccess = new boolean[mViewableRights.length];
+            for (int position = 0; position < mViewableRights.length; position++)
+            {
+                viewableRightAccess[position] = mUserPolicy.accessCheck(mViewableRights[position]);
+            }
+            setEffectiveRights(viewableRightAccess);
+        }
+        ArrayList<RightAccessCheckModel> effectiveViewableRights = new ArrayList<RightAccessCheckModel>(
+                mViewableRights.length);
+        if (!mHasEffectiveRights)
+        {
+            return effectiveViewableRights;
+        }
+        for (int position = 0; position < mViewableRights.length; position++)
+        {
+            String displayName = applicationContext != null ? getViewableRightDisplayName(applicationContext,
+                    position) : mViewableRights[position];
+            effectiveViewableRights.add(new RightAccessCheckModel(displayName, hasViewableRightAccess(position)));
+        }
+        return effectiveViewableRights;
     }
 
     /**
@@ -181,6 +282,107 @@ public class UserPolicyModel implements Parcelable
         return mOwner;
     }
 
+    /**
+     * Gets the name of a viewable right.
+     * 
+     * @param position the display position
+     * @return the right name
+     */
+    public String getViewableRight(int position)
+    {
+        return mViewableRights[position];
+    }
+
+    /**
+     * Gets the number of viewable rights.
+     * 
+     * @return the viewable right count
+     */
+    public int getViewableRightCount()
+    {
+        return mViewableRights.length;
+    }
+
+    /**
+     * Gets the localized display name of a viewable right. Rights without a string resource are displayed by their
+     * name.
+     * 
+     * @param applicationContext the application context
+     * @param position the display position
+     * @return the display name
+     */
+    public String getViewableRightDisplayName(Context applicationContext, int position)
+    {
+        return RightRegistry.getDisplayName(applicationContext, mViewableRights[position], mViewableRightIds[position]);
+    }
+
+    /**
+     * Gets the RightRegistry id of a viewable right.
+     * 
+     * @param position the display position
+     * @return the RightRegistry id, or RightRegistry.NO_ID if the right is not known to the UI
+     */
+    public int getViewableRightId(int position)
+    {
+        return mViewableRightIds[position];
+    }
+
+    /**
+     * Checks if the user has a right known to the UI.
+     * 
+     * @param rightId the RightRegistry id
+     * @return true, if the effective rights contain the right
+     */
+    public boolean hasAccess(int rightId)
+    {
+        return RightRegistry.isBuiltIn(rightId) && (mEffectiveRights & RightRegistry.toMask(rightId)) != 0;
+    }
+
+    /**
+     * Checks if the user has a right.
+     * 
+     * @param right the right name
+     * @return true, if the effective rights contain the right
+     */
+    public boolean hasAccess(String right)
+    {
+        int rightId = RightRegistry.getId(right);
+        if (rightId != RightRegistry.NO_ID)
+        {
+            return hasAccess(rightId);
+        }
+        for (int position = 0; position < mViewableRights.length; position++)
+        {
+            if (mViewableRights[position].equals(right))
+            {
+                return mCustomRightAccess[position];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the effective rights are set.
+     * 
+     * @return true, if the effective rights are set
+     */
+    public boolean hasEffectiveRights()
+    {
+        return mHasEffectiveRights;
+    }
+
+    /**
+     * Checks if the user has a viewable right.
+     * 
+     * @param position the display position
+     * @return true, if the effective rights contain the right
+     */
+    public boolean hasViewableRightAccess(int position)
+    {
+        int rightId = mViewableRightIds[position];
+        return rightId != RightRegistry.NO_ID ? hasAccess(rightId) : mCustomRightAccess[position];
+    }
+
     /**
      * Checks if is issued to owner.
      * 
@@ -191,6 +393,48 @@ public class UserPolicyModel implements Parcelable
         return mIsIssuedToOwner;
     }
 
+    /**
+     * Sets the effective rights of a model created without them. Must be called on the thread that uses the model.
+     * 
+     * @param viewableRightAccess the access to each viewable right, in display order
+     */
+    public void setEffectiveRights(boolean[] viewableRightAccess)
+    {
+        if (viewableRightAccess == null || viewableRightAccess.length != mViewableRights.length)
+        {
+            throw new IllegalArgumentException("invalid parameter viewableRightAccess");
+        }
+        long effectiveRights = 0;
+        for (int position = 0; position < viewableRightAccess.length; position++)
+        {
+            int rightId = mViewableRightIds[position];
+            if (rightId != RightRegistry.NO_ID)
+            {
+                effectiveRights |= viewableRightAccess[position] ? RightRegistry.toMask(rightId) : 0;
+                mCustomRightAccess[position] = false;
+            }
+            else
+            {
+                mCustomRightAccess[position] = viewableRightAccess[position];
+            }
+        }
+        mEffectiveRights = effectiveRights;
+        mHasEffectiveRights = true;
+        mUserPolicy = null;
+    }
+
+    /**
+     * Marks the effective rights as unavailable, for example when their computation was lost. No rights are
+     * displayed.
+     */
+    public void setEffectiveRightsUnavailable()
+    {
+        mViewableRights = new String[0];
+        mViewableRightIds = new int[0];
+        mCustomRightAccess = new boolean[0];
+        setEffectiveRights(new boolean[0]);
+    }
+
     /*
      * (non-Javadoc)
      * @see android.os.Parcelable#writeToParcel(android.os.Parcel, int)
@@ -202,24 +446,27 @@ public class UserPolicyModel implements Parcelable
         out.writeString(mDescription);
         out.writeString(mOwner);
         out.writeByte((byte)(mIsIssuedToOwner ? 1 : 0));
-        out.writeTypedList(mEffectiveViewableRights);
-    }
-
-    /**
-     * Make effective rights.
-     * 
-     * @param userPolicy the user policy
-     * @param supportedRights rights to check access for and display
-     * @param applicationContext the application context
-     */
-    private void makeEffectiveRights(UserPolicy userPolicy, LinkedHashSet<String> supportedRights, Context applicationContext)
-    {
-        mEffectiveViewableRights = new ArrayList<RightAccessCheckModel>();
-        for (String right : supportedRights)
+        out.writeInt(mViewableRights.length);
+        for (int position = 0; position < mViewableRights.length; position++)
+        {
+            int rightId = mViewableRightIds[position];
+            if (rightId != RightRegistry.NO_ID)
+            {
+                out.writeInt(rightId);
+            }
+            else
+            {
+                out.writeInt(PARCELLED_RIGHT_BY_NAME);
+                out.writeString(mViewableRights[position]);
+            }
+        }
+        out.writeByte((byte)(mHasEffectiveRights ? 1 : 0));
+        if (mHasEffectiveRights)
         {
-            boolean hasAccess = userPolicy.accessCheck(right);
-            String rightDisplayName = getRightsDisplayName(applicationContext, right);
-            mEffectiveViewableRights.add(new RightAccessCheckModel(rightDisplayName, hasAccess));
+            for (int position = 0; position < mViewableRights.length; position++)
+            {
+                out.writeByte((byte)(hasViewableRightAccess(position) ? 1 : 0));
+            }
         }
     }
 }
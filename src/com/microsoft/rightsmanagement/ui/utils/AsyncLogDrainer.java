@@ -0,0 +1,177 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.microsoft.rightsmanagement.ui.utils.Logger.OverflowPolicy;
+
+import android.os.Process;
+
+/**
+ * Background worker that moves events from a LogRingBuffer to a LogSink. Callers only copy a few references into a
+ * slot; the single drainer thread does the formatting and the writing. Logger uses one drainer as its asynchronous back
+ * end and one per registered sink.
+ */
+final class AsyncLogDrainer implements Runnable
+{
+    private static final long BLOCKED_PRODUCER_PARK_NANOS = 50 * 1000L;
+    private static final long IDLE_PARK_NANOS = 100 * 1000 * 1000L;
+    private final AtomicLong mDroppedEventCount;
+    private volatile boolean mIsParked;
+    private volatile boolean mIsRunning = true;
+    private final OverflowPolicy mOverflowPolicy;
+    private final LogRingBuffer mRingBuffer;
+    private final LogSink mTarget;
+    private final Thread mThread;
+
+    /**
+     * Instantiates a new drainer. The thread is not started until start() is called.
+     * 
+     * @param target the sink that receives drained events
+     * @param threadName the name of the drainer thread
+     * @param capacity the ring buffer capacity
+     * @param overflowPolicy the overflow policy
+     * @param droppedEventCount the counter incremented for every dropped event
+     */
+    AsyncLogDrainer(LogSink target,
+                    String threadName,
+                    int capacity,
+                    OverflowPolicy overflowPolicy,
+                    AtomicLong droppedEventCount)
+    {
+        mTarget = target;
+        mRingBuffer = new LogRingBuffer(capacity);
+        mOverflowPolicy = overflowPolicy;
+        mDroppedEventCount = droppedEventCount;
+        mThread = new Thread(this, threadName);
+        mThread.setDaemon(true);
+    }
+
+    /**
+     * Copies an event into the queue of the drainer.
+     * 
+     * @param event the event
+     * @return true, if the event was queued or dropped per overflow policy; false, if the drainer is stopped and the
+     *         caller must write the event itself
+     */
+    boolean offer(LogEvent event)
+    {
+        if (!mIsRunning)
+        {
+            return false;
+        }
+        while (!mRingBuffer.offer(event))
+        {
+            // never block the drainer on itself, e.g. when the chained logger logs back into Logger
+            if (mOverflowPolicy == OverflowPolicy.DropNewest || Thread.currentThread() == mThread)
+            {
+                mDroppedEventCount.incrementAndGet();
+                return true;
+            }
+            if (mOverflowPolicy == OverflowPolicy.DropOldest)
+            {
+                if (mRingBuffer.discardOldest())
+                {
+                    mDroppedEventCount.incrementAndGet();
+                }
+            }
+            else
+            {
+                if (!mIsRunning)
+                {
+                    return false;
+                }
+                LockSupport.unpark(mThread);
+                LockSupport.parkNanos(BLOCKED_PRODUCER_PARK_NANOS);
+            }
+        }
+        if (mIsParked)
+        {
+            LockSupport.unpark(mThread);
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run()
+    {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        LogEvent event = new LogEvent();
+        while (true)
+        {
+            while (mRingBuffer.poll(event))
+            {
+                mTarget.write(event);
+                event.clear();
+            }
+            if (!mIsRunning)
+            {
+                break;
+            }
+            mIsParked = true;
+            if (mRingBuffer.isEmpty())
+            {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            mIsParked = false;
+        }
+        // flush whatever producers managed to queue while we were stopping
+        while (mRingBuffer.poll(event))
+        {
+            mTarget.write(event);
+            event.clear();
+        }
+        mTarget.flush();
+    }
+
+    /**
+     * Starts the drainer thread.
+     */
+    void start()
+    {
+        mThread.start();
+    }
+
+    /**
+     * Stops accepting events, lets the drainer flush what is queued and waits for it to finish.
+     * 
+     * @param timeoutMillis maximum time to wait for the flush
+     */
+    void stop(long timeoutMillis)
+    {
+        mIsRunning = false;
+        LockSupport.unpark(mThread);
+        if (Thread.currentThread() == mThread)
+        {
+            return;
+        }
+        try
+        {
+            mThread.join(timeoutMillis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
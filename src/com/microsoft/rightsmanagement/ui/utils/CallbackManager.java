@@ -16,14 +16,46 @@
 
 package com.microsoft.rightsmanagement.ui.utils;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import android.util.SparseArray;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.microsoft.rightsmanagement.ui.CompletionCallback;
 
+import android.os.SystemClock;
+
 /**
  * Manages callbacks used in onActivityResult.
+ * <p>
+ * The waiting requests are kept in immutable open addressing tables keyed by request id. Lookups read the current
+ * table and probe it without locking; put, remove and take build a new table and swap it in with a compare-and-set,
+ * retrying if another thread swapped first. Copying a small table is cheaper than coordinating readers and writers.
+ * </p>
+ * <p>
+ * Requests are spread over independent shards by id, so thousands of requests can be pending at once while each write
+ * copies only its own shard and only contends with writers of the same shard. Ids should come from
+ * RequestIdAllocator; a request put with the id of a pending request replaces it.
+ * </p>
+ * <p>
+ * A request whose activity never returns a result, for example because the system closed it, would otherwise keep its
+ * callback and state alive for the life of the process. Requests therefore expire after a time to live, and callbacks
+ * can optionally be held weakly. Every put also checks a few slots for expired requests and collected callbacks and
+ * removes them, so abandoned requests are swept without ever scanning all shards at once.
+ * </p>
+ * <p>
+ * Each manager counts its pending requests, orphans and CAS retries, and records how long requests wait for their
+ * result per outcome. getMetrics takes a snapshot without locking; managers created with a name are also listed by
+ * getAllMetrics.
+ * </p>
+ * <p>
+ * A manager can also keep the states of its requests in a PendingRequestStore. The callbacks die with the process, but
+ * a result delivered to the recreated process can then still be matched to its state through takeRestoredState.
+ * </p>
  * 
  * @param <T> callback result type
  * @param <S> extra info (state) holder type
@@ -31,71 +63,468 @@ import com.microsoft.rightsmanagement.ui.CompletionCallback;
 public class CallbackManager<T, S>
 {
     /**
-     * Represents payload that is mapped to callback id.
+     * How a request ended.
      */
-    private class Item
+    public enum Outcome
     {
-        public CompletionCallback<T> mCompletetionCallback;
-        public S mState;
+        Ok,
+        Cancelled,
+        SystemClosed
     }
-    private final ReentrantReadWriteLock mRwl = new ReentrantReadWriteLock();
-    private final Lock mReadLock = mRwl.readLock();
-    private final Lock mWriteLock = mRwl.writeLock();
-    private SparseArray<Item> sCallbackMap = new SparseArray<Item>();
-    private String TAG = "CallbackManager";
 
     /**
-     * Gets the state.
+     * Represents payload that is mapped to callback id. Immutable.
      * 
-     * @param requestCallbackId the request callback id
-     * @return the state
+     * @param <T> callback result type
+     * @param <S> extra info (state) holder type
      */
-    public S getState(int requestCallbackId)
+    public static final class WaitingRequest<T, S>
     {
-        Logger.ms(TAG, "getState");
-        S state = null;
-        mReadLock.lock();
-        try
+        private final CompletionCallback<T> mCompletionCallback;
+        private final long mExpiryTimeMillis;
+        private final long mPutTimeMillis;
+        private final int mRequestCallbackId;
+        private final S mState;
+        private final WeakReference<CompletionCallback<T>> mWeakCompletionCallback;
+
+        /**
+         * Instantiates a new waiting request.
+         * 
+         * @param requestCallbackId the request callback id
+         * @param completionCallback the completion callback
+         * @param state the state
+         * @param putTimeMillis the SystemClock.elapsedRealtime() at which the request is put
+         * @param expiryTimeMillis the SystemClock.elapsedRealtime() after which the request expires
+         * @param isCallbackWeak true, to hold the callback through a weak reference
+         */
+        WaitingRequest(int requestCallbackId,
+                       CompletionCallback<T> completionCallback,
+                       S state,
+                       long putTimeMillis,
+                       long expiryTimeMillis,
+                       boolean isCallbackWeak)
+        {
+            mRequestCallbackId = requestCallbackId;
+            mCompletionCallback = isCallbackWeak ? null : completionCallback;
+            mWeakCompletionCallback = isCallbackWeak ? new WeakReference<CompletionCallback<T>>(completionCallback)
+                    : null;
+            mState = state;
+            mPutTimeMillis = putTimeMillis;
+            mExpiryTimeMillis = expiryTimeMillis;
+        }
+
+        /**
+         * Gets the completion callback.
+         * 
+         * @return the completion callback, or null if it was held weakly and has been collected
+         */
+        public CompletionCallback<T> getCompletionCallback()
         {
-            Item item = sCallbackMap.get(requestCallbackId);
-            if (item != null)
+            return mWeakCompletionCallback != null ? mWeakCompletionCallback.get() : mCompletionCallback;
+        }
+
+        /**
+         * Gets the request callback id.
+         * 
+         * @return the request callback id
+         */
+        public int getRequestCallbackId()
+        {
+            return mRequestCallbackId;
+        }
+
+        /**
+         * Gets the state.
+         * 
+         * @return the state
+         */
+        public S getState()
+        {
+            return mState;
+        }
+
+        /**
+         * Checks if the request outlived its time to live.
+         * 
+         * @param nowMillis the current SystemClock.elapsedRealtime()
+         * @return true, if is expired
+         */
+        boolean isExpired(long nowMillis)
+        {
+            return nowMillis - mExpiryTimeMillis > 0;
+        }
+
+        /**
+         * Checks if the callback was held weakly and has been collected.
+         * 
+         * @return true, if is leaked
+         */
+        boolean isLeaked()
+        {
+            return mWeakCompletionCallback != null && mWeakCompletionCallback.get() == null;
+        }
+    }
+
+    /**
+     * Immutable open addressing table with linear probing. The slot array is at least twice the number of requests, so
+     * a probe always ends at an empty slot.
+     */
+    private static final class Table
+    {
+        private static final int MIN_CAPACITY = 8;
+        static final Table EMPTY = new Table(new WaitingRequest<?, ?>[MIN_CAPACITY], 0);
+        private final int mCount;
+        private final WaitingRequest<?, ?>[] mSlots;
+
+        /**
+         * Instantiates a new table.
+         * 
+         * @param slots the slots, a power of two long
+         * @param count the number of requests in the slots
+         */
+        private Table(WaitingRequest<?, ?>[] slots, int count)
+        {
+            mSlots = slots;
+            mCount = count;
+        }
+
+        /**
+         * Spreads the bits of a request id, callers pass hash codes and sequential numbers alike.
+         * 
+         * @param requestCallbackId the request callback id
+         * @return the hash
+         */
+        private static int hash(int requestCallbackId)
+        {
+            int h = requestCallbackId * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * Gets the request with an id.
+         * 
+         * @param requestCallbackId the request callback id
+         * @return the request or null if there is none
+         */
+        WaitingRequest<?, ?> get(int requestCallbackId)
+        {
+            int mask = mSlots.length - 1;
+            for (int i = hash(requestCallbackId) & mask;; i = (i + 1) & mask)
+            {
+                WaitingRequest<?, ?> request = mSlots[i];
+                if (request == null || request.mRequestCallbackId == requestCallbackId)
+                {
+                    return request;
+                }
+            }
+        }
+
+        /**
+         * Creates a copy of this table with a request added or replaced.
+         * 
+         * @param request the request
+         * @return the new table
+         */
+        Table with(WaitingRequest<?, ?> request)
+        {
+            boolean isReplacement = get(request.mRequestCallbackId) != null;
+            int count = isReplacement ? mCount : mCount + 1;
+            Table table = new Table(new WaitingRequest<?, ?>[capacityFor(count)], count);
+            table.copy(this, request.mRequestCallbackId);
+            table.insert(request);
+            return table;
+        }
+
+        /**
+         * Creates a copy of this table without a request.
+         * 
+         * @param requestCallbackId the request callback id
+         * @return the new table, or this table if it has no such request
+         */
+        Table without(int requestCallbackId)
+        {
+            if (get(requestCallbackId) == null)
+            {
+                return this;
+            }
+            int count = mCount - 1;
+            if (count == 0)
+            {
+                return EMPTY;
+            }
+            Table table = new Table(new WaitingRequest<?, ?>[capacityFor(count)], count);
+            table.copy(this, requestCallbackId);
+            return table;
+        }
+
+        /**
+         * Computes the slot count for a number of requests.
+         * 
+         * @param count the number of requests
+         * @return the capacity
+         */
+        private static int capacityFor(int count)
+        {
+            int capacity = MIN_CAPACITY;
+            while (capacity < count * 2)
+            {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        /**
+         * Inserts the requests of another table into this one, which must be under construction.
+         * 
+         * @param source the source table
+         * @param skippedRequestCallbackId the id of a request that is not copied
+         */
+        private void copy(Table source, int skippedRequestCallbackId)
+        {
+            for (WaitingRequest<?, ?> request : source.mSlots)
             {
-                state = item.mState;
+                if (request != null && request.mRequestCallbackId != skippedRequestCallbackId)
+                {
+                    insert(request);
+                }
             }
         }
-        finally
+
+        /**
+         * Inserts a request into this table, which must be under construction.
+         * 
+         * @param request the request
+         */
+        private void insert(WaitingRequest<?, ?> request)
         {
-            mReadLock.unlock();
-            Logger.me(TAG, "getState");
+            int mask = mSlots.length - 1;
+            int i = hash(request.mRequestCallbackId) & mask;
+            while (mSlots[i] != null)
+            {
+                i = (i + 1) & mask;
+            }
+            mSlots[i] = request;
         }
-        return state;
     }
+    /**
+     * The default time to live of a request, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60 * 60 * 1000;
+    private static final int DEFAULT_SHARD_COUNT = 64;
+    private static final int SWEEP_SLOTS_PER_PUT = 4;
+    private static final String TAG = "CallbackManager";
+    private static volatile boolean sIsCallbackWeak;
+    private static final CopyOnWriteArrayList<CallbackManager<?, ?>> sNamedCallbackManagers =
+            new CopyOnWriteArrayList<CallbackManager<?, ?>>();
+    private static volatile long sTimeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private final AtomicLong mCasRetryCount = new AtomicLong();
+    private final AtomicLong mExpiredRequestCount = new AtomicLong();
+    private final AtomicLongArray mLatencyBucketCounts = new AtomicLongArray(Outcome.values().length
+            * CallbackManagerMetrics.BUCKET_COUNT);
+    private final AtomicLong mLeakedRequestCount = new AtomicLong();
+    private final String mName;
+    private volatile PendingRequestStore<S> mPendingRequestStore;
+    private final int mShardBits;
+    private final int mShardMask;
+    private final AtomicReferenceArray<Table> mShards;
+    private final AtomicInteger mSweepPosition = new AtomicInteger();
 
     /**
-     * Gets the waiting request.
+     * Instantiates a new callback manager with the default number of shards.
+     */
+    public CallbackManager()
+    {
+        this(null, DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * Instantiates a new callback manager.
      * 
-     * @param requestCallbackId the request callback id
-     * @return the waiting request
+     * @param requestedShardCount the number of shards, rounded up to the next power of two
      */
-    public CompletionCallback<T> getWaitingRequest(int requestCallbackId)
+    public CallbackManager(int requestedShardCount)
+    {
+        this(null, requestedShardCount);
+    }
+
+    /**
+     * Instantiates a new named callback manager with the default number of shards. Its metrics are listed by
+     * getAllMetrics for the life of the process, so the name should identify a static manager.
+     * 
+     * @param name the name, usually the activity type
+     */
+    public CallbackManager(String name)
+    {
+        this(name, DEFAULT_SHARD_COUNT);
+    }
+
+    /**
+     * Instantiates a new callback manager.
+     * 
+     * @param name the name, or null for a manager that is not listed by getAllMetrics
+     * @param requestedShardCount the number of shards, rounded up to the next power of two
+     */
+    public CallbackManager(String name, int requestedShardCount)
     {
-        Logger.ms(TAG, "getWaitingRequest");
-        CompletionCallback<T> request = null;
-        mReadLock.lock();
-        try
+        if (requestedShardCount <= 0)
         {
-            Item item = sCallbackMap.get(requestCallbackId);
-            if (item != null)
-            {
-                request = item.mCompletetionCallback;
-            }
+            throw new IllegalArgumentException("invalid parameter requestedShardCount");
         }
-        finally
+        int shardCount = Integer.highestOneBit(requestedShardCount);
+        if (shardCount < requestedShardCount)
         {
-            mReadLock.unlock();
-            Logger.me(TAG, "getWaitingRequest");
+            shardCount <<= 1;
         }
-        return request;
+        mShardMask = shardCount - 1;
+        mShardBits = Integer.numberOfTrailingZeros(shardCount);
+        mShards = new AtomicReferenceArray<Table>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+        {
+            mShards.set(i, Table.EMPTY);
+        }
+        mName = name != null ? name : TAG;
+        if (name != null)
+        {
+            sNamedCallbackManagers.add(this);
+        }
+    }
+
+    /**
+     * Takes a metrics snapshot of every named callback manager.
+     * 
+     * @return the snapshots
+     */
+    public static List<CallbackManagerMetrics> getAllMetrics()
+    {
+        List<CallbackManagerMetrics> metrics = new ArrayList<CallbackManagerMetrics>(sNamedCallbackManagers.size());
+        for (CallbackManager<?, ?> callbackManager : sNamedCallbackManagers)
+        {
+            metrics.add(callbackManager.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Gets the time to live of requests put from now on.
+     * 
+     * @return the time to live in milliseconds, 0 if requests never expire
+     */
+    public static long getTimeToLive()
+    {
+        return sTimeToLiveMillis;
+    }
+
+    /**
+     * Checks if callbacks put from now on are held through weak references.
+     * 
+     * @return true, if callbacks are weak
+     */
+    public static boolean isCallbackWeak()
+    {
+        return sIsCallbackWeak;
+    }
+
+    /**
+     * Sets whether callbacks put from now on are held through weak references, for all callback managers. A weak
+     * callback must be kept reachable by its caller until it is invoked, anonymous callbacks would be collected. A
+     * request whose callback is collected is swept and counted as leaked.
+     * 
+     * @param isCallbackWeak true, to hold callbacks weakly
+     */
+    public static void setCallbackWeak(boolean isCallbackWeak)
+    {
+        sIsCallbackWeak = isCallbackWeak;
+    }
+
+    /**
+     * Sets the time to live of requests put from now on, for all callback managers. An expired request is removed
+     * once a later put sweeps it, after which its activity result is ignored.
+     * 
+     * @param timeToLiveMillis the time to live in milliseconds, 0 for requests that never expire
+     */
+    public static void setTimeToLive(long timeToLiveMillis)
+    {
+        if (timeToLiveMillis < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter timeToLiveMillis");
+        }
+        sTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Gets the number of waiting requests. The shards are read one after another, so the count is approximate while
+     * requests are added or removed.
+     * 
+     * @return the count
+     */
+    public int getCount()
+    {
+        int count = 0;
+        for (int i = 0; i < mShards.length(); i++)
+        {
+            count += mShards.get(i).mCount;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of requests swept because they outlived their time to live.
+     * 
+     * @return the expired request count
+     */
+    public long getExpiredRequestCount()
+    {
+        return mExpiredRequestCount.get();
+    }
+
+    /**
+     * Gets the number of requests swept because their weak callback was collected before a result arrived.
+     * 
+     * @return the leaked request count
+     */
+    public long getLeakedRequestCount()
+    {
+        return mLeakedRequestCount.get();
+    }
+
+    /**
+     * Takes a metrics snapshot without locking.
+     * 
+     * @return the metrics
+     */
+    public CallbackManagerMetrics getMetrics()
+    {
+        long[] bucketCounts = new long[mLatencyBucketCounts.length()];
+        for (int i = 0; i < bucketCounts.length; i++)
+        {
+            bucketCounts[i] = mLatencyBucketCounts.get(i);
+        }
+        return new CallbackManagerMetrics(mName, getCount(), mCasRetryCount.get(), mExpiredRequestCount.get(),
+                mLeakedRequestCount.get(), bucketCounts);
+    }
+
+    /**
+     * Gets the state.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the state
+     */
+    public S getState(int requestCallbackId)
+    {
+        WaitingRequest<T, S> request = get(requestCallbackId);
+        return request != null ? request.mState : null;
+    }
+
+    /**
+     * Gets the waiting request.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the waiting request
+     */
+    public CompletionCallback<T> getWaitingRequest(int requestCallbackId)
+    {
+        WaitingRequest<T, S> request = get(requestCallbackId);
+        return request != null ? request.getCompletionCallback() : null;
     }
 
     /**
@@ -118,22 +547,29 @@ public class CallbackManager<T, S>
      */
     public void putWaitingRequest(int requestCallbackId, CompletionCallback<T> requestCallback, S state)
     {
-        Logger.ms(TAG, "putWaitingRequest");
         if (requestCallback != null)
         {
-            mWriteLock.lock();
-            try
+            long nowMillis = SystemClock.elapsedRealtime();
+            long timeToLiveMillis = sTimeToLiveMillis;
+            long expiryTimeMillis = timeToLiveMillis > 0 ? nowMillis + timeToLiveMillis : Long.MAX_VALUE;
+            WaitingRequest<T, S> request = new WaitingRequest<T, S>(requestCallbackId, requestCallback, state,
+                    nowMillis, expiryTimeMillis, sIsCallbackWeak);
+            int shard = getShard(requestCallbackId);
+            while (true)
             {
-                Item item = new Item();
-                item.mCompletetionCallback = requestCallback;
-                item.mState = state;
-                sCallbackMap.put(requestCallbackId, item);
+                Table table = mShards.get(shard);
+                if (mShards.compareAndSet(shard, table, table.with(request)))
+                {
+                    break;
+                }
+                mCasRetryCount.incrementAndGet();
             }
-            finally
+            PendingRequestStore<S> pendingRequestStore = mPendingRequestStore;
+            if (pendingRequestStore != null && state != null)
             {
-                mWriteLock.unlock();
-                Logger.me(TAG, "putWaitingRequest");
+                pendingRequestStore.put(requestCallbackId, state);
             }
+            sweep(nowMillis);
         }
     }
 
@@ -144,16 +580,181 @@ public class CallbackManager<T, S>
      */
     public void removeWaitingRequest(int requestId)
     {
-        Logger.ms(TAG, "removeWaitingRequest");
-        mWriteLock.lock();
-        try
+        takeWaitingRequest(requestId);
+    }
+
+    /**
+     * Sets the store that keeps the states of requests put from now on across process death.
+     * 
+     * @param pendingRequestStore the pending request store, or null to keep states in memory only
+     */
+    public void setPendingRequestStore(PendingRequestStore<S> pendingRequestStore)
+    {
+        mPendingRequestStore = pendingRequestStore;
+    }
+
+    /**
+     * Removes the waiting request and returns it, atomically. When several threads take the same request only one of
+     * them gets it, so its callback is invoked once.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the waiting request or null if there is none
+     */
+    public WaitingRequest<T, S> takeWaitingRequest(int requestCallbackId)
+    {
+        int shard = getShard(requestCallbackId);
+        while (true)
+        {
+            Table table = mShards.get(shard);
+            WaitingRequest<T, S> request = cast(table.get(requestCallbackId));
+            if (request == null)
+            {
+                return null;
+            }
+            if (mShards.compareAndSet(shard, table, table.without(requestCallbackId)))
+            {
+                removeStoredState(requestCallbackId);
+                return request;
+            }
+            mCasRetryCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the waiting request and returns it, atomically, and records how long it waited for the outcome.
+     * 
+     * @param requestCallbackId the request callback id
+     * @param outcome the outcome
+     * @return the waiting request or null if there is none
+     */
+    public WaitingRequest<T, S> takeWaitingRequest(int requestCallbackId, Outcome outcome)
+    {
+        WaitingRequest<T, S> request = takeWaitingRequest(requestCallbackId);
+        if (request != null)
+        {
+            int bucket = CallbackManagerMetrics.getBucket(SystemClock.elapsedRealtime() - request.mPutTimeMillis);
+            mLatencyBucketCounts.incrementAndGet(outcome.ordinal() * CallbackManagerMetrics.BUCKET_COUNT + bucket);
+        }
+        return request;
+    }
+
+    /**
+     * Takes the stored state of a request that was put by a previous process, whose callback is lost. Waits for the
+     * store to read its journal and write the queued changes, so call it off the UI thread.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the state, or null if no store is set or it has no state for the id
+     */
+    public S takeRestoredState(int requestCallbackId)
+    {
+        PendingRequestStore<S> pendingRequestStore = mPendingRequestStore;
+        return pendingRequestStore != null ? pendingRequestStore.take(requestCallbackId) : null;
+    }
+
+    /**
+     * Gets the waiting request from the current table of its shard.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the waiting request or null if there is none
+     */
+    private WaitingRequest<T, S> get(int requestCallbackId)
+    {
+        return cast(mShards.get(getShard(requestCallbackId)).get(requestCallbackId));
+    }
+
+    /**
+     * Gets the shard of a request. Uses other bits than the slot index within a table, so the requests of a shard
+     * still spread over its whole table.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the shard index
+     */
+    private int getShard(int requestCallbackId)
+    {
+        return ((requestCallbackId * 0x85EBCA6B) >>> 16) & mShardMask;
+    }
+
+    /**
+     * Removes a request if it is still the one in its shard.
+     * 
+     * @param request the request
+     * @return true, if the request was removed by this call
+     */
+    private boolean remove(WaitingRequest<?, ?> request)
+    {
+        int shard = getShard(request.mRequestCallbackId);
+        while (true)
+        {
+            Table table = mShards.get(shard);
+            if (table.get(request.mRequestCallbackId) != request)
+            {
+                return false;
+            }
+            if (mShards.compareAndSet(shard, table, table.without(request.mRequestCallbackId)))
+            {
+                removeStoredState(request.mRequestCallbackId);
+                return true;
+            }
+            mCasRetryCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the stored state of a request that is no longer pending.
+     * 
+     * @param requestCallbackId the request callback id
+     */
+    private void removeStoredState(int requestCallbackId)
+    {
+        PendingRequestStore<S> pendingRequestStore = mPendingRequestStore;
+        if (pendingRequestStore != null)
         {
-            sCallbackMap.remove(requestId);
+            pendingRequestStore.remove(requestCallbackId);
         }
-        finally
+    }
+
+    /**
+     * Checks the next few slots, going round all shards, and removes expired requests and requests with a collected
+     * callback.
+     * 
+     * @param nowMillis the current SystemClock.elapsedRealtime()
+     */
+    private void sweep(long nowMillis)
+    {
+        for (int i = 0; i < SWEEP_SLOTS_PER_PUT; i++)
         {
-            mWriteLock.unlock();
-            Logger.me(TAG, "removeWaitingRequest");
+            int position = mSweepPosition.getAndIncrement();
+            WaitingRequest<?, ?>[] slots = mShards.get(position & mShardMask).mSlots;
+            WaitingRequest<?, ?> request = slots[(position >>> mShardBits) & (slots.length - 1)];
+            if (request == null)
+            {
+                continue;
+            }
+            if (request.isLeaked())
+            {
+                if (remove(request))
+                {
+                    mLeakedRequestCount.incrementAndGet();
+                    Logger.info(TAG, "Removed request %d, its callback was collected", request.mRequestCallbackId);
+                }
+            }
+            else if (request.isExpired(nowMillis) && remove(request))
+            {
+                mExpiredRequestCount.incrementAndGet();
+                Logger.info(TAG, "Removed request %d, it expired", request.mRequestCallbackId);
+            }
         }
     }
+
+    /**
+     * Restores the type parameters of a request; the table only holds requests put through this manager.
+     * 
+     * @param request the request
+     * @return the request
+     */
+    @SuppressWarnings("unchecked")
+    private WaitingRequest<T, S> cast(WaitingRequest<?, ?> request)
+    {
+        return (WaitingRequest<T, S>)request;
+    }
 }
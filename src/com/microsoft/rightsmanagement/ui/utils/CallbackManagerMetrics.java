@@ -0,0 +1,238 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.Locale;
+
+import com.microsoft.rightsmanagement.ui.utils.CallbackManager.Outcome;
+
+/**
+ * Immutable snapshot of the metrics of a CallbackManager, taken without locking. Counters are read one after another
+ * while requests keep arriving, so the values of a snapshot are consistent with each other only approximately.
+ * <p>
+ * Latencies run from the put of a request to its result, which is mostly the time the user spends on the screen.
+ * They are kept per outcome in exponential buckets: bucket 0 counts results within 1 ms, bucket i results within
+ * (2^(i-1), 2^i] ms, and the last bucket everything slower.
+ * </p>
+ */
+public final class CallbackManagerMetrics
+{
+    /**
+     * The number of latency buckets of each outcome.
+     */
+    public static final int BUCKET_COUNT = 25;
+    private final long[] mBucketCounts;
+    private final long mCasRetryCount;
+    private final long mExpiredRequestCount;
+    private final long mLeakedRequestCount;
+    private final String mName;
+    private final int mPendingCount;
+
+    /**
+     * Instantiates a new snapshot.
+     * 
+     * @param name the name of the callback manager
+     * @param pendingCount the number of pending requests
+     * @param casRetryCount the number of failed compare-and-set attempts
+     * @param expiredRequestCount the number of expired requests
+     * @param leakedRequestCount the number of leaked requests
+     * @param bucketCounts the latency bucket counts, BUCKET_COUNT per outcome in outcome order
+     */
+    CallbackManagerMetrics(String name,
+                           int pendingCount,
+                           long casRetryCount,
+                           long expiredRequestCount,
+                           long leakedRequestCount,
+                           long[] bucketCounts)
+    {
+        mName = name;
+        mPendingCount = pendingCount;
+        mCasRetryCount = casRetryCount;
+        mExpiredRequestCount = expiredRequestCount;
+        mLeakedRequestCount = leakedRequestCount;
+        mBucketCounts = bucketCounts;
+    }
+
+    /**
+     * Gets the inclusive upper bound of a latency bucket.
+     * 
+     * @param bucket the bucket
+     * @return the upper bound in milliseconds, Long.MAX_VALUE for the last bucket
+     */
+    public static long getBucketUpperBoundMillis(int bucket)
+    {
+        if (bucket < 0 || bucket >= BUCKET_COUNT)
+        {
+            throw new IllegalArgumentException("invalid parameter bucket");
+        }
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Gets the bucket of a latency.
+     * 
+     * @param latencyMillis the latency in milliseconds
+     * @return the bucket
+     */
+    static int getBucket(long latencyMillis)
+    {
+        if (latencyMillis <= 1)
+        {
+            return 0;
+        }
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(latencyMillis - 1));
+    }
+
+    /**
+     * Gets the latency bucket counts of an outcome.
+     * 
+     * @param outcome the outcome
+     * @return a copy of the BUCKET_COUNT counts
+     */
+    public long[] getBucketCounts(Outcome outcome)
+    {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        System.arraycopy(mBucketCounts, outcome.ordinal() * BUCKET_COUNT, bucketCounts, 0, BUCKET_COUNT);
+        return bucketCounts;
+    }
+
+    /**
+     * Gets the number of compare-and-set attempts that failed because another thread changed the same shard. A
+     * growing count means the manager needs more shards.
+     * 
+     * @return the CAS retry count
+     */
+    public long getCasRetryCount()
+    {
+        return mCasRetryCount;
+    }
+
+    /**
+     * Gets the number of results with an outcome.
+     * 
+     * @param outcome the outcome
+     * @return the count
+     */
+    public long getCount(Outcome outcome)
+    {
+        long count = 0;
+        for (int i = outcome.ordinal() * BUCKET_COUNT, end = i + BUCKET_COUNT; i < end; i++)
+        {
+            count += mBucketCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of requests swept because they outlived their time to live.
+     * 
+     * @return the expired request count
+     */
+    public long getExpiredRequestCount()
+    {
+        return mExpiredRequestCount;
+    }
+
+    /**
+     * Gets the number of requests swept because their weak callback was collected.
+     * 
+     * @return the leaked request count
+     */
+    public long getLeakedRequestCount()
+    {
+        return mLeakedRequestCount;
+    }
+
+    /**
+     * Gets the name of the callback manager, the activity type it serves.
+     * 
+     * @return the name
+     */
+    public String getName()
+    {
+        return mName;
+    }
+
+    /**
+     * Gets the number of orphaned requests, those swept without a result.
+     * 
+     * @return the orphan count
+     */
+    public long getOrphanCount()
+    {
+        return mExpiredRequestCount + mLeakedRequestCount;
+    }
+
+    /**
+     * Gets the number of requests waiting for a result.
+     * 
+     * @return the pending count
+     */
+    public int getPendingCount()
+    {
+        return mPendingCount;
+    }
+
+    /**
+     * Estimates a latency percentile of an outcome as the upper bound of the bucket that contains it.
+     * 
+     * @param outcome the outcome
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds, or 0 if there are no results with the outcome
+     */
+    public long getPercentileMillis(Outcome outcome, double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("invalid parameter percentile");
+        }
+        long count = getCount(outcome);
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(count * percentile / 100));
+        int offset = outcome.ordinal() * BUCKET_COUNT;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+        {
+            rank -= mBucketCounts[offset + bucket];
+            if (rank <= 0)
+            {
+                return getBucketUpperBoundMillis(bucket);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "%s pending=%d orphans=%d casRetries=%d", mName, mPendingCount,
+                getOrphanCount(), mCasRetryCount));
+        for (Outcome outcome : Outcome.values())
+        {
+            text.append(String.format(Locale.US, " %s(count=%d p50=%dms p99=%dms)", outcome, getCount(outcome),
+                    getPercentileMillis(outcome, 50), getPercentileMillis(outcome, 99)));
+        }
+        return text.toString();
+    }
+}
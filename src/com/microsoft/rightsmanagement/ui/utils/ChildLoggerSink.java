@@ -0,0 +1,93 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+
+/**
+ * Adapts the external logger set with Logger.setExternalLogger to a sink, so it runs on its own worker like any other
+ * sink.
+ */
+final class ChildLoggerSink implements LogSink
+{
+    private final Logger mChildLogger;
+
+    /**
+     * Instantiates a new child logger sink.
+     * 
+     * @param childLogger the child logger
+     */
+    ChildLoggerSink(Logger childLogger)
+    {
+        mChildLogger = childLogger;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#close()
+     */
+    @Override
+    public void close()
+    {
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#flush()
+     */
+    @Override
+    public void flush()
+    {
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#write(com.microsoft.rightsmanagement.ui.utils.LogEvent)
+     */
+    @Override
+    public void write(LogEvent event)
+    {
+        String tag = event.getTag();
+        String message = event.getRenderedMessage();
+        String additionalMessage = event.getAdditionalMessage();
+        ProtectionException protectionException = event.getProtectionException();
+        if (event.isSpan())
+        {
+            message = Logger.END_OF_METHOD_PREFIX + message;
+            additionalMessage = String.format(Logger.SPAN_DURATION_FORMAT, event.getDurationNanos()
+                    / Logger.NANOS_PER_MICRO);
+        }
+        switch (event.getLevel())
+        {
+            case Error:
+                mChildLogger.error(tag, message, additionalMessage, protectionException);
+                break;
+            case Warn:
+                mChildLogger.warn(tag, message, additionalMessage, protectionException);
+                break;
+            case Info:
+                mChildLogger.inform(tag, message, additionalMessage, protectionException);
+                break;
+            case Verbose:
+                mChildLogger.verbose(tag, message, additionalMessage, protectionException);
+                break;
+            default:
+                mChildLogger.debug(tag, message);
+                break;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
+import com.microsoft.rightsmanagement.ui.utils.Logger.MessageSupplier;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Keeps the last events of every level in a fixed ring of preallocated records, whether or not they pass the level
+ * check, and writes them to a file on demand.
+ * <p>
+ * Recording claims a position with one atomic increment and stores a few references; messages are not formatted until
+ * the ring is dumped. Each slot carries the position it holds, so a dump skips slots that are overwritten while it
+ * copies them. The dump is a diagnostic aid and favors cheap recording over a perfectly consistent snapshot.
+ * </p>
+ */
+final class FlightRecorder
+{
+    private static final long EMPTY_SLOT = -1;
+    private static final String TAG = "FlightRecorder";
+    private static final String THREAD_NAME = "RmsUiFlightRecorderDump";
+    private final File mDumpFile;
+    private final AtomicBoolean mIsDumpPending = new AtomicBoolean();
+    private final int mMask;
+    private final AtomicLong mNextPosition = new AtomicLong();
+    private final AtomicLongArray mPositions;
+    private final LogEvent[] mSlots;
+
+    /**
+     * Instantiates a new flight recorder.
+     * 
+     * @param requestedCapacity the number of events to keep, rounded up to the next power of two
+     * @param dumpFile the file the ring is written to
+     */
+    FlightRecorder(int requestedCapacity, File dumpFile)
+    {
+        if (requestedCapacity <= 0)
+        {
+            throw new IllegalArgumentException("invalid parameter requestedCapacity");
+        }
+        if (dumpFile == null)
+        {
+            throw new IllegalArgumentException("invalid parameter dumpFile");
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity);
+        if (capacity < requestedCapacity)
+        {
+            capacity <<= 1;
+        }
+        mMask = capacity - 1;
+        mDumpFile = dumpFile;
+        mSlots = new LogEvent[capacity];
+        mPositions = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            mSlots[i] = new LogEvent();
+            mPositions.set(i, EMPTY_SLOT);
+        }
+    }
+
+    /**
+     * Writes the recorded events to the dump file, oldest first, replacing its content.
+     * 
+     * @return the number of events written
+     * @throws IOException Signals that the file could not be written.
+     */
+    int dump() throws IOException
+    {
+        return write(snapshot());
+    }
+
+    /**
+     * Copies the recorded events and writes them to the dump file on a background thread. Does nothing if a dump
+     * started this way has not finished yet, so a burst of errors produces one dump.
+     */
+    void dumpInBackground()
+    {
+        if (!mIsDumpPending.compareAndSet(false, true))
+        {
+            return;
+        }
+        final ArrayList<LogEvent> events = snapshot();
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try
+                {
+                    write(events);
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Could not write the flight recorder dump. " + e.getMessage());
+                }
+                finally
+                {
+                    mIsDumpPending.set(false);
+                }
+            }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Records an event.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param message the message, or the format if arguments are set
+     * @param additionalMessage the additional message
+     * @param protectionException the protection exception
+     * @param arguments the format arguments, may be null
+     * @param messageSupplier the message supplier, may be null
+     */
+    void record(LogLevel level,
+                String tag,
+                String message,
+                String additionalMessage,
+                ProtectionException protectionException,
+                Object[] arguments,
+                MessageSupplier messageSupplier)
+    {
+        long position = mNextPosition.getAndIncrement();
+        int index = (int)(position & mMask);
+        // invalidate first so a concurrent dump does not pick up a half written slot
+        mPositions.set(index, EMPTY_SLOT);
+        LogEvent slot = mSlots[index];
+        slot.set(level, tag, message, additionalMessage, protectionException);
+        slot.setArguments(arguments);
+        slot.setMessageSupplier(messageSupplier);
+        mPositions.lazySet(index, position);
+    }
+
+    /**
+     * Records a copy of an event, including its structured fields.
+     *
+     * @param event the event
+     */
+    void record(LogEvent event)
+    {
+        long position = mNextPosition.getAndIncrement();
+        int index = (int)(position & mMask);
+        mPositions.set(index, EMPTY_SLOT);
+        mSlots[index].copyFrom(event);
+        mPositions.lazySet(index, position);
+    }
+
+    /**
+     * Copies the recorded events, oldest first.
+     * 
+     * @return the copies
+     */
+    private ArrayList<LogEvent> snapshot()
+    {
+        long endPosition = mNextPosition.get();
+        long startPosition = Math.max(0, endPosition - mSlots.length);
+        ArrayList<LogEvent> events = new ArrayList<LogEvent>((int)(endPosition - startPosition));
+        for (long position = startPosition; position < endPosition; position++)
+        {
+            int index = (int)(position & mMask);
+            if (mPositions.get(index) != position)
+            {
+                continue;
+            }
+            LogEvent event = new LogEvent();
+            event.copyFrom(mSlots[index]);
+            if (mPositions.get(index) == position)
+            {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Renders events as text and writes them to the dump file in one batch.
+     * 
+     * @param events the events
+     * @return the number of events written
+     * @throws IOException Signals that the file could not be written.
+     */
+    private int write(ArrayList<LogEvent> events) throws IOException
+    {
+        SimpleDateFormat timestampFormat = new SimpleDateFormat(MappedFileLogDecoder.TIMESTAMP_FORMAT, Locale.US);
+        StringBuilder text = new StringBuilder(events.size() * 80);
+        for (LogEvent event : events)
+        {
+            ProtectionException protectionException = event.getProtectionException();
+            String exceptionType = (protectionException != null && protectionException.getType() != null)
+                    ? protectionException.getType().name() : null;
+            String additionalMessage = event.getAdditionalMessage();
+            MappedFileLogDecoder.appendLine(text, timestampFormat, event.getTimestamp(), event.getLevel().ordinal(),
+                    event.getTag(), exceptionType, event.getRenderedMessage(), Helpers.IsNullOrEmpty(additionalMessage) ? null
+                            : additionalMessage);
+        }
+        FileOutputStream stream = new FileOutputStream(mDumpFile);
+        try
+        {
+            stream.write(text.toString().getBytes("UTF-8"));
+            stream.getFD().sync();
+        }
+        finally
+        {
+            stream.close();
+        }
+        return events.size();
+    }
+}
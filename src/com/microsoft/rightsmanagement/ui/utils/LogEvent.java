@@ -0,0 +1,452 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
+import com.microsoft.rightsmanagement.ui.utils.Logger.MessageSupplier;
+
+/**
+ * Compact, reusable record of a single log call. Instances are owned by whoever allocated them (a ring buffer slot or
+ * a per thread scratch record) and are overwritten in place, so consumers must copy anything they keep.
+ * <p>
+ * Parameterized and supplier based messages are stored unrendered and only turned into a string the first time
+ * getMessage() is called, which is on the writing thread.
+ * </p>
+ * <p>
+ * Structured events built with Logger.event carry up to MAX_FIELD_COUNT typed fields in preallocated arrays, so sinks
+ * can read them without any string being built.
+ * </p>
+ */
+public final class LogEvent
+{
+    /**
+     * Type of a structured field.
+     */
+    public enum FieldType
+    {
+        /* int value, read with getFieldLong */
+        Int,
+        /* long value, read with getFieldLong */
+        Long,
+        /* enum constant, read with getFieldObject */
+        Enum,
+        /* short string, read with getFieldObject */
+        Text
+    }
+
+    /**
+     * Maximum number of fields of a structured event. Further fields are ignored.
+     */
+    public static final int MAX_FIELD_COUNT = 8;
+    /**
+     * Duration value of events that are not method spans.
+     */
+    public static final long NO_DURATION = -1;
+    private String mAdditionalMessage;
+    private Object[] mArguments;
+    private long mDurationNanos = NO_DURATION;
+    private int mFieldCount;
+    private long[] mFieldLongValues;
+    private String[] mFieldNames;
+    private Object[] mFieldObjectValues;
+    private FieldType[] mFieldTypes;
+    private boolean mIsInUse;
+    private LogLevel mLevel;
+    private String mMessage;
+    private MessageSupplier mMessageSupplier;
+    private ProtectionException mProtectionException;
+    private String mTag;
+    private long mTimestamp;
+
+    /**
+     * Instantiates a new empty log event.
+     */
+    LogEvent()
+    {
+    }
+
+    /**
+     * Gets the additional message.
+     * 
+     * @return the additional message, may be null
+     */
+    public String getAdditionalMessage()
+    {
+        return mAdditionalMessage;
+    }
+
+    /**
+     * Gets the duration of a method span.
+     * 
+     * @return the duration in nanoseconds, or NO_DURATION if the event is not a span
+     */
+    public long getDurationNanos()
+    {
+        return mDurationNanos;
+    }
+
+    /**
+     * Gets the number of structured fields.
+     * 
+     * @return the field count, 0 for plain events
+     */
+    public int getFieldCount()
+    {
+        return mFieldCount;
+    }
+
+    /**
+     * Gets the value of an Int or Long field.
+     * 
+     * @param index the field index
+     * @return the value
+     */
+    public long getFieldLong(int index)
+    {
+        checkFieldIndex(index);
+        return mFieldLongValues[index];
+    }
+
+    /**
+     * Gets the name of a field.
+     * 
+     * @param index the field index
+     * @return the name
+     */
+    public String getFieldName(int index)
+    {
+        checkFieldIndex(index);
+        return mFieldNames[index];
+    }
+
+    /**
+     * Gets the value of an Enum or Text field.
+     * 
+     * @param index the field index
+     * @return the value, may be null
+     */
+    public Object getFieldObject(int index)
+    {
+        checkFieldIndex(index);
+        return mFieldObjectValues[index];
+    }
+
+    /**
+     * Gets the type of a field.
+     * 
+     * @param index the field index
+     * @return the type
+     */
+    public FieldType getFieldType(int index)
+    {
+        checkFieldIndex(index);
+        return mFieldTypes[index];
+    }
+
+    /**
+     * Gets the level.
+     * 
+     * @return the level
+     */
+    public LogLevel getLevel()
+    {
+        return mLevel;
+    }
+
+    /**
+     * Gets the message, rendering a deferred format or supplier on first use.
+     * 
+     * @return the message
+     */
+    public String getMessage()
+    {
+        if (mMessageSupplier != null)
+        {
+            MessageSupplier messageSupplier = mMessageSupplier;
+            mMessageSupplier = null;
+            try
+            {
+                mMessage = messageSupplier.getMessage();
+            }
+            catch (RuntimeException e)
+            {
+                mMessage = String.format("%s failed: %s", messageSupplier.getClass().getName(), e.getMessage());
+            }
+        }
+        else if (mArguments != null)
+        {
+            Object[] arguments = mArguments;
+            mArguments = null;
+            try
+            {
+                mMessage = String.format(mMessage, arguments);
+            }
+            catch (RuntimeException e)
+            {
+                // keep the raw format rather than losing the event
+                mMessage = String.format("%s (format failed: %s)", mMessage, e.getMessage());
+            }
+        }
+        return mMessage;
+    }
+
+    /**
+     * Gets the message followed by the structured fields as " name=value" pairs. Builds a new string; meant for text
+     * outputs such as logcat.
+     * 
+     * @return the rendered message
+     */
+    public String getRenderedMessage()
+    {
+        String message = getMessage();
+        if (mFieldCount == 0)
+        {
+            return message;
+        }
+        StringBuilder renderedMessage = new StringBuilder(message);
+        for (int i = 0; i < mFieldCount; i++)
+        {
+            renderedMessage.append(' ').append(mFieldNames[i]).append('=');
+            if (mFieldTypes[i] == FieldType.Int || mFieldTypes[i] == FieldType.Long)
+            {
+                renderedMessage.append(mFieldLongValues[i]);
+            }
+            else
+            {
+                renderedMessage.append(mFieldObjectValues[i]);
+            }
+        }
+        return renderedMessage.toString();
+    }
+
+    /**
+     * Gets the protection exception.
+     * 
+     * @return the protection exception, may be null
+     */
+    public ProtectionException getProtectionException()
+    {
+        return mProtectionException;
+    }
+
+    /**
+     * Gets the tag.
+     * 
+     * @return the tag
+     */
+    public String getTag()
+    {
+        return mTag;
+    }
+
+    /**
+     * Gets the wall clock time at which the event was logged.
+     * 
+     * @return the timestamp in milliseconds
+     */
+    public long getTimestamp()
+    {
+        return mTimestamp;
+    }
+
+    /**
+     * Checks if the event is a method span recorded by Logger.ms/Logger.me. The message of a span is the method name.
+     * 
+     * @return true, if is span
+     */
+    public boolean isSpan()
+    {
+        return mDurationNanos != NO_DURATION;
+    }
+
+    /**
+     * Drops all references held by this record so that the slot does not pin messages or exceptions.
+     */
+    void clear()
+    {
+        mLevel = null;
+        mTag = null;
+        mMessage = null;
+        mArguments = null;
+        mMessageSupplier = null;
+        mAdditionalMessage = null;
+        mProtectionException = null;
+        mDurationNanos = NO_DURATION;
+        mTimestamp = 0;
+        mIsInUse = false;
+        clearFields();
+    }
+
+    /**
+     * Copies the content of another record into this one.
+     * 
+     * @param other the source record
+     */
+    void copyFrom(LogEvent other)
+    {
+        mLevel = other.mLevel;
+        mTag = other.mTag;
+        mMessage = other.mMessage;
+        mArguments = other.mArguments;
+        mMessageSupplier = other.mMessageSupplier;
+        mAdditionalMessage = other.mAdditionalMessage;
+        mProtectionException = other.mProtectionException;
+        mDurationNanos = other.mDurationNanos;
+        mTimestamp = other.mTimestamp;
+        clearFields();
+        if (other.mFieldCount > 0)
+        {
+            ensureFieldArrays();
+            System.arraycopy(other.mFieldNames, 0, mFieldNames, 0, other.mFieldCount);
+            System.arraycopy(other.mFieldTypes, 0, mFieldTypes, 0, other.mFieldCount);
+            System.arraycopy(other.mFieldLongValues, 0, mFieldLongValues, 0, other.mFieldCount);
+            System.arraycopy(other.mFieldObjectValues, 0, mFieldObjectValues, 0, other.mFieldCount);
+            mFieldCount = other.mFieldCount;
+        }
+    }
+
+    /**
+     * Adds a structured field. The field arrays are allocated on first use and then reused.
+     * 
+     * @param name the name
+     * @param type the type
+     * @param longValue the value of Int and Long fields
+     * @param objectValue the value of Enum and Text fields
+     */
+    void addField(String name, FieldType type, long longValue, Object objectValue)
+    {
+        if (mFieldCount == MAX_FIELD_COUNT)
+        {
+            return;
+        }
+        ensureFieldArrays();
+        mFieldNames[mFieldCount] = name;
+        mFieldTypes[mFieldCount] = type;
+        mFieldLongValues[mFieldCount] = longValue;
+        mFieldObjectValues[mFieldCount] = objectValue;
+        mFieldCount++;
+    }
+
+    /**
+     * Checks if the record is filled and not yet cleared.
+     * 
+     * @return true, if is in use
+     */
+    boolean isInUse()
+    {
+        return mIsInUse;
+    }
+
+    /**
+     * Fills the record with a plain message stamped with the current time.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param message the message, or the format if arguments are set
+     * @param additionalMessage the additional message
+     * @param protectionException the protection exception
+     */
+    void set(LogLevel level,
+             String tag,
+             String message,
+             String additionalMessage,
+             ProtectionException protectionException)
+    {
+        mLevel = level;
+        mTag = tag;
+        mMessage = message;
+        mArguments = null;
+        mMessageSupplier = null;
+        mAdditionalMessage = additionalMessage;
+        mProtectionException = protectionException;
+        mDurationNanos = NO_DURATION;
+        mTimestamp = System.currentTimeMillis();
+        mIsInUse = true;
+        clearFields();
+    }
+
+    /**
+     * Sets the format arguments. The message is then used as the format.
+     * 
+     * @param arguments the arguments
+     */
+    void setArguments(Object[] arguments)
+    {
+        mArguments = arguments;
+    }
+
+    /**
+     * Sets the span duration.
+     * 
+     * @param durationNanos the span duration or NO_DURATION
+     */
+    void setDurationNanos(long durationNanos)
+    {
+        mDurationNanos = durationNanos;
+    }
+
+    /**
+     * Sets the supplier that builds the message.
+     * 
+     * @param messageSupplier the message supplier
+     */
+    void setMessageSupplier(MessageSupplier messageSupplier)
+    {
+        mMessageSupplier = messageSupplier;
+    }
+
+    /**
+     * Validates a field index.
+     * 
+     * @param index the field index
+     */
+    private void checkFieldIndex(int index)
+    {
+        if (index < 0 || index >= mFieldCount)
+        {
+            throw new IllegalArgumentException("invalid parameter index");
+        }
+    }
+
+    /**
+     * Drops the fields and the references they hold.
+     */
+    private void clearFields()
+    {
+        for (int i = 0; i < mFieldCount; i++)
+        {
+            mFieldNames[i] = null;
+            mFieldObjectValues[i] = null;
+        }
+        mFieldCount = 0;
+    }
+
+    /**
+     * Allocates the field arrays if needed.
+     */
+    private void ensureFieldArrays()
+    {
+        if (mFieldNames == null)
+        {
+            mFieldNames = new String[MAX_FIELD_COUNT];
+            mFieldTypes = new FieldType[MAX_FIELD_COUNT];
+            mFieldLongValues = new long[MAX_FIELD_COUNT];
+            mFieldObjectValues = new Object[MAX_FIELD_COUNT];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import com.microsoft.rightsmanagement.ui.utils.LogEvent.FieldType;
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
+
+/**
+ * Fills a structured event with typed fields. Returned by Logger.event; every thread reuses the same builder, so a
+ * builder must be used on the thread that got it and must not be kept after log() is called.
+ * <p>
+ * Usage: Logger.event(LogLevel.Debug, TAG, "getView").put("position", position).log();
+ * </p>
+ * When the event is filtered out by the level check a shared disabled builder is returned and all calls are no-ops.
+ */
+public final class LogEventBuilder
+{
+    static final LogEventBuilder DISABLED = new LogEventBuilder(null);
+    private final LogEvent mEvent = new LogEvent();
+    private boolean mIsLoggable;
+    private final Logger mLogger;
+    private int mNestedEventCount;
+
+    /**
+     * Instantiates a new builder.
+     * 
+     * @param logger the logger that receives the events, null for the disabled builder
+     */
+    LogEventBuilder(Logger logger)
+    {
+        mLogger = logger;
+    }
+
+    /**
+     * Hands the event to the logger. The builder can be reused afterwards.
+     */
+    public void log()
+    {
+        if (mLogger != null && mEvent.isInUse())
+        {
+            mLogger.logStructuredEvent(mEvent, mIsLoggable);
+        }
+    }
+
+    /**
+     * Adds an enum field. Only the reference is stored.
+     * 
+     * @param name the name
+     * @param value the value
+     * @return this builder
+     */
+    public LogEventBuilder put(String name, Enum<?> value)
+    {
+        if (mLogger != null)
+        {
+            mEvent.addField(name, FieldType.Enum, 0, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds an int field.
+     * 
+     * @param name the name
+     * @param value the value
+     * @return this builder
+     */
+    public LogEventBuilder put(String name, int value)
+    {
+        if (mLogger != null)
+        {
+            mEvent.addField(name, FieldType.Int, value, null);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a long field.
+     * 
+     * @param name the name
+     * @param value the value
+     * @return this builder
+     */
+    public LogEventBuilder put(String name, long value)
+    {
+        if (mLogger != null)
+        {
+            mEvent.addField(name, FieldType.Long, value, null);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a short string field.
+     * 
+     * @param name the name
+     * @param value the value
+     * @return this builder
+     */
+    public LogEventBuilder put(String name, String value)
+    {
+        if (mLogger != null)
+        {
+            mEvent.addField(name, FieldType.Text, 0, value);
+        }
+        return this;
+    }
+
+    /**
+     * Starts a new event.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param name the event name, used as the message
+     * @param isLoggable true, if the event passed the level check; false, if it is only recorded
+     */
+    void begin(LogLevel level, String tag, String name, boolean isLoggable)
+    {
+        mEvent.set(level, tag, name, "", null);
+        mIsLoggable = isLoggable;
+        mNestedEventCount = 0;
+    }
+
+    /**
+     * Counts an event started on this thread while this builder was in use.
+     * 
+     * @return the number of such events since this builder's event was started
+     */
+    int countNestedEvent()
+    {
+        return ++mNestedEventCount;
+    }
+
+    /**
+     * Checks if an event was started and not logged yet.
+     * 
+     * @return true, if is in use
+     */
+    boolean isInUse()
+    {
+        return mEvent.isInUse();
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
+
+/**
+ * Immutable snapshot of per tag log level thresholds, indexed by tag id.
+ * <p>
+ * Every tag is mapped once to a small integer id that stays the same for the life of the process. A table is never
+ * modified after construction; Logger swaps in a new copy when a threshold changes, so readers only do an array
+ * lookup and never lock.
+ * </p>
+ */
+final class LogLevelTable
+{
+    static final int NO_TAG_ID = -1;
+    static final LogLevelTable EMPTY = new LogLevelTable(new LogLevel[0], 0);
+    private static final AtomicInteger sNextTagId = new AtomicInteger();
+    private static final ConcurrentHashMap<String, Integer> sTagIds = new ConcurrentHashMap<String, Integer>();
+    private final int mCount;
+    private final LogLevel[] mLevels;
+
+    /**
+     * Instantiates a new table.
+     * 
+     * @param levels the thresholds indexed by tag id, null for tags without a threshold
+     * @param count the number of tags with a threshold
+     */
+    private LogLevelTable(LogLevel[] levels, int count)
+    {
+        mLevels = levels;
+        mCount = count;
+    }
+
+    /**
+     * Gets the id of a tag, assigning a new one the first time the tag is seen.
+     * 
+     * @param tag the tag
+     * @return the tag id
+     */
+    static int getTagId(String tag)
+    {
+        if (tag == null)
+        {
+            throw new IllegalArgumentException("invalid parameter tag");
+        }
+        Integer tagId = sTagIds.get(tag);
+        if (tagId == null)
+        {
+            Integer newTagId = sNextTagId.getAndIncrement();
+            tagId = sTagIds.putIfAbsent(tag, newTagId);
+            if (tagId == null)
+            {
+                tagId = newTagId;
+            }
+        }
+        return tagId;
+    }
+
+    /**
+     * Parses a configuration of the form "TagA=Warn, TagB=Verbose". Level names are case insensitive.
+     * 
+     * @param configuration the configuration, may be empty
+     * @return the table
+     */
+    static LogLevelTable parse(String configuration)
+    {
+        LogLevelTable table = EMPTY;
+        if (Helpers.IsNullOrEmpty(configuration))
+        {
+            return table;
+        }
+        for (String entry : configuration.split("[,;]"))
+        {
+            if (entry.trim().length() == 0)
+            {
+                continue;
+            }
+            int separatorIndex = entry.indexOf('=');
+            if (separatorIndex <= 0)
+            {
+                throw new IllegalArgumentException("invalid parameter configuration");
+            }
+            String tag = entry.substring(0, separatorIndex).trim();
+            String levelName = entry.substring(separatorIndex + 1).trim();
+            LogLevel level = null;
+            for (LogLevel candidate : LogLevel.values())
+            {
+                if (candidate.name().equalsIgnoreCase(levelName))
+                {
+                    level = candidate;
+                    break;
+                }
+            }
+            if (tag.length() == 0 || level == null)
+            {
+                throw new IllegalArgumentException("invalid parameter configuration");
+            }
+            table = table.with(getTagId(tag), level);
+        }
+        return table;
+    }
+
+    /**
+     * Gets the id of a tag without assigning one.
+     * 
+     * @param tag the tag
+     * @return the tag id or NO_TAG_ID if the tag was never assigned an id
+     */
+    static int peekTagId(String tag)
+    {
+        if (tag == null)
+        {
+            return NO_TAG_ID;
+        }
+        Integer tagId = sTagIds.get(tag);
+        return tagId == null ? NO_TAG_ID : tagId;
+    }
+
+    /**
+     * Gets the threshold of a tag.
+     * 
+     * @param tagId the tag id
+     * @return the threshold or null if the tag has none
+     */
+    LogLevel get(int tagId)
+    {
+        return (tagId >= 0 && tagId < mLevels.length) ? mLevels[tagId] : null;
+    }
+
+    /**
+     * Checks if the table has no thresholds, in which case callers can skip the tag lookup.
+     * 
+     * @return true, if is empty
+     */
+    boolean isEmpty()
+    {
+        return mCount == 0;
+    }
+
+    /**
+     * Creates a copy of this table with the threshold of one tag replaced.
+     * 
+     * @param tagId the tag id
+     * @param level the new threshold or null to remove it
+     * @return the new table
+     */
+    LogLevelTable with(int tagId, LogLevel level)
+    {
+        LogLevel[] levels = new LogLevel[Math.max(mLevels.length, tagId + 1)];
+        System.arraycopy(mLevels, 0, levels, 0, mLevels.length);
+        int count = mCount;
+        if (levels[tagId] != null)
+        {
+            count--;
+        }
+        if (level != null)
+        {
+            count++;
+        }
+        levels[tagId] = level;
+        return new LogLevelTable(levels, count);
+    }
+}
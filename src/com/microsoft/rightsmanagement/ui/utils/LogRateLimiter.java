@@ -0,0 +1,218 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable snapshot of per tag rate limits and sampling rules, indexed by the tag ids of LogLevelTable.
+ * <p>
+ * The snapshot is swapped as a whole when a rule changes; the state of each rule is a few atomic counters, so checking
+ * an event takes no lock. The rate limit is a token bucket expressed as a theoretical arrival time (GCRA), which needs
+ * a single compare-and-set per accepted event.
+ * </p>
+ */
+final class LogRateLimiter
+{
+    /**
+     * Rate limit and sampling rule of one tag, with its counters.
+     */
+    static final class Rule
+    {
+        private final int mBurst;
+        private final long mBurstToleranceNanos;
+        private final long mEmissionIntervalNanos;
+        private final double mEventsPerSecond;
+        private final AtomicLong mLastSummaryNanos;
+        private final AtomicLong mSampleCounter = new AtomicLong();
+        private final int mSampleInterval;
+        private final AtomicLong mSuppressedCount = new AtomicLong();
+        private final AtomicLong mTheoreticalArrivalNanos;
+
+        /**
+         * Instantiates a new rule.
+         * 
+         * @param eventsPerSecond the sustained rate, or 0 for no rate limit
+         * @param burst the number of events accepted back to back
+         * @param sampleInterval keep one event out of this many, 1 to keep all
+         */
+        Rule(double eventsPerSecond, int burst, int sampleInterval)
+        {
+            long now = System.nanoTime();
+            mEventsPerSecond = eventsPerSecond;
+            mBurst = burst;
+            mSampleInterval = sampleInterval;
+            mEmissionIntervalNanos = eventsPerSecond > 0 ? (long)(NANOS_PER_SECOND / eventsPerSecond) : 0;
+            mBurstToleranceNanos = mEmissionIntervalNanos * (burst - 1);
+            mTheoreticalArrivalNanos = new AtomicLong(now);
+            mLastSummaryNanos = new AtomicLong(now);
+        }
+
+        /**
+         * Creates a copy of this rule with another rate limit and fresh counters.
+         * 
+         * @param eventsPerSecond the sustained rate, or 0 for no rate limit
+         * @param burst the number of events accepted back to back
+         * @return the new rule
+         */
+        Rule withRateLimit(double eventsPerSecond, int burst)
+        {
+            return new Rule(eventsPerSecond, burst, mSampleInterval);
+        }
+
+        /**
+         * Creates a copy of this rule with another sample interval and fresh counters.
+         * 
+         * @param sampleInterval keep one event out of this many, 1 to keep all
+         * @return the new rule
+         */
+        Rule withSampleInterval(int sampleInterval)
+        {
+            return new Rule(mEventsPerSecond, mBurst, sampleInterval);
+        }
+
+        /**
+         * Checks if the rule neither limits nor samples.
+         * 
+         * @return true, if is pass through
+         */
+        boolean isPassThrough()
+        {
+            return mEmissionIntervalNanos == 0 && mSampleInterval <= 1;
+        }
+
+        /**
+         * Decides whether an event is kept. Suppressed events are counted for the summary.
+         * 
+         * @param nowNanos the current System.nanoTime()
+         * @return true, if the event is kept
+         */
+        boolean tryAcquire(long nowNanos)
+        {
+            if (mSampleInterval > 1 && mSampleCounter.getAndIncrement() % mSampleInterval != 0)
+            {
+                mSuppressedCount.incrementAndGet();
+                return false;
+            }
+            if (mEmissionIntervalNanos == 0)
+            {
+                return true;
+            }
+            while (true)
+            {
+                long theoreticalArrivalNanos = mTheoreticalArrivalNanos.get();
+                if (nowNanos - (theoreticalArrivalNanos - mBurstToleranceNanos) < 0)
+                {
+                    mSuppressedCount.incrementAndGet();
+                    return false;
+                }
+                long base = (nowNanos - theoreticalArrivalNanos > 0) ? nowNanos : theoreticalArrivalNanos;
+                if (mTheoreticalArrivalNanos.compareAndSet(theoreticalArrivalNanos, base + mEmissionIntervalNanos))
+                {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Takes the number of events suppressed since the last summary, at most once per summary interval.
+         * 
+         * @param nowNanos the current System.nanoTime()
+         * @param summaryIntervalNanos the summary interval
+         * @return the number of suppressed events to report, 0 if no summary is due
+         */
+        long takeSuppressedCount(long nowNanos, long summaryIntervalNanos)
+        {
+            if (mSuppressedCount.get() == 0)
+            {
+                return 0;
+            }
+            long lastSummaryNanos = mLastSummaryNanos.get();
+            if (nowNanos - lastSummaryNanos < summaryIntervalNanos
+                    || !mLastSummaryNanos.compareAndSet(lastSummaryNanos, nowNanos))
+            {
+                return 0;
+            }
+            return mSuppressedCount.getAndSet(0);
+        }
+    }
+    static final LogRateLimiter EMPTY = new LogRateLimiter(new Rule[0], 0);
+    private static final double NANOS_PER_SECOND = 1000 * 1000 * 1000.0;
+    private final int mCount;
+    private final Rule[] mRules;
+
+    /**
+     * Instantiates a new rate limiter.
+     * 
+     * @param rules the rules indexed by tag id, null for tags without a rule
+     * @param count the number of tags with a rule
+     */
+    private LogRateLimiter(Rule[] rules, int count)
+    {
+        mRules = rules;
+        mCount = count;
+    }
+
+    /**
+     * Gets the rule of a tag.
+     * 
+     * @param tagId the tag id
+     * @return the rule or null if the tag has none
+     */
+    Rule get(int tagId)
+    {
+        return (tagId >= 0 && tagId < mRules.length) ? mRules[tagId] : null;
+    }
+
+    /**
+     * Checks if no tag has a rule, in which case callers can skip the tag lookup.
+     * 
+     * @return true, if is empty
+     */
+    boolean isEmpty()
+    {
+        return mCount == 0;
+    }
+
+    /**
+     * Creates a copy of this snapshot with the rule of one tag replaced.
+     * 
+     * @param tagId the tag id
+     * @param rule the new rule or null to remove it
+     * @return the new snapshot
+     */
+    LogRateLimiter with(int tagId, Rule rule)
+    {
+        if (rule != null && rule.isPassThrough())
+        {
+            rule = null;
+        }
+        Rule[] rules = new Rule[Math.max(mRules.length, tagId + 1)];
+        System.arraycopy(mRules, 0, rules, 0, mRules.length);
+        int count = mCount;
+        if (rules[tagId] != null)
+        {
+            count--;
+        }
+        if (rule != null)
+        {
+            count++;
+        }
+        rules[tagId] = rule;
+        return new LogRateLimiter(rules, count);
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer queue of preallocated LogEvent records.
+ * <p>
+ * Every slot carries a sequence number. A producer owns a slot once it wins the CAS on the tail counter and hands it
+ * over to consumers by publishing the next sequence; a consumer does the same on the head counter. No locks are taken
+ * and no objects are allocated after construction.
+ * </p>
+ */
+final class LogRingBuffer
+{
+    private final AtomicLong mHead = new AtomicLong();
+    private final int mMask;
+    private final AtomicLongArray mSequences;
+    private final LogEvent[] mSlots;
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * Instantiates a new ring buffer.
+     * 
+     * @param requestedCapacity the requested capacity, rounded up to the next power of two
+     */
+    LogRingBuffer(int requestedCapacity)
+    {
+        if (requestedCapacity <= 0)
+        {
+            throw new IllegalArgumentException("invalid parameter requestedCapacity");
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity);
+        if (capacity < requestedCapacity)
+        {
+            capacity <<= 1;
+        }
+        mMask = capacity - 1;
+        mSlots = new LogEvent[capacity];
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            mSlots[i] = new LogEvent();
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Removes the oldest event without reading it.
+     * 
+     * @return true, if an event was removed
+     */
+    boolean discardOldest()
+    {
+        long position = claimForRead();
+        if (position < 0)
+        {
+            return false;
+        }
+        release(position);
+        return true;
+    }
+
+    /**
+     * Checks if the buffer is empty.
+     * 
+     * @return true, if empty
+     */
+    boolean isEmpty()
+    {
+        long position = mHead.get();
+        return mSequences.get((int)(position & mMask)) != position + 1;
+    }
+
+    /**
+     * Copies an existing record into the buffer.
+     * 
+     * @param event the event to copy
+     * @return true, if the event was queued; false, if the buffer was full
+     */
+    boolean offer(LogEvent event)
+    {
+        long position = claimForWrite();
+        if (position < 0)
+        {
+            return false;
+        }
+        mSlots[(int)(position & mMask)].copyFrom(event);
+        publish(position);
+        return true;
+    }
+
+    /**
+     * Removes the oldest event and copies it into the destination record.
+     * 
+     * @param destination the destination record
+     * @return true, if an event was copied; false, if the buffer was empty
+     */
+    boolean poll(LogEvent destination)
+    {
+        long position = claimForRead();
+        if (position < 0)
+        {
+            return false;
+        }
+        destination.copyFrom(mSlots[(int)(position & mMask)]);
+        release(position);
+        return true;
+    }
+
+    /**
+     * Claims the next readable position.
+     * 
+     * @return the position or -1 if the buffer is empty
+     */
+    private long claimForRead()
+    {
+        while (true)
+        {
+            long position = mHead.get();
+            long difference = mSequences.get((int)(position & mMask)) - (position + 1);
+            if (difference == 0)
+            {
+                if (mHead.compareAndSet(position, position + 1))
+                {
+                    return position;
+                }
+            }
+            else if (difference < 0)
+            {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Claims the next writable position.
+     * 
+     * @return the position or -1 if the buffer is full
+     */
+    private long claimForWrite()
+    {
+        while (true)
+        {
+            long position = mTail.get();
+            long difference = mSequences.get((int)(position & mMask)) - position;
+            if (difference == 0)
+            {
+                if (mTail.compareAndSet(position, position + 1))
+                {
+                    return position;
+                }
+            }
+            else if (difference < 0)
+            {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Makes a written slot visible to consumers.
+     * 
+     * @param position the position
+     */
+    private void publish(long position)
+    {
+        mSequences.lazySet((int)(position & mMask), position + 1);
+    }
+
+    /**
+     * Returns a consumed slot to producers.
+     * 
+     * @param position the position
+     */
+    private void release(long position)
+    {
+        int index = (int)(position & mMask);
+        mSlots[index].clear();
+        mSequences.lazySet(index, position + mSlots.length);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+/**
+ * The Interface LogSink.
+ * Receives every event that passes the level check of Logger, after logcat.
+ * Events are reused once write returns, so implementations must copy anything they keep.
+ */
+public interface LogSink
+{
+    /**
+     * Closes the sink. No events are written afterwards.
+     */
+    public void close();
+
+    /**
+     * Makes the events written so far durable.
+     */
+    public void flush();
+
+    /**
+     * Writes an event.
+     * 
+     * @param event the event
+     */
+    public void write(LogEvent event);
+}
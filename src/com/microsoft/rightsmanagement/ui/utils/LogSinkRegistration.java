@@ -0,0 +1,212 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.rightsmanagement.ui.utils.Logger.LogLevel;
+import com.microsoft.rightsmanagement.ui.utils.Logger.OverflowPolicy;
+
+import android.util.Log;
+
+/**
+ * A sink registered with Logger, together with its own queue, worker thread, level threshold and counters.
+ * <p>
+ * Logger only copies events into the queue of the registration, dropping them when the queue is full, so a slow or
+ * failing sink never stalls logcat, the other sinks or the logging thread. Exceptions thrown by the sink are counted
+ * and do not stop the worker.
+ * </p>
+ */
+public final class LogSinkRegistration
+{
+    private static final String TAG = "LogSinkRegistration";
+    private static final String THREAD_NAME_PREFIX = "RmsUiLogSink-";
+    private final AsyncLogDrainer mDrainer;
+    private final AtomicLong mDroppedEventCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+    private volatile Exception mLastFailure;
+    private volatile LogLevel mLogLevel;
+    private final LogSink mSink;
+    private final AtomicLong mWrittenEventCount = new AtomicLong();
+
+    /**
+     * Instantiates a new registration. The worker is not started until start() is called.
+     * 
+     * @param sink the sink
+     * @param logLevel the most verbose level the sink receives
+     * @param capacity the queue capacity
+     */
+    LogSinkRegistration(LogSink sink, LogLevel logLevel, int capacity)
+    {
+        mSink = sink;
+        mLogLevel = logLevel;
+        mDrainer = new AsyncLogDrainer(new LogSink()
+        {
+            @Override
+            public void close()
+            {
+                // the sink is owned by the caller of Logger.addSink
+            }
+
+            @Override
+            public void flush()
+            {
+                try
+                {
+                    mSink.flush();
+                }
+                catch (Exception e)
+                {
+                    onFailure(e);
+                }
+            }
+
+            @Override
+            public void write(LogEvent event)
+            {
+                try
+                {
+                    mSink.write(event);
+                    mWrittenEventCount.incrementAndGet();
+                }
+                catch (Exception e)
+                {
+                    onFailure(e);
+                }
+            }
+        }, THREAD_NAME_PREFIX + sink.getClass().getSimpleName(), capacity,
+                OverflowPolicy.DropNewest, mDroppedEventCount);
+    }
+
+    /**
+     * Gets the number of events dropped because the queue of the sink was full.
+     * 
+     * @return the dropped event count
+     */
+    public long getDroppedEventCount()
+    {
+        return mDroppedEventCount.get();
+    }
+
+    /**
+     * Gets the number of events the sink failed to write.
+     * 
+     * @return the failure count
+     */
+    public long getFailureCount()
+    {
+        return mFailureCount.get();
+    }
+
+    /**
+     * Gets the exception thrown by the latest failed write.
+     * 
+     * @return the last failure or null if the sink never failed
+     */
+    public Exception getLastFailure()
+    {
+        return mLastFailure;
+    }
+
+    /**
+     * Gets the most verbose level the sink receives.
+     * 
+     * @return the log level
+     */
+    public LogLevel getLogLevel()
+    {
+        return mLogLevel;
+    }
+
+    /**
+     * Gets the sink.
+     * 
+     * @return the sink
+     */
+    public LogSink getSink()
+    {
+        return mSink;
+    }
+
+    /**
+     * Gets the number of events the sink wrote successfully.
+     * 
+     * @return the written event count
+     */
+    public long getWrittenEventCount()
+    {
+        return mWrittenEventCount.get();
+    }
+
+    /**
+     * Sets the most verbose level the sink receives. Events must also pass the level check of Logger.
+     * 
+     * @param logLevel the new log level
+     */
+    public void setLogLevel(LogLevel logLevel)
+    {
+        if (logLevel == null)
+        {
+            throw new IllegalArgumentException("invalid parameter logLevel");
+        }
+        mLogLevel = logLevel;
+    }
+
+    /**
+     * Queues an event for the sink if it passes the level threshold of the sink. Never blocks.
+     * 
+     * @param event the event, with its message already rendered
+     */
+    void offer(LogEvent event)
+    {
+        LogLevel level = event.getLevel();
+        if (level.ordinal() <= mLogLevel.ordinal() && !mDrainer.offer(event))
+        {
+            mDroppedEventCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts the worker.
+     */
+    void start()
+    {
+        mDrainer.start();
+    }
+
+    /**
+     * Stops the worker after it wrote the queued events. The sink is not closed.
+     * 
+     * @param timeoutMillis maximum time to wait for the queued events
+     */
+    void stop(long timeoutMillis)
+    {
+        mDrainer.stop(timeoutMillis);
+    }
+
+    /**
+     * Records a failed write.
+     * 
+     * @param e the exception thrown by the sink
+     */
+    private void onFailure(Exception e)
+    {
+        mLastFailure = e;
+        mFailureCount.incrementAndGet();
+        Log.w(TAG, String.format("Log sink %s failed. Error: %s", mSink.getClass().getSimpleName(), e.getMessage()));
+    }
+}
@@ -16,6 +16,11 @@
 
 package com.microsoft.rightsmanagement.ui.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.microsoft.rightsmanagement.exceptions.ProtectionException;
 
 import android.util.Log;
@@ -30,17 +35,98 @@ public class Logger
         Error, Warn, Info, Verbose, Debug
     }
 
+    /**
+     * Builds a log message on demand. The message is only built when the event passes the level check, on the thread
+     * that writes the event, so implementations must not depend on state that changes after the call.
+     */
+    public interface MessageSupplier
+    {
+        /**
+         * Gets the message.
+         * 
+         * @return the message
+         */
+        public String getMessage();
+    }
+
+    /**
+     * What the asynchronous back end does with a new event when its ring buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /* Discard the oldest queued event to make room */
+        DropOldest,
+        /* Discard the event being logged */
+        DropNewest,
+        /* Wait until the drainer frees a slot */
+        Block
+    }
+
     private static class LAZYHOLER
     {
         public static Logger sInstance = new Logger();
     };
+    public static final int DEFAULT_ASYNC_CAPACITY = 1024;
+    public static final int DEFAULT_SINK_CAPACITY = 256;
+    private static final long ASYNC_FLUSH_TIMEOUT_MILLIS = 1000;
+    private static final String DRAINER_THREAD_NAME = "RmsUiLogDrainer";
+    static final String END_OF_METHOD_PREFIX = "END ";
+    private static final int MAX_NESTED_EVENTS = 16;
+    static final long NANOS_PER_MICRO = 1000;
+    static final String SPAN_DURATION_FORMAT = "duration=%dus";
+    private static final long SUPPRESSED_SUMMARY_INTERVAL_NANOS = 10 * 1000 * 1000 * 1000L;
+    private static final String SUPPRESSED_SUMMARY_FORMAT = "suppressed %d messages";
     // log tot logcat by default
     protected boolean mAndroidLogEnabled = true;
     /**
-     * Child logger per 'chain of responsibility' design pattern
+     * Child logger per 'chain of responsibility' design pattern, fed through its own sink worker
      */
-    private Logger mChildLogger = null;
+    private LogSinkRegistration mChildLoggerRegistration = null;
     protected LogLevel mLogLevel;
+    private volatile AsyncLogDrainer mAsyncLogDrainer = null;
+    private volatile FlightRecorder mFlightRecorder = null;
+    private final AtomicLong mDroppedEventCount = new AtomicLong();
+    private final AtomicLong mSuppressedEventCount = new AtomicLong();
+    private final MethodTracer mMethodTracer = new MethodTracer();
+    private final AtomicReference<LogRateLimiter> mRateLimiter = new AtomicReference<LogRateLimiter>(
+            LogRateLimiter.EMPTY);
+    private volatile LogSinkRegistration[] mSinkRegistrations = new LogSinkRegistration[0];
+    private final AtomicReference<LogLevelTable> mTagLogLevels = new AtomicReference<LogLevelTable>(
+            LogLevelTable.EMPTY);
+    private final LogSink mDrainerTarget = new LogSink()
+    {
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void write(LogEvent event)
+        {
+            Logger.this.write(event);
+        }
+    };
+    private final ThreadLocal<LogEventBuilder> mEventBuilder = new ThreadLocal<LogEventBuilder>()
+    {
+        @Override
+        protected LogEventBuilder initialValue()
+        {
+            return new LogEventBuilder(Logger.this);
+        }
+    };
+    private final ThreadLocal<LogEvent> mScratchEvent = new ThreadLocal<LogEvent>()
+    {
+        @Override
+        protected LogEvent initialValue()
+        {
+            return new LogEvent();
+        }
+    };
 
     /**
      * Debug
@@ -50,7 +136,120 @@ public class Logger
      */
     public static void d(String tag, String message)
     {
-        Logger.getInstance().debug(tag, message);
+        Logger logger = Logger.getInstance();
+        logger.debug(tag, logger.peekTagId(tag), message);
+    }
+
+    /**
+     * Debug with the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param message the message
+     */
+    public static void d(String tag, int tagId, String message)
+    {
+        Logger.getInstance().debug(tag, tagId, message);
+    }
+
+    /**
+     * Debug with a supplier that builds the message only if Debug is enabled.
+     * 
+     * @param tag the tag
+     * @param messageSupplier the message supplier
+     */
+    public static void d(String tag, MessageSupplier messageSupplier)
+    {
+        Logger.getInstance().log(LogLevel.Debug, tag, messageSupplier);
+    }
+
+    /**
+     * Debug with a format that is applied only if Debug is enabled. Does not allocate when Debug is disabled, apart
+     * from boxing primitive arguments.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param argument the format argument
+     */
+    public static void d(String tag, String format, Object argument)
+    {
+        Logger logger = Logger.getInstance();
+        d(tag, logger.peekTagId(tag), format, argument);
+    }
+
+    /**
+     * Debug with a format and the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param format the format
+     * @param argument the format argument
+     */
+    public static void d(String tag, int tagId, String format, Object argument)
+    {
+        Logger logger = Logger.getInstance();
+        if (logger.isLoggable(tagId, LogLevel.Debug) || logger.mFlightRecorder != null)
+        {
+            logger.log(LogLevel.Debug, tag, tagId, format, argument);
+        }
+    }
+
+    /**
+     * Debug with a format that is applied only if Debug is enabled. Does not allocate when Debug is disabled, apart
+     * from boxing primitive arguments.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param firstArgument the first format argument
+     * @param secondArgument the second format argument
+     */
+    public static void d(String tag, String format, Object firstArgument, Object secondArgument)
+    {
+        Logger logger = Logger.getInstance();
+        d(tag, logger.peekTagId(tag), format, firstArgument, secondArgument);
+    }
+
+    /**
+     * Debug with a format and the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param format the format
+     * @param firstArgument the first format argument
+     * @param secondArgument the second format argument
+     */
+    public static void d(String tag, int tagId, String format, Object firstArgument, Object secondArgument)
+    {
+        Logger logger = Logger.getInstance();
+        if (logger.isLoggable(tagId, LogLevel.Debug) || logger.mFlightRecorder != null)
+        {
+            logger.log(LogLevel.Debug, tag, tagId, format, firstArgument, secondArgument);
+        }
+    }
+
+    /**
+     * Debug with a format that is applied only if Debug is enabled.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param arguments the format arguments
+     */
+    public static void d(String tag, String format, Object... arguments)
+    {
+        Logger.getInstance().log(LogLevel.Debug, tag, format, arguments);
+    }
+
+    /**
+     * Debug with a format and the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param format the format
+     * @param arguments the format arguments
+     */
+    public static void d(String tag, int tagId, String format, Object... arguments)
+    {
+        Logger.getInstance().log(LogLevel.Debug, tag, tagId, format, arguments);
     }
 
     /**
@@ -66,6 +265,33 @@ public class Logger
         Logger.getInstance().error(tag, message, additionalMessage, protectionException);
     }
 
+    /**
+     * Starts a structured event with typed fields, e.g. Logger.event(LogLevel.Debug, TAG, "getView").put("position",
+     * position).log(). Fields reach the sinks as values; text is only built for logcat and the external logger. Costs
+     * one level check and no allocation when the level is disabled.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param name the event name
+     * @return the builder; call log() on it once the fields are added
+     */
+    public static LogEventBuilder event(LogLevel level, String tag, String name)
+    {
+        return Logger.getInstance().beginEvent(level, tag, name);
+    }
+
+    /**
+     * Gets the id of a tag. Resolve it once, e.g. into a static TAG_ID field next to the tag, and pass it to the
+     * overloads that take a tag id, which check the level with a single array lookup.
+     * 
+     * @param tag the tag
+     * @return the tag id
+     */
+    public static int getTagId(String tag)
+    {
+        return LogLevelTable.getTagId(tag);
+    }
+
     /**
      * Gets the single instance of Logger.
      * 
@@ -100,31 +326,113 @@ public class Logger
     }
 
     /**
-     * Method End.
+     * Inform with a format that is applied only if Info is enabled. Does not allocate when Info is disabled, apart
+     * from boxing primitive arguments.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param argument the format argument
+     */
+    public static void info(String tag, String format, Object argument)
+    {
+        Logger logger = Logger.getInstance();
+        int tagId = logger.peekTagId(tag);
+        if (logger.isLoggable(tagId, LogLevel.Info) || logger.mFlightRecorder != null)
+        {
+            logger.log(LogLevel.Info, tag, tagId, format, argument);
+        }
+    }
+
+    /**
+     * Inform with a format that is applied only if Info is enabled.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param firstArgument the first format argument
+     * @param secondArgument the second format argument
+     */
+    public static void info(String tag, String format, Object firstArgument, Object secondArgument)
+    {
+        Logger logger = Logger.getInstance();
+        int tagId = logger.peekTagId(tag);
+        if (logger.isLoggable(tagId, LogLevel.Info) || logger.mFlightRecorder != null)
+        {
+            logger.log(LogLevel.Info, tag, tagId, format, firstArgument, secondArgument);
+        }
+    }
+
+    /**
+     * Inform with a format that is applied only if Info is enabled.
+     * 
+     * @param tag the tag
+     * @param format the format
+     * @param arguments the format arguments
+     */
+    public static void info(String tag, String format, Object... arguments)
+    {
+        Logger.getInstance().log(LogLevel.Info, tag, format, arguments);
+    }
+
+    /**
+     * Method End. Closes the span opened by the matching ms() and records its duration as a single Verbose event.
+     * Costs one level check and no allocation when Verbose is disabled.
      * 
      * @param tag the tag
      * @param methodname the methodname
      */
     public static void me(String tag, String methodname)
     {
-        StringBuilder sb = new StringBuilder();
-        sb.append("END ");
-        sb.append(methodname);
-        Logger.getInstance().verbose(tag, sb.toString(), "", null);
+        Logger logger = Logger.getInstance();
+        me(tag, logger.peekTagId(tag), methodname);
     }
 
     /**
-     * Method Start.
+     * Method End with the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param methodname the methodname
+     */
+    public static void me(String tag, int tagId, String methodname)
+    {
+        Logger logger = Logger.getInstance();
+        if (!logger.isLoggable(tagId, LogLevel.Verbose))
+            return;
+        long durationNanos = logger.mMethodTracer.end(tag, methodname);
+        if (durationNanos != LogEvent.NO_DURATION)
+        {
+            LogEvent event = logger.obtainEvent(LogLevel.Verbose, tag, methodname, null, null);
+            event.setDurationNanos(durationNanos);
+            logger.dispatch(event);
+        }
+    }
+
+    /**
+     * Method Start. Opens a span that is closed by the matching me(). Costs one level check and no allocation when
+     * Verbose is disabled.
      * 
      * @param tag the tag
      * @param methodname the methodname
      */
     public static void ms(String tag, String methodname)
     {
-        StringBuilder sb = new StringBuilder();
-        sb.append("START ");
-        sb.append(methodname);
-        Logger.getInstance().verbose(tag, sb.toString(), "", null);
+        Logger logger = Logger.getInstance();
+        ms(tag, logger.peekTagId(tag), methodname);
+    }
+
+    /**
+     * Method Start with the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param methodname the methodname
+     */
+    public static void ms(String tag, int tagId, String methodname)
+    {
+        Logger logger = Logger.getInstance();
+        if (!logger.isLoggable(tagId, LogLevel.Verbose))
+            return;
+        logger.mMethodTracer.start(tag, methodname);
     }
 
     /**
@@ -180,23 +488,160 @@ public class Logger
      */
     public void debug(String tag, String message)
     {
-        if (mLogLevel.ordinal() < LogLevel.Debug.ordinal() || Helpers.IsNullOrEmpty(message))
-            return;
-        if (mAndroidLogEnabled)
+        debug(tag, peekTagId(tag), message);
+    }
+
+    /**
+     * Stops the asynchronous back end after flushing the queued events. Subsequent events are written on the calling
+     * thread.
+     */
+    public synchronized void disableAsyncLogging()
+    {
+        AsyncLogDrainer asyncLogDrainer = mAsyncLogDrainer;
+        if (asyncLogDrainer != null)
+        {
+            mAsyncLogDrainer = null;
+            asyncLogDrainer.stop(ASYNC_FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Adds a sink that receives every event that passes the level check, with the default queue capacity.
+     * 
+     * @param sink the sink
+     * @return the registration that holds the level threshold and counters of the sink
+     */
+    public LogSinkRegistration addSink(LogSink sink)
+    {
+        return addSink(sink, LogLevel.Debug, DEFAULT_SINK_CAPACITY);
+    }
+
+    /**
+     * Adds a sink. The sink gets its own bounded queue and worker thread; logging threads only copy the event into the
+     * queue and drop it if the queue is full, so a slow sink never delays logcat or the caller.
+     * 
+     * @param sink the sink
+     * @param level the most verbose level the sink receives
+     * @param capacity the queue capacity, rounded up to a power of two
+     * @return the registration that holds the level threshold and counters of the sink
+     */
+    public LogSinkRegistration addSink(LogSink sink, LogLevel level, int capacity)
+    {
+        if (sink == null)
         {
-            Log.d(tag, message);
+            throw new IllegalArgumentException("invalid parameter sink");
         }
-        if (mChildLogger != null)
+        if (level == null)
         {
-            try
-            {
-                mChildLogger.debug(tag, message);
-            }
-            catch (Exception e)
-            {
-                logChildLoggerError(tag, e, message);
-            }
+            throw new IllegalArgumentException("invalid parameter level");
+        }
+        LogSinkRegistration registration = new LogSinkRegistration(sink, level, capacity);
+        registration.start();
+        addSinkRegistration(registration);
+        return registration;
+    }
+
+    /**
+     * Starts a structured event. See Logger.event.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param name the event name
+     * @return the builder of the calling thread, or a disabled builder if the event is filtered out
+     */
+    public LogEventBuilder beginEvent(LogLevel level, String tag, String name)
+    {
+        boolean isLoggable = isLoggable(tag, level);
+        if ((!isLoggable && mFlightRecorder == null) || level == null || Helpers.IsNullOrEmpty(name))
+        {
+            return LogEventBuilder.DISABLED;
+        }
+        LogEventBuilder eventBuilder = mEventBuilder.get();
+        // an event started while the thread's builder is filled (e.g. from a put argument) gets its own builder; a
+        // builder that stays in use across that many events belongs to a chain that never reached log() and is reused
+        if (eventBuilder.isInUse() && eventBuilder.countNestedEvent() <= MAX_NESTED_EVENTS)
+        {
+            eventBuilder = new LogEventBuilder(this);
         }
+        eventBuilder.begin(level, tag, name, isLoggable);
+        return eventBuilder;
+    }
+
+    /**
+     * Removes all rate limits and sampling rules.
+     */
+    public void clearTagRateLimits()
+    {
+        mRateLimiter.set(LogRateLimiter.EMPTY);
+    }
+
+    /**
+     * Removes all per tag log levels. Every tag then uses the global log level.
+     */
+    public void clearTagLogLevels()
+    {
+        mTagLogLevels.set(LogLevelTable.EMPTY);
+    }
+
+    /**
+     * Stops recording events in the flight recorder and releases its ring.
+     */
+    public void disableFlightRecorder()
+    {
+        mFlightRecorder = null;
+    }
+
+    /**
+     * Writes the events kept by the flight recorder to its dump file, oldest first, on the calling thread.
+     * 
+     * @return the number of events written, 0 if the flight recorder is disabled
+     * @throws IOException Signals that the dump file could not be written.
+     */
+    public int dumpFlightRecorder() throws IOException
+    {
+        FlightRecorder flightRecorder = mFlightRecorder;
+        return flightRecorder != null ? flightRecorder.dump() : 0;
+    }
+
+    /**
+     * Enables the asynchronous back end with the default capacity, dropping the oldest events on overflow.
+     */
+    public void enableAsyncLogging()
+    {
+        enableAsyncLogging(DEFAULT_ASYNC_CAPACITY, OverflowPolicy.DropOldest);
+    }
+
+    /**
+     * Enables the asynchronous back end. Callers only queue a compact record into a bounded lock-free ring buffer and a
+     * single background thread formats the events and writes them to logcat and the external logger.
+     * 
+     * @param capacity the ring buffer capacity, rounded up to a power of two
+     * @param overflowPolicy what to do when the ring buffer is full
+     */
+    public synchronized void enableAsyncLogging(int capacity, OverflowPolicy overflowPolicy)
+    {
+        if (overflowPolicy == null)
+        {
+            throw new IllegalArgumentException("invalid parameter overflowPolicy");
+        }
+        AsyncLogDrainer asyncLogDrainer = new AsyncLogDrainer(mDrainerTarget, DRAINER_THREAD_NAME, capacity,
+                overflowPolicy, mDroppedEventCount);
+        disableAsyncLogging();
+        asyncLogDrainer.start();
+        mAsyncLogDrainer = asyncLogDrainer;
+    }
+
+    /**
+     * Enables the flight recorder. It keeps the last events of every level in a preallocated ring, including events
+     * filtered out by the level checks, at the cost of a few stores per event. The ring is written to the dump file in
+     * the background when an error with a ProtectionException is logged, and on demand by dumpFlightRecorder().
+     * 
+     * @param capacity the number of events to keep, rounded up to a power of two
+     * @param dumpFile the file the events are written to; its content is replaced by each dump
+     */
+    public void enableFlightRecorder(int capacity, File dumpFile)
+    {
+        mFlightRecorder = new FlightRecorder(capacity, dumpFile);
     }
 
     /**
@@ -209,31 +654,35 @@ public class Logger
      */
     public void error(String tag, String message, String additionalMessage, ProtectionException protectionException)
     {
-        if (mAndroidLogEnabled)
-        {
-            if (protectionException != null)
-            {
-                Log.e(tag,
-                        String.format("%s: %s. %s", protectionException.getType().name(), message, additionalMessage));
-            }
-            else
-            {
-                Log.e(tag, String.format("%s. %s", message, additionalMessage));
-            }
-        }
-        if (mChildLogger != null)
+        record(LogLevel.Error, tag, message, additionalMessage, protectionException, null, null);
+        dispatch(obtainEvent(LogLevel.Error, tag, message, additionalMessage, protectionException));
+        FlightRecorder flightRecorder = mFlightRecorder;
+        if (flightRecorder != null && protectionException != null)
         {
-            try
-            {
-                mChildLogger.error(tag, message, additionalMessage, protectionException);
-            }
-            catch (Exception e)
-            {
-                logChildLoggerError(tag, e, message);
-            }
+            flightRecorder.dumpInBackground();
         }
     }
 
+    /**
+     * Gets the number of events the asynchronous back end dropped because its ring buffer was full.
+     * 
+     * @return the dropped event count
+     */
+    public long getDroppedEventCount()
+    {
+        return mDroppedEventCount.get();
+    }
+
+    /**
+     * Gets the number of events suppressed by rate limits and sampling.
+     * 
+     * @return the suppressed event count
+     */
+    public long getSuppressedEventCount()
+    {
+        return mSuppressedEventCount.get();
+    }
+
     /**
      * Gets the log level.
      * 
@@ -244,6 +693,17 @@ public class Logger
         return mLogLevel;
     }
 
+    /**
+     * Gets the log level set for a tag.
+     * 
+     * @param tag the tag
+     * @return the log level of the tag or null if the tag uses the global log level
+     */
+    public LogLevel getTagLogLevel(String tag)
+    {
+        return mTagLogLevels.get().get(LogLevelTable.peekTagId(tag));
+    }
+
     /**
      * Inform.
      * 
@@ -254,31 +714,70 @@ public class Logger
      */
     public void inform(String tag, String message, String additionalMessage, ProtectionException protectionException)
     {
-        if (mLogLevel.ordinal() < LogLevel.Info.ordinal())
+        record(LogLevel.Info, tag, message, additionalMessage, protectionException, null, null);
+        if (!isLoggable(tag, LogLevel.Info))
             return;
-        if (mAndroidLogEnabled)
+        dispatch(obtainEvent(LogLevel.Info, tag, message, additionalMessage, protectionException));
+    }
+
+    /**
+     * Checks if events of the level pass the global level check. Use it to guard expensive message preparation that
+     * the parameterized overloads cannot defer.
+     * 
+     * @param level the level
+     * @return true, if events of the level are emitted for tags without their own log level
+     */
+    public boolean isLoggable(LogLevel level)
+    {
+        return isLoggable(LogLevelTable.NO_TAG_ID, level);
+    }
+
+    /**
+     * Checks if events of the level pass the level check of a tag id returned by getTagId.
+     * 
+     * @param tagId the tag id
+     * @param level the level
+     * @return true, if events of the level are emitted for the tag
+     */
+    public boolean isLoggable(int tagId, LogLevel level)
+    {
+        if (level == null)
         {
-            if (protectionException != null)
-            {
-                Log.i(tag,
-                        String.format("%s: %s. %s", protectionException.getType().name(), message, additionalMessage));
-            }
-            else
-            {
-                Log.i(tag, String.format("%s. %s", message, additionalMessage));
-            }
+            return false;
         }
-        if (mChildLogger != null)
+        if (level == LogLevel.Error)
         {
-            try
-            {
-                mChildLogger.inform(tag, message, additionalMessage, protectionException);
-            }
-            catch (Exception e)
-            {
-                logChildLoggerError(tag, e, message);
-            }
+            return true;
+        }
+        LogLevel threshold = mTagLogLevels.get().get(tagId);
+        if (threshold == null)
+        {
+            threshold = mLogLevel;
         }
+        return threshold.ordinal() >= level.ordinal();
+    }
+
+    /**
+     * Checks if events of the level pass the level check of a tag. The tag is only looked up when per tag log levels
+     * are set.
+     * 
+     * @param tag the tag
+     * @param level the level
+     * @return true, if events of the level are emitted for the tag
+     */
+    public boolean isLoggable(String tag, LogLevel level)
+    {
+        return isLoggable(peekTagId(tag), level);
+    }
+
+    /**
+     * Checks if the asynchronous back end is enabled.
+     * 
+     * @return true, if is async logging enabled
+     */
+    public boolean isAsyncLoggingEnabled()
+    {
+        return mAsyncLogDrainer != null;
     }
 
     /**
@@ -291,6 +790,74 @@ public class Logger
         return mAndroidLogEnabled;
     }
 
+    /**
+     * Logs a parameterized message. The format is applied only if the level is enabled, on the thread that writes the
+     * event.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param format the format
+     * @param arguments the format arguments
+     */
+    public void log(LogLevel level, String tag, String format, Object... arguments)
+    {
+        log(level, tag, peekTagId(tag), format, arguments);
+    }
+
+    /**
+     * Logs a parameterized message with the tag id returned by getTagId, which skips the tag lookup.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param format the format
+     * @param arguments the format arguments
+     */
+    public void log(LogLevel level, String tag, int tagId, String format, Object... arguments)
+    {
+        record(level, tag, format, "", null, arguments, null);
+        if (!isLoggable(tagId, level) || Helpers.IsNullOrEmpty(format))
+            return;
+        LogEvent event = obtainEvent(level, tag, format, "", null);
+        event.setArguments(arguments);
+        dispatch(event);
+    }
+
+    /**
+     * Logs a message built by a supplier. The supplier is called only if the level is enabled, on the thread that
+     * writes the event.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param messageSupplier the message supplier
+     */
+    public void log(LogLevel level, String tag, MessageSupplier messageSupplier)
+    {
+        record(level, tag, null, "", null, null, messageSupplier);
+        if (!isLoggable(tag, level) || messageSupplier == null)
+            return;
+        LogEvent event = obtainEvent(level, tag, null, "", null);
+        event.setMessageSupplier(messageSupplier);
+        dispatch(event);
+    }
+
+    /**
+     * Removes a sink added by addSink after its queued events were written. The sink is not closed.
+     * 
+     * @param sink the sink
+     * @return true, if the sink was registered
+     */
+    public boolean removeSink(LogSink sink)
+    {
+        LogSinkRegistration registration = removeSinkRegistration(sink);
+        if (registration == null)
+        {
+            return false;
+        }
+        registration.stop(ASYNC_FLUSH_TIMEOUT_MILLIS);
+        return true;
+    }
+
     /**
      * Sets the android log enabled.
      * 
@@ -302,13 +869,21 @@ public class Logger
     }
 
     /**
-     * Sets the external logger.
+     * Sets the external logger. It is fed from its own sink worker, so a slow external logger does not block callers.
      * 
-     * @param externalLogger the new external logger
+     * @param externalLogger the new external logger, or null to remove it
      */
-    public void setExternalLogger(Logger externalLogger)
+    public synchronized void setExternalLogger(Logger externalLogger)
     {
-        this.mChildLogger = externalLogger;
+        if (mChildLoggerRegistration != null)
+        {
+            removeSink(mChildLoggerRegistration.getSink());
+            mChildLoggerRegistration = null;
+        }
+        if (externalLogger != null)
+        {
+            mChildLoggerRegistration = addSink(new ChildLoggerSink(externalLogger));
+        }
     }
 
     /**
@@ -322,42 +897,111 @@ public class Logger
     }
 
     /**
-     * Verbose.
+     * Sets the log level of a tag, overriding the global log level for it. Safe to call at any time from any thread;
+     * logging threads see the new level without locking.
      * 
      * @param tag the tag
-     * @param message the message
-     * @param additionalMessage the additional message
-     * @param protectionException the protection exception
+     * @param level the log level of the tag or null to use the global log level again
      */
-    public void verbose(String tag, String message, String additionalMessage, ProtectionException protectionException)
+    public void setTagLogLevel(String tag, LogLevel level)
     {
-        if (mLogLevel.ordinal() < LogLevel.Verbose.ordinal())
-            return;
-        if (mAndroidLogEnabled)
+        int tagId = LogLevelTable.getTagId(tag);
+        while (true)
         {
-            if (protectionException != null)
-            {
-                Log.v(tag,
-                        String.format("%s: %s. %s", protectionException.getType().name(), message, additionalMessage));
-            }
-            else
+            LogLevelTable tagLogLevels = mTagLogLevels.get();
+            if (mTagLogLevels.compareAndSet(tagLogLevels, tagLogLevels.with(tagId, level)))
             {
-                Log.v(tag, String.format("%s. %s", message, additionalMessage));
+                return;
             }
         }
-        if (mChildLogger != null)
+    }
+
+    /**
+     * Replaces all per tag log levels with a configuration such as "TemplateDescriptorListAdapter=Warn,
+     * ConsentActivity=Verbose".
+     * 
+     * @param configuration the configuration; null or empty removes all per tag log levels
+     */
+    public void setTagLogLevels(String configuration)
+    {
+        mTagLogLevels.set(LogLevelTable.parse(configuration));
+    }
+
+    /**
+     * Limits the rate of events of a tag with a token bucket. Errors are never limited. Suppressed events are reported
+     * by a "suppressed N messages" event on the tag, at most every ten seconds, when the tag logs again.
+     * 
+     * @param tag the tag
+     * @param eventsPerSecond the sustained rate, or 0 to remove the rate limit
+     * @param burst the number of events accepted back to back
+     */
+    public void setTagRateLimit(String tag, double eventsPerSecond, int burst)
+    {
+        if (eventsPerSecond < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter eventsPerSecond");
+        }
+        if (burst < 1)
         {
-            try
+            throw new IllegalArgumentException("invalid parameter burst");
+        }
+        int tagId = LogLevelTable.getTagId(tag);
+        while (true)
+        {
+            LogRateLimiter rateLimiter = mRateLimiter.get();
+            LogRateLimiter.Rule rule = rateLimiter.get(tagId);
+            rule = (rule == null) ? new LogRateLimiter.Rule(eventsPerSecond, burst, 1) : rule.withRateLimit(
+                    eventsPerSecond, burst);
+            if (mRateLimiter.compareAndSet(rateLimiter, rateLimiter.with(tagId, rule)))
             {
-                mChildLogger.verbose(tag, message, additionalMessage, protectionException);
+                return;
             }
-            catch (Exception e)
+        }
+    }
+
+    /**
+     * Keeps one event out of every sampleInterval events of a tag. Errors are never sampled. Applied before the rate
+     * limit of the tag.
+     * 
+     * @param tag the tag
+     * @param sampleInterval keep one event out of this many, 1 to keep all
+     */
+    public void setTagSampleInterval(String tag, int sampleInterval)
+    {
+        if (sampleInterval < 1)
+        {
+            throw new IllegalArgumentException("invalid parameter sampleInterval");
+        }
+        int tagId = LogLevelTable.getTagId(tag);
+        while (true)
+        {
+            LogRateLimiter rateLimiter = mRateLimiter.get();
+            LogRateLimiter.Rule rule = rateLimiter.get(tagId);
+            rule = (rule == null) ? new LogRateLimiter.Rule(0, 1, sampleInterval) : rule
+                    .withSampleInterval(sampleInterval);
+            if (mRateLimiter.compareAndSet(rateLimiter, rateLimiter.with(tagId, rule)))
             {
-                logChildLoggerError(tag, e, message);
+                return;
             }
         }
     }
 
+    /**
+     * Verbose.
+     * 
+     * @param tag the tag
+     * @param message the message
+     * @param additionalMessage the additional message
+     * @param protectionException the protection exception
+     */
+    public void verbose(String tag, String message, String additionalMessage, ProtectionException protectionException)
+    {
+        record(LogLevel.Verbose, tag, message, additionalMessage, protectionException, null, null);
+        if (!isLoggable(tag, LogLevel.Verbose))
+            return;
+        dispatch(obtainEvent(LogLevel.Verbose, tag, message, additionalMessage, protectionException));
+    }
+
     /**
      * Warn.
      * 
@@ -368,35 +1012,283 @@ public class Logger
      */
     public void warn(String tag, String message, String additionalMessage, ProtectionException protectionException)
     {
-        if (mLogLevel.ordinal() < LogLevel.Warn.ordinal())
+        record(LogLevel.Warn, tag, message, additionalMessage, protectionException, null, null);
+        if (!isLoggable(tag, LogLevel.Warn))
             return;
+        dispatch(obtainEvent(LogLevel.Warn, tag, message, additionalMessage, protectionException));
+    }
+
+    /**
+     * Writes an event to logcat and queues it for the sinks, including the external logger. Called on the logging
+     * thread in synchronous mode and on the drainer thread in asynchronous mode.
+     * 
+     * @param event the event
+     */
+    void write(LogEvent event)
+    {
+        LogLevel level = event.getLevel();
+        String tag = event.getTag();
+        String message = event.getRenderedMessage();
+        String additionalMessage = event.getAdditionalMessage();
+        ProtectionException protectionException = event.getProtectionException();
+        if (event.isSpan())
+        {
+            // spans are rendered here, on the writing thread, so ms/me never build strings
+            message = END_OF_METHOD_PREFIX + message;
+            additionalMessage = String.format(SPAN_DURATION_FORMAT, event.getDurationNanos() / NANOS_PER_MICRO);
+        }
         if (mAndroidLogEnabled)
         {
-            if (protectionException != null)
+            if (level == LogLevel.Debug)
             {
-                Log.w(tag,
-                        String.format("%s: %s. %s", protectionException.getType().name(), message, additionalMessage));
+                Log.d(tag, message);
             }
             else
             {
-                Log.w(tag, String.format("%s. %s", message, additionalMessage));
+                String formattedMessage;
+                if (protectionException != null)
+                {
+                    formattedMessage = String.format("%s: %s. %s", protectionException.getType().name(), message,
+                            additionalMessage);
+                }
+                else
+                {
+                    formattedMessage = String.format("%s. %s", message, additionalMessage);
+                }
+                switch (level)
+                {
+                    case Error:
+                        Log.e(tag, formattedMessage);
+                        break;
+                    case Warn:
+                        Log.w(tag, formattedMessage);
+                        break;
+                    case Info:
+                        Log.i(tag, formattedMessage);
+                        break;
+                    default:
+                        Log.v(tag, formattedMessage);
+                        break;
+                }
             }
         }
-        if (mChildLogger != null)
+        LogSinkRegistration[] sinkRegistrations = mSinkRegistrations;
+        for (int i = 0; i < sinkRegistrations.length; i++)
+        {
+            sinkRegistrations[i].offer(event);
+        }
+    }
+
+    /**
+     * Records and dispatches a structured event filled by a LogEventBuilder. Clears the event afterwards.
+     * 
+     * @param event the event
+     * @param isLoggable true, if the event passed the level check
+     */
+    void logStructuredEvent(LogEvent event, boolean isLoggable)
+    {
+        FlightRecorder flightRecorder = mFlightRecorder;
+        if (flightRecorder != null)
+        {
+            flightRecorder.record(event);
+        }
+        if (isLoggable)
+        {
+            dispatch(event);
+        }
+        else
+        {
+            event.clear();
+        }
+    }
+
+    /**
+     * Debug with a tag id.
+     * 
+     * @param tag the tag
+     * @param tagId the tag id
+     * @param message the message
+     */
+    private void debug(String tag, int tagId, String message)
+    {
+        record(LogLevel.Debug, tag, message, null, null, null, null);
+        if (!isLoggable(tagId, LogLevel.Debug) || Helpers.IsNullOrEmpty(message))
+            return;
+        dispatch(obtainEvent(LogLevel.Debug, tag, message, null, null));
+    }
+
+    /**
+     * Applies the rate limit and sampling rule of the tag to an event that passed the level check and delivers it.
+     * Clears the event afterwards.
+     * 
+     * @param event the event returned by obtainEvent
+     */
+    private void dispatch(LogEvent event)
+    {
+        try
+        {
+            LogRateLimiter rateLimiter = mRateLimiter.get();
+            if (!rateLimiter.isEmpty() && event.getLevel() != LogLevel.Error && !tryAcquire(rateLimiter, event))
+            {
+                return;
+            }
+            deliver(event);
+        }
+        finally
+        {
+            event.clear();
+        }
+    }
+
+    /**
+     * Hands an event to the asynchronous back end, or writes it right away when that is disabled.
+     * 
+     * @param event the event
+     */
+    private void deliver(LogEvent event)
+    {
+        AsyncLogDrainer asyncLogDrainer = mAsyncLogDrainer;
+        if (asyncLogDrainer == null || !asyncLogDrainer.offer(event))
+        {
+            write(event);
+        }
+    }
+
+    /**
+     * Fills the scratch event of the calling thread. A fresh event is used if the scratch event is still being written,
+     * i.e. when a writer logs back into this logger.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param message the message
+     * @param additionalMessage the additional message
+     * @param protectionException the protection exception
+     * @return the event to pass to dispatch
+     */
+    private LogEvent obtainEvent(LogLevel level,
+                                 String tag,
+                                 String message,
+                                 String additionalMessage,
+                                 ProtectionException protectionException)
+    {
+        LogEvent event = mScratchEvent.get();
+        if (event.isInUse())
         {
+            event = new LogEvent();
+        }
+        event.set(level, tag, message, additionalMessage, protectionException);
+        return event;
+    }
+
+    /**
+     * Checks an event against the rule of its tag and delivers the suppressed message summary when it is due.
+     * 
+     * @param rateLimiter the rate limiter snapshot
+     * @param event the event
+     * @return true, if the event is kept
+     */
+    private boolean tryAcquire(LogRateLimiter rateLimiter, LogEvent event)
+    {
+        LogRateLimiter.Rule rule = rateLimiter.get(LogLevelTable.peekTagId(event.getTag()));
+        if (rule == null)
+        {
+            return true;
+        }
+        long nowNanos = System.nanoTime();
+        boolean isAcquired = rule.tryAcquire(nowNanos);
+        if (!isAcquired)
+        {
+            mSuppressedEventCount.incrementAndGet();
+        }
+        long suppressedCount = rule.takeSuppressedCount(nowNanos, SUPPRESSED_SUMMARY_INTERVAL_NANOS);
+        if (suppressedCount > 0)
+        {
+            LogEvent summaryEvent = obtainEvent(event.getLevel(), event.getTag(), SUPPRESSED_SUMMARY_FORMAT, "", null);
+            summaryEvent.setArguments(new Object[] { suppressedCount });
             try
             {
-                mChildLogger.warn(tag, message, additionalMessage, protectionException);
+                deliver(summaryEvent);
             }
-            catch (Exception e)
+            finally
             {
-                logChildLoggerError(tag, e, message);
+                summaryEvent.clear();
             }
         }
+        return isAcquired;
     }
 
-    private void logChildLoggerError(String tag, Exception e, String message)
+    /**
+     * Gets the id of a tag for a level check. The tag is only looked up when per tag log levels are set.
+     * 
+     * @param tag the tag
+     * @return the tag id or NO_TAG_ID
+     */
+    private int peekTagId(String tag)
+    {
+        return mTagLogLevels.get().isEmpty() ? LogLevelTable.NO_TAG_ID : LogLevelTable.peekTagId(tag);
+    }
+
+    /**
+     * Records an event in the flight recorder, if enabled, before any level check.
+     * 
+     * @param level the level
+     * @param tag the tag
+     * @param message the message or format
+     * @param additionalMessage the additional message
+     * @param protectionException the protection exception
+     * @param arguments the format arguments
+     * @param messageSupplier the message supplier
+     */
+    private void record(LogLevel level,
+                        String tag,
+                        String message,
+                        String additionalMessage,
+                        ProtectionException protectionException,
+                        Object[] arguments,
+                        MessageSupplier messageSupplier)
+    {
+        FlightRecorder flightRecorder = mFlightRecorder;
+        if (flightRecorder != null && level != null)
+        {
+            flightRecorder.record(level, tag, message, additionalMessage, protectionException, arguments,
+                    messageSupplier);
+        }
+    }
+
+    /**
+     * Publishes a new sink registration.
+     * 
+     * @param registration the registration
+     */
+    private synchronized void addSinkRegistration(LogSinkRegistration registration)
     {
-        Log.w(tag, String.format("Child logger failed to log message: \"%s\". Error: %s", message, e.getMessage()));
+        LogSinkRegistration[] sinkRegistrations = new LogSinkRegistration[mSinkRegistrations.length + 1];
+        System.arraycopy(mSinkRegistrations, 0, sinkRegistrations, 0, mSinkRegistrations.length);
+        sinkRegistrations[mSinkRegistrations.length] = registration;
+        mSinkRegistrations = sinkRegistrations;
     }
+
+    /**
+     * Unpublishes the registration of a sink.
+     * 
+     * @param sink the sink
+     * @return the removed registration or null if the sink was not registered
+     */
+    private synchronized LogSinkRegistration removeSinkRegistration(LogSink sink)
+    {
+        LogSinkRegistration[] sinkRegistrations = mSinkRegistrations;
+        for (int i = 0; i < sinkRegistrations.length; i++)
+        {
+            if (sinkRegistrations[i].getSink() == sink)
+            {
+                LogSinkRegistration[] remainingRegistrations = new LogSinkRegistration[sinkRegistrations.length - 1];
+                System.arraycopy(sinkRegistrations, 0, remainingRegistrations, 0, i);
+                System.arraycopy(sinkRegistrations, i + 1, remainingRegistrations, i, sinkRegistrations.length - i - 1);
+                mSinkRegistrations = remainingRegistrations;
+                return sinkRegistrations[i];
+            }
+        }
+        return null;
+    }
+
 }
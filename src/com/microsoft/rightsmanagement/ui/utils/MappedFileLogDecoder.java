@@ -0,0 +1,308 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TreeMap;
+
+import com.microsoft.rightsmanagement.exceptions.ProtectionExceptionType;
+import com.microsoft.rightsmanagement.ui.utils.LogEvent.FieldType;
+
+/**
+ * Offline decoder for the segment files written by MappedFileLogSink. Writes one logcat style line per event, oldest
+ * segment first. Runs on a device or on any JVM with the library on the class path.
+ */
+public final class MappedFileLogDecoder
+{
+    private static final String LEVEL_CODES = "EWIVD";
+    static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    /**
+     * Instantiates a new decoder.
+     */
+    private MappedFileLogDecoder()
+    {
+    }
+
+    /**
+     * Decodes all segments of a directory.
+     * 
+     * @param directory the directory passed to MappedFileLogSink
+     * @param writer the writer that receives the text lines
+     * @return the number of decoded events
+     * @throws IOException Signals that a segment could not be read or the writer failed.
+     */
+    public static int decode(File directory, Writer writer) throws IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("invalid parameter directory");
+        }
+        if (writer == null)
+        {
+            throw new IllegalArgumentException("invalid parameter writer");
+        }
+        // sequence numbers are unique, so the map orders the segments oldest first
+        TreeMap<Long, File> segmentFiles = new TreeMap<Long, File>();
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String name = file.getName();
+                if (name.startsWith(MappedFileLogSink.SEGMENT_FILE_PREFIX)
+                        && name.endsWith(MappedFileLogSink.SEGMENT_FILE_SUFFIX))
+                {
+                    long sequence = MappedFileLogSink.readSegmentSequence(file);
+                    if (sequence >= 0)
+                    {
+                        segmentFiles.put(sequence, file);
+                    }
+                }
+            }
+        }
+        SimpleDateFormat timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.US);
+        int eventCount = 0;
+        for (File segmentFile : segmentFiles.values())
+        {
+            eventCount += decodeSegment(readFully(segmentFile), timestampFormat, writer);
+        }
+        writer.flush();
+        return eventCount;
+    }
+
+    /**
+     * Appends one logcat style text line.
+     *
+     * @param line the builder that receives the line
+     * @param timestampFormat the timestamp format
+     * @param timestamp the timestamp in milliseconds
+     * @param levelCode the LogLevel ordinal
+     * @param tag the tag
+     * @param exceptionType the ProtectionException type name, may be null
+     * @param message the message
+     * @param additionalMessage the additional message, may be null
+     */
+    static void appendLine(StringBuilder line,
+                           SimpleDateFormat timestampFormat,
+                           long timestamp,
+                           int levelCode,
+                           String tag,
+                           String exceptionType,
+                           String message,
+                           String additionalMessage)
+    {
+        line.append(timestampFormat.format(new Date(timestamp))).append(' ');
+        line.append(levelCode >= 0 && levelCode < LEVEL_CODES.length() ? LEVEL_CODES.charAt(levelCode) : '?');
+        line.append('/').append(tag).append(": ");
+        if (exceptionType != null)
+        {
+            line.append(exceptionType).append(": ");
+        }
+        line.append(message);
+        if (additionalMessage != null)
+        {
+            line.append(". ").append(additionalMessage);
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Decodes one segment. Stops at the end marker or at the first damaged record.
+     * 
+     * @param segment the segment content
+     * @param timestampFormat the timestamp format
+     * @param writer the writer
+     * @return the number of decoded events
+     * @throws IOException Signals that the writer failed.
+     */
+    private static int decodeSegment(ByteBuffer segment, SimpleDateFormat timestampFormat, Writer writer)
+            throws IOException
+    {
+        segment.position(MappedFileLogSink.HEADER_SIZE - 8);
+        long timestamp = segment.getLong();
+        ArrayList<String> strings = new ArrayList<String>();
+        int eventCount = 0;
+        try
+        {
+            while (segment.hasRemaining() && segment.get() == MappedFileLogSink.RECORD_EVENT)
+            {
+                int levelCode = segment.get();
+                int flags = segment.get();
+                long zigzagDelta = readVarint(segment);
+                timestamp += (zigzagDelta >>> 1) ^ -(zigzagDelta & 1);
+                String tag = readString(segment, strings);
+                String message = readString(segment, strings);
+                String additionalMessage = null;
+                String exceptionType = null;
+                if ((flags & MappedFileLogSink.FLAG_ADDITIONAL_MESSAGE) != 0)
+                {
+                    additionalMessage = readString(segment, strings);
+                }
+                if ((flags & MappedFileLogSink.FLAG_EXCEPTION) != 0)
+                {
+                    int typeCode = (int)readVarint(segment);
+                    ProtectionExceptionType[] types = ProtectionExceptionType.values();
+                    exceptionType = typeCode < types.length ? types[typeCode].name() : "ProtectionException#"
+                            + typeCode;
+                }
+                if ((flags & MappedFileLogSink.FLAG_SPAN) != 0)
+                {
+                    message = Logger.END_OF_METHOD_PREFIX + message;
+                    additionalMessage = String.format(Logger.SPAN_DURATION_FORMAT, readVarint(segment));
+                }
+                if ((flags & MappedFileLogSink.FLAG_FIELDS) != 0)
+                {
+                    message = readFields(segment, strings, message);
+                }
+                StringBuilder line = new StringBuilder();
+                appendLine(line, timestampFormat, timestamp, levelCode, tag, exceptionType, message, additionalMessage);
+                writer.write(line.toString());
+                eventCount++;
+            }
+        }
+        catch (BufferUnderflowException e)
+        {
+            // torn tail of a segment that was being written
+        }
+        catch (IllegalArgumentException e)
+        {
+            // damaged record
+        }
+        return eventCount;
+    }
+
+    /**
+     * Reads a whole segment file.
+     * 
+     * @param file the file
+     * @return the content
+     * @throws IOException Signals that the file could not be read.
+     */
+    private static ByteBuffer readFully(File file) throws IOException
+    {
+        RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] content = new byte[(int)segmentFile.length()];
+            segmentFile.readFully(content);
+            return ByteBuffer.wrap(content);
+        }
+        finally
+        {
+            segmentFile.close();
+        }
+    }
+
+    /**
+     * Reads the structured fields of an event and appends them to its message as " name=value" pairs.
+     *
+     * @param segment the segment
+     * @param strings the strings defined so far in the segment
+     * @param message the message
+     * @return the message with the fields
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private static String readFields(ByteBuffer segment, ArrayList<String> strings, String message)
+            throws UnsupportedEncodingException
+    {
+        StringBuilder renderedMessage = new StringBuilder(message);
+        long fieldCount = readVarint(segment);
+        for (long i = 0; i < fieldCount; i++)
+        {
+            renderedMessage.append(' ').append(readString(segment, strings)).append('=');
+            int typeCode = segment.get();
+            if (typeCode == FieldType.Int.ordinal() || typeCode == FieldType.Long.ordinal())
+            {
+                long zigzagValue = readVarint(segment);
+                renderedMessage.append((zigzagValue >>> 1) ^ -(zigzagValue & 1));
+            }
+            else
+            {
+                renderedMessage.append(readString(segment, strings));
+            }
+        }
+        return renderedMessage.toString();
+    }
+
+    /**
+     * Reads a string written by MappedFileLogSink.putString.
+     * 
+     * @param segment the segment
+     * @param strings the strings defined so far in the segment
+     * @return the string
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private static String readString(ByteBuffer segment, ArrayList<String> strings)
+            throws UnsupportedEncodingException
+    {
+        long header = readVarint(segment);
+        int kind = (int)(header & ((1 << MappedFileLogSink.STRING_KIND_BITS) - 1));
+        long value = header >>> MappedFileLogSink.STRING_KIND_BITS;
+        if (kind == MappedFileLogSink.STRING_REFERENCE)
+        {
+            if (value >= strings.size())
+            {
+                throw new IllegalArgumentException("invalid string reference");
+            }
+            return strings.get((int)value);
+        }
+        if (value > segment.remaining())
+        {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[(int)value];
+        segment.get(bytes);
+        String string = new String(bytes, "UTF-8");
+        if (kind == MappedFileLogSink.STRING_DEFINITION)
+        {
+            strings.add(string);
+        }
+        return string;
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     * 
+     * @param segment the segment
+     * @return the value
+     */
+    private static long readVarint(ByteBuffer segment)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = segment.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("invalid varint");
+    }
+}
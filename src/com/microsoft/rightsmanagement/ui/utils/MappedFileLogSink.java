@@ -0,0 +1,492 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.microsoft.rightsmanagement.exceptions.ProtectionException;
+import com.microsoft.rightsmanagement.ui.utils.LogEvent.FieldType;
+
+import android.util.Log;
+
+/**
+ * Log sink that keeps a compact binary log in a fixed set of rotating memory mapped segment files.
+ * <p>
+ * A segment starts with a header (magic, format version, sequence number, base timestamp) followed by event records.
+ * Timestamps are zigzag varint deltas to the previous event, levels and ProtectionException types are single codes and
+ * short strings such as tags and literal messages are interned per segment, so a repeated event costs a few bytes and
+ * no system call. When a segment is full the oldest segment file is reused. MappedFileLogDecoder turns the segments
+ * back into text.
+ * </p>
+ * <p>
+ * Record layout: record type byte, level byte, flags byte, timestamp delta, tag, message, then the additional message,
+ * the exception type code, the span duration in microseconds and the structured fields if the matching flag is set. A
+ * field is its name, a type byte and the value: a zigzag varint for Int and Long, the constant name for Enum, a string
+ * for Text. A string is a varint
+ * (value &lt;&lt; 2 | kind) where kind is inline (value is the UTF-8 length), definition (inline and assigned the next
+ * id) or reference (value is the id). The record type byte is stored last, so a record torn by a crash is never read.
+ * </p>
+ */
+public final class MappedFileLogSink implements LogSink
+{
+    public static final int DEFAULT_MAX_SEGMENT_COUNT = 8;
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    static final int FLAG_ADDITIONAL_MESSAGE = 1;
+    static final int FLAG_EXCEPTION = 2;
+    static final int FLAG_FIELDS = 8;
+    static final int FLAG_SPAN = 4;
+    static final byte FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 21;
+    static final int MAGIC = 0x524D534C;
+    static final byte RECORD_END = 0;
+    static final byte RECORD_EVENT = 1;
+    static final String SEGMENT_FILE_PREFIX = "rmsui_log_";
+    static final String SEGMENT_FILE_SUFFIX = ".seg";
+    static final int STRING_DEFINITION = 1;
+    static final int STRING_INLINE = 0;
+    static final int STRING_KIND_BITS = 2;
+    static final int STRING_REFERENCE = 2;
+    private static final int MAX_INTERNED_LENGTH = 128;
+    private static final int MAX_INTERNED_STRING_COUNT = 1024;
+    private static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final String TAG = "MappedFileLogSink";
+    private final File mDirectory;
+    private final ArrayList<String> mInternedInRecord = new ArrayList<String>();
+    private final HashMap<String, Integer> mInternedStrings = new HashMap<String, Integer>();
+    private boolean mIsClosed;
+    private long mLastTimestamp;
+    private final int mMaxSegmentCount;
+    private long mNextSequence;
+    private byte[] mRecord = new byte[256];
+    private int mRecordLength;
+    private MappedByteBuffer mSegment;
+    private final int mSegmentSize;
+
+    /**
+     * Instantiates a new sink with the default segment size and count.
+     * 
+     * @param directory the directory that holds the segment files
+     * @throws IOException Signals that the first segment could not be mapped.
+     */
+    public MappedFileLogSink(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENT_COUNT);
+    }
+
+    /**
+     * Instantiates a new sink. Logging resumes after the newest segment left by a previous process.
+     * 
+     * @param directory the directory that holds the segment files
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegmentCount the number of segment files to rotate through
+     * @throws IOException Signals that the first segment could not be mapped.
+     */
+    public MappedFileLogSink(File directory, int segmentSize, int maxSegmentCount) throws IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("invalid parameter directory");
+        }
+        if (segmentSize < MIN_SEGMENT_SIZE)
+        {
+            throw new IllegalArgumentException("invalid parameter segmentSize");
+        }
+        if (maxSegmentCount <= 0)
+        {
+            throw new IllegalArgumentException("invalid parameter maxSegmentCount");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("could not create " + directory);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxSegmentCount = maxSegmentCount;
+        long newestSequence = -1;
+        for (int slot = 0; slot < maxSegmentCount; slot++)
+        {
+            newestSequence = Math.max(newestSequence, readSegmentSequence(getSegmentFile(directory, slot)));
+        }
+        mNextSequence = newestSequence + 1;
+        openNextSegment();
+    }
+
+    /**
+     * Gets the file of a segment slot.
+     * 
+     * @param directory the directory
+     * @param slot the slot
+     * @return the segment file
+     */
+    static File getSegmentFile(File directory, int slot)
+    {
+        return new File(directory, SEGMENT_FILE_PREFIX + slot + SEGMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the sequence number from the header of a segment file.
+     * 
+     * @param file the file
+     * @return the sequence number or -1 if the file is missing or not a segment
+     */
+    static long readSegmentSequence(File file)
+    {
+        if (!file.isFile() || file.length() < HEADER_SIZE)
+        {
+            return -1;
+        }
+        RandomAccessFile segmentFile = null;
+        try
+        {
+            segmentFile = new RandomAccessFile(file, "r");
+            if (segmentFile.readInt() != MAGIC || segmentFile.readByte() != FORMAT_VERSION)
+            {
+                return -1;
+            }
+            return segmentFile.readLong();
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+        finally
+        {
+            closeQuietly(segmentFile);
+        }
+    }
+
+    /**
+     * Closes a file, ignoring errors.
+     * 
+     * @param file the file, may be null
+     */
+    private static void closeQuietly(RandomAccessFile file)
+    {
+        if (file != null)
+        {
+            try
+            {
+                file.close();
+            }
+            catch (IOException e)
+            {
+                // nothing left to release
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#close()
+     */
+    @Override
+    public synchronized void close()
+    {
+        flush();
+        mIsClosed = true;
+        mSegment = null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#flush()
+     */
+    @Override
+    public synchronized void flush()
+    {
+        if (mSegment != null)
+        {
+            mSegment.force();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.microsoft.rightsmanagement.ui.utils.LogSink#write(com.microsoft.rightsmanagement.ui.utils.LogEvent)
+     */
+    @Override
+    public synchronized void write(LogEvent event)
+    {
+        if (mIsClosed || mSegment == null)
+        {
+            return;
+        }
+        encode(event);
+        if (mRecordLength > mSegment.remaining())
+        {
+            try
+            {
+                openNextSegment();
+            }
+            catch (IOException e)
+            {
+                Log.e(TAG, "Could not map the next log segment. File logging stopped. " + e.getMessage());
+                mSegment = null;
+                return;
+            }
+            encode(event);
+            if (mRecordLength > mSegment.remaining())
+            {
+                // larger than a whole segment; forget the strings this record would have defined
+                for (String string : mInternedInRecord)
+                {
+                    mInternedStrings.remove(string);
+                }
+                return;
+            }
+        }
+        int recordStart = mSegment.position();
+        mSegment.position(recordStart + 1);
+        mSegment.put(mRecord, 1, mRecordLength - 1);
+        mSegment.put(recordStart, mRecord[0]);
+        mLastTimestamp = event.getTimestamp();
+    }
+
+    /**
+     * Encodes an event into the record buffer.
+     * 
+     * @param event the event
+     */
+    private void encode(LogEvent event)
+    {
+        mRecordLength = 0;
+        mInternedInRecord.clear();
+        String additionalMessage = event.getAdditionalMessage();
+        ProtectionException protectionException = event.getProtectionException();
+        int flags = 0;
+        if (!Helpers.IsNullOrEmpty(additionalMessage))
+        {
+            flags |= FLAG_ADDITIONAL_MESSAGE;
+        }
+        if (protectionException != null && protectionException.getType() != null)
+        {
+            flags |= FLAG_EXCEPTION;
+        }
+        if (event.isSpan())
+        {
+            flags |= FLAG_SPAN;
+        }
+        if (event.getFieldCount() > 0)
+        {
+            flags |= FLAG_FIELDS;
+        }
+        // relative to the last written record; write() advances mLastTimestamp once the record is in the segment
+        long timestampDelta = event.getTimestamp() - mLastTimestamp;
+        putByte(RECORD_EVENT);
+        putByte(event.getLevel().ordinal());
+        putByte(flags);
+        putVarint((timestampDelta << 1) ^ (timestampDelta >> 63));
+        putString(event.getTag());
+        putString(event.getMessage());
+        if ((flags & FLAG_ADDITIONAL_MESSAGE) != 0)
+        {
+            putString(additionalMessage);
+        }
+        if ((flags & FLAG_EXCEPTION) != 0)
+        {
+            putVarint(protectionException.getType().ordinal());
+        }
+        if ((flags & FLAG_SPAN) != 0)
+        {
+            putVarint(event.getDurationNanos() / NANOS_PER_MICRO);
+        }
+        if ((flags & FLAG_FIELDS) != 0)
+        {
+            putVarint(event.getFieldCount());
+            for (int i = 0; i < event.getFieldCount(); i++)
+            {
+                FieldType type = event.getFieldType(i);
+                putString(event.getFieldName(i));
+                putByte(type.ordinal());
+                if (type == FieldType.Int || type == FieldType.Long)
+                {
+                    long value = event.getFieldLong(i);
+                    putVarint((value << 1) ^ (value >> 63));
+                }
+                else if (type == FieldType.Enum && event.getFieldObject(i) != null)
+                {
+                    putString(((Enum<?>)event.getFieldObject(i)).name());
+                }
+                else
+                {
+                    putString((String)event.getFieldObject(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the next segment file, overwriting the oldest one once all slots are used.
+     * 
+     * @throws IOException Signals that the file could not be mapped.
+     */
+    private void openNextSegment() throws IOException
+    {
+        if (mSegment != null)
+        {
+            mSegment.force();
+            mSegment = null;
+        }
+        long sequence = mNextSequence++;
+        RandomAccessFile segmentFile = new RandomAccessFile(getSegmentFile(mDirectory,
+                (int)(sequence % mMaxSegmentCount)), "rw");
+        try
+        {
+            // truncate first so the reused file reads back as zeros, i.e. RECORD_END
+            segmentFile.setLength(0);
+            segmentFile.setLength(mSegmentSize);
+            mSegment = segmentFile.getChannel().map(MapMode.READ_WRITE, 0, mSegmentSize);
+        }
+        finally
+        {
+            closeQuietly(segmentFile);
+        }
+        mLastTimestamp = System.currentTimeMillis();
+        mInternedStrings.clear();
+        mSegment.putInt(MAGIC);
+        mSegment.put(FORMAT_VERSION);
+        mSegment.putLong(sequence);
+        mSegment.putLong(mLastTimestamp);
+    }
+
+    /**
+     * Appends a byte to the record buffer.
+     * 
+     * @param value the value
+     */
+    private void putByte(int value)
+    {
+        if (mRecordLength == mRecord.length)
+        {
+            byte[] record = new byte[mRecord.length * 2];
+            System.arraycopy(mRecord, 0, record, 0, mRecordLength);
+            mRecord = record;
+        }
+        mRecord[mRecordLength++] = (byte)value;
+    }
+
+    /**
+     * Appends a string to the record buffer, as a reference if it was interned earlier in the segment.
+     * 
+     * @param value the value, null is written as an empty string
+     */
+    private void putString(String value)
+    {
+        if (value == null)
+        {
+            value = "";
+        }
+        Integer id = mInternedStrings.get(value);
+        if (id != null)
+        {
+            putVarint(((long)id << STRING_KIND_BITS) | STRING_REFERENCE);
+            return;
+        }
+        int kind = STRING_INLINE;
+        if (value.length() <= MAX_INTERNED_LENGTH && mInternedStrings.size() < MAX_INTERNED_STRING_COUNT)
+        {
+            mInternedStrings.put(value, mInternedStrings.size());
+            mInternedInRecord.add(value);
+            kind = STRING_DEFINITION;
+        }
+        putVarint(((long)utf8Length(value) << STRING_KIND_BITS) | kind);
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                putByte(c);
+            }
+            else if (c < 0x800)
+            {
+                putByte(0xC0 | (c >> 6));
+                putByte(0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                putByte(0xF0 | (codePoint >> 18));
+                putByte(0x80 | ((codePoint >> 12) & 0x3F));
+                putByte(0x80 | ((codePoint >> 6) & 0x3F));
+                putByte(0x80 | (codePoint & 0x3F));
+            }
+            else
+            {
+                putByte(0xE0 | (c >> 12));
+                putByte(0x80 | ((c >> 6) & 0x3F));
+                putByte(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Appends an unsigned LEB128 varint to the record buffer.
+     * 
+     * @param value the value
+     */
+    private void putVarint(long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            putByte((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        putByte((int)value);
+    }
+
+    /**
+     * Computes the UTF-8 length of a string, matching the encoding in putString.
+     * 
+     * @param value the value
+     * @return the length in bytes
+     */
+    private static int utf8Length(String value)
+    {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                length += 1;
+            }
+            else if (c < 0x800)
+            {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                length += 4;
+                i++;
+            }
+            else
+            {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
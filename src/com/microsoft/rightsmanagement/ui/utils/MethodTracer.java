@@ -0,0 +1,102 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+/**
+ * Pairs Logger.ms and Logger.me calls into method spans.
+ * <p>
+ * Each thread keeps a fixed size stack of open frames in parallel arrays, so starting and ending a span only stores a
+ * few values. The stack wraps around when it overflows; frames that never got their END call (early returns,
+ * exceptions) are discarded when an enclosing method ends.
+ * </p>
+ */
+final class MethodTracer
+{
+    /**
+     * Per thread stack of open frames.
+     */
+    private static final class Frames
+    {
+        private int mDepth;
+        private final String[] mMethodNames = new String[MAX_DEPTH];
+        private final long[] mStartNanos = new long[MAX_DEPTH];
+        private final String[] mTags = new String[MAX_DEPTH];
+    }
+    private static final int MAX_DEPTH = 32;
+    private static final int DEPTH_MASK = MAX_DEPTH - 1;
+    private final ThreadLocal<Frames> mFrames = new ThreadLocal<Frames>()
+    {
+        @Override
+        protected Frames initialValue()
+        {
+            return new Frames();
+        }
+    };
+
+    /**
+     * Closes the innermost open frame of the method and returns its duration.
+     * 
+     * @param tag the tag
+     * @param methodName the method name
+     * @return the duration in nanoseconds, or LogEvent.NO_DURATION if no matching START was recorded
+     */
+    long end(String tag, String methodName)
+    {
+        long endNanos = System.nanoTime();
+        Frames frames = mFrames.get();
+        int lowestDepth = Math.max(0, frames.mDepth - MAX_DEPTH);
+        for (int depth = frames.mDepth - 1; depth >= lowestDepth; depth--)
+        {
+            int index = depth & DEPTH_MASK;
+            if (isSameFrame(frames.mMethodNames[index], methodName) && isSameFrame(frames.mTags[index], tag))
+            {
+                frames.mDepth = depth;
+                return endNanos - frames.mStartNanos[index];
+            }
+        }
+        return LogEvent.NO_DURATION;
+    }
+
+    /**
+     * Opens a frame for the method.
+     * 
+     * @param tag the tag
+     * @param methodName the method name
+     */
+    void start(String tag, String methodName)
+    {
+        Frames frames = mFrames.get();
+        int index = frames.mDepth & DEPTH_MASK;
+        frames.mTags[index] = tag;
+        frames.mMethodNames[index] = methodName;
+        frames.mStartNanos[index] = System.nanoTime();
+        // keep the depth bounded on threads that leak frames, e.g. the main thread
+        frames.mDepth = (frames.mDepth >= 2 * MAX_DEPTH) ? (frames.mDepth - MAX_DEPTH + 1) : (frames.mDepth + 1);
+    }
+
+    /**
+     * Compares frame keys. Method names and tags are almost always literals, so the reference check usually decides.
+     * 
+     * @param frameValue the value stored in the frame
+     * @param value the value passed to end
+     * @return true, if the values are equal
+     */
+    private static boolean isSameFrame(String frameValue, String value)
+    {
+        return frameValue == value || (frameValue != null && frameValue.equals(value));
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Hands large parcelables to an activity of the same process by reference, so that only a short handle travels in the
+ * Intent and in the saved instance state instead of the parcelled object, which can come close to the Binder
+ * transaction limit.
+ * <p>
+ * An object stays in memory until it is released. When the activity saves its state the object is also written to a
+ * snapshot file on a background thread, so that a process recreated after process death can read it back by the same
+ * handle. Snapshots hold the bytes of a Parcel, which are only read back by the same installation of the application;
+ * a snapshot that cannot be read is dropped. Snapshots older than the maximum age are deleted when the store is
+ * created.
+ * </p>
+ */
+public final class ParcelableHandoffStore
+{
+    private static final String TAG = "ParcelableHandoffStore";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String THREAD_NAME = "RmsUiParcelableHandoffStore";
+    private final File mDirectory;
+    private final String mFilePrefix;
+    private final ConcurrentHashMap<String, Parcelable> mItems = new ConcurrentHashMap<String, Parcelable>();
+    private final ConcurrentHashMap<String, Boolean> mSnapshotHandles = new ConcurrentHashMap<String, Boolean>();
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Instantiates a new handoff store and deletes its expired snapshots in the background.
+     * 
+     * @param directory the directory of the snapshot files
+     * @param filePrefix the prefix of the snapshot file names, unique per store
+     * @param maxSnapshotAgeMillis the age after which a snapshot is deleted, 0 to keep snapshots until released
+     */
+    public ParcelableHandoffStore(File directory, String filePrefix, final long maxSnapshotAgeMillis)
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("invalid parameter directory");
+        }
+        if (Helpers.IsNullOrEmpty(filePrefix))
+        {
+            throw new IllegalArgumentException("invalid parameter filePrefix");
+        }
+        if (maxSnapshotAgeMillis < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter maxSnapshotAgeMillis");
+        }
+        mDirectory = directory;
+        mFilePrefix = filePrefix;
+        if (maxSnapshotAgeMillis > 0)
+        {
+            mWriter.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    deleteExpiredSnapshots(System.currentTimeMillis() - maxSnapshotAgeMillis);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets an object by its handle, from memory or else from its snapshot. A snapshot is only read after process death,
+     * on the calling thread, like the saved instance state the handle comes from.
+     * 
+     * @param <T> the parcelable type
+     * @param handle the handle
+     * @param creator the creator of the parcelable type, used to read a snapshot
+     * @return the object or null if it was released or has no readable snapshot
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T get(String handle, Parcelable.Creator<T> creator)
+    {
+        if (handle == null)
+        {
+            throw new IllegalArgumentException("invalid parameter handle");
+        }
+        Parcelable item = mItems.get(handle);
+        if (item == null)
+        {
+            item = readSnapshot(handle, creator);
+            if (item == null)
+            {
+                return null;
+            }
+            Parcelable existingItem = mItems.putIfAbsent(handle, item);
+            if (existingItem != null)
+            {
+                item = existingItem;
+            }
+            // the snapshot is already on disk
+            mSnapshotHandles.put(handle, Boolean.TRUE);
+        }
+        return (T)item;
+    }
+
+    /**
+     * Keeps an object in memory. The object is not copied and must not be modified afterwards.
+     * 
+     * @param item the object
+     * @return the handle to put in the Intent
+     */
+    public String put(Parcelable item)
+    {
+        if (item == null)
+        {
+            throw new IllegalArgumentException("invalid parameter item");
+        }
+        String handle = UUID.randomUUID().toString();
+        mItems.put(handle, item);
+        return handle;
+    }
+
+    /**
+     * Drops an object from memory and deletes its snapshot. Call it when the activity that received the handle is
+     * finishing.
+     * 
+     * @param handle the handle
+     */
+    public void release(final String handle)
+    {
+        if (handle == null)
+        {
+            throw new IllegalArgumentException("invalid parameter handle");
+        }
+        mItems.remove(handle);
+        if (mSnapshotHandles.remove(handle) != null)
+        {
+            mWriter.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    getSnapshotFile(handle).delete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the snapshot of an object on a background thread, once per handle. Call it when the activity that received
+     * the handle saves its state.
+     * 
+     * @param handle the handle
+     */
+    public void snapshot(final String handle)
+    {
+        if (handle == null)
+        {
+            throw new IllegalArgumentException("invalid parameter handle");
+        }
+        final Parcelable item = mItems.get(handle);
+        if (item == null || mSnapshotHandles.putIfAbsent(handle, Boolean.TRUE) != null)
+        {
+            return;
+        }
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // the object may have been released while the task was queued
+                if (mSnapshotHandles.containsKey(handle))
+                {
+                    writeSnapshot(handle, item);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the snapshots of this store last modified before a time. Runs on the writer thread.
+     * 
+     * @param oldestTimeMillis the wall clock time of the oldest snapshot to keep
+     */
+    private void deleteExpiredSnapshots(long oldestTimeMillis)
+    {
+        File[] files = mDirectory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (File file : files)
+        {
+            if (file.getName().startsWith(mFilePrefix) && file.lastModified() < oldestTimeMillis)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the snapshot file of a handle.
+     * 
+     * @param handle the handle
+     * @return the file
+     */
+    private File getSnapshotFile(String handle)
+    {
+        return new File(mDirectory, mFilePrefix + handle);
+    }
+
+    /**
+     * Reads the snapshot of a handle.
+     * 
+     * @param <T> the parcelable type
+     * @param handle the handle
+     * @param creator the creator of the parcelable type
+     * @return the object or null if there is no readable snapshot
+     */
+    private <T extends Parcelable> T readSnapshot(String handle, Parcelable.Creator<T> creator)
+    {
+        File file = getSnapshotFile(handle);
+        if (!file.exists())
+        {
+            return null;
+        }
+        byte[] bytes;
+        try
+        {
+            FileInputStream stream = new FileInputStream(file);
+            try
+            {
+                ByteArrayOutputStream content = new ByteArrayOutputStream((int)file.length());
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = stream.read(buffer)) != -1)
+                {
+                    content.write(buffer, 0, count);
+                }
+                bytes = content.toByteArray();
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch (IOException e)
+        {
+            Logger.w(TAG, "Could not read a snapshot", e.getMessage(), null);
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try
+        {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return creator.createFromParcel(parcel);
+        }
+        catch (RuntimeException e)
+        {
+            Logger.ie(TAG, "Could not decode a snapshot. " + e.getMessage());
+            file.delete();
+            return null;
+        }
+        finally
+        {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Writes the snapshot of a handle to a temporary file and renames it, so that a reader never sees a partial
+     * snapshot. Runs on the writer thread.
+     * 
+     * @param handle the handle
+     * @param item the object
+     */
+    private void writeSnapshot(String handle, Parcelable item)
+    {
+        byte[] bytes;
+        Parcel parcel = Parcel.obtain();
+        try
+        {
+            item.writeToParcel(parcel, 0);
+            bytes = parcel.marshall();
+        }
+        finally
+        {
+            parcel.recycle();
+        }
+        File file = getSnapshotFile(handle);
+        File temporaryFile = new File(mDirectory, file.getName() + TEMPORARY_FILE_SUFFIX);
+        try
+        {
+            FileOutputStream stream = new FileOutputStream(temporaryFile);
+            try
+            {
+                stream.write(bytes);
+                stream.getFD().sync();
+            }
+            finally
+            {
+                stream.close();
+            }
+            if (!temporaryFile.renameTo(file))
+            {
+                throw new IOException("rename failed");
+            }
+        }
+        catch (IOException e)
+        {
+            Logger.w(TAG, "Could not write a snapshot", e.getMessage(), null);
+            temporaryFile.delete();
+            mSnapshotHandles.remove(handle);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Keeps the state of pending requests in a journal file, so that a result delivered to a process recreated after
+ * process death can still be matched to the state of its request.
+ * <p>
+ * The journal starts with a header (magic, format version) followed by records: a type byte and the request id, then
+ * for a put the wall clock time of the put and the length prefixed state written by a StateCodec. All changes are
+ * applied in order on a background thread, which encodes the states and appends the records, so the calling thread
+ * never waits for the file system; written data survives the death of the process since it is already in the file
+ * system cache. The journal is read once on that thread, before the first change, skipping expired requests and a
+ * torn last record. When most records are obsolete the journal is rewritten with the pending requests only.
+ * </p>
+ * 
+ * @param <S> the state type
+ */
+public final class PendingRequestStore<S>
+{
+    /**
+     * Writes and reads the parts of a state that are needed after process death.
+     * 
+     * @param <S> the state type
+     */
+    public interface StateCodec<S>
+    {
+        /**
+         * Reads a state.
+         * 
+         * @param in the input
+         * @return the state
+         * @throws IOException Signals that the state could not be read.
+         */
+        public S read(DataInputStream in) throws IOException;
+
+        /**
+         * Writes a state.
+         * 
+         * @param state the state
+         * @param out the output
+         * @throws IOException Signals that the state could not be written.
+         */
+        public void write(S state, DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * An encoded state and the time it was put.
+     */
+    private static final class Record
+    {
+        private final long mPutTimeMillis;
+        private final byte[] mState;
+
+        /**
+         * Instantiates a new record.
+         * 
+         * @param putTimeMillis the wall clock time of the put
+         * @param state the encoded state
+         */
+        Record(long putTimeMillis, byte[] state)
+        {
+            mPutTimeMillis = putTimeMillis;
+            mState = state;
+        }
+    }
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+    private static final int MAGIC = 0x524D5350;
+    private static final int MIN_COMPACTION_RECORD_COUNT = 32;
+    private static final int PUT_RECORD_HEADER_SIZE = 17;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final int REMOVE_RECORD_SIZE = 5;
+    private static final String TAG = "PendingRequestStore";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String THREAD_NAME = "RmsUiPendingRequestStore";
+    private final StateCodec<S> mCodec;
+    private final File mFile;
+    // only used on the writer thread
+    private boolean mIsLoaded;
+    private int mJournalRecordCount;
+    private final HashMap<Integer, Record> mRecords = new HashMap<Integer, Record>();
+    private FileOutputStream mStream;
+    private final long mTimeToLiveMillis;
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Instantiates a new pending request store. The file is not read until the store is used or preloaded.
+     * 
+     * @param file the journal file
+     * @param codec the codec of the state
+     * @param timeToLiveMillis the time after which a stored state is dropped, 0 to keep states until they are taken
+     */
+    public PendingRequestStore(File file, StateCodec<S> codec, long timeToLiveMillis)
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("invalid parameter file");
+        }
+        if (codec == null)
+        {
+            throw new IllegalArgumentException("invalid parameter codec");
+        }
+        if (timeToLiveMillis < 0)
+        {
+            throw new IllegalArgumentException("invalid parameter timeToLiveMillis");
+        }
+        mFile = file;
+        mCodec = codec;
+        mTimeToLiveMillis = timeToLiveMillis;
+    }
+
+    /**
+     * Gets the number of stored states. Waits for the queued changes.
+     * 
+     * @return the count
+     */
+    public int getCount()
+    {
+        Integer count = await(mWriter.submit(new Callable<Integer>()
+        {
+            @Override
+            public Integer call()
+            {
+                load();
+                return mRecords.size();
+            }
+        }));
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Starts reading the journal on the writer thread, so that a later take() does not wait for it.
+     */
+    public void preload()
+    {
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Stores the state of a request, replacing any state stored for the id. The state is encoded later on the writer
+     * thread, so it must not be changed after the put.
+     * 
+     * @param requestCallbackId the request callback id
+     * @param state the state
+     */
+    public void put(final int requestCallbackId, final S state)
+    {
+        final long putTimeMillis = System.currentTimeMillis();
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                load();
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try
+                {
+                    mCodec.write(state, new DataOutputStream(buffer));
+                }
+                catch (IOException e)
+                {
+                    Logger.ie(TAG, "Could not encode a state. " + e.getMessage());
+                    return;
+                }
+                Record record = new Record(putTimeMillis, buffer.toByteArray());
+                mRecords.put(requestCallbackId, record);
+                append(encodePut(requestCallbackId, record));
+            }
+        });
+    }
+
+    /**
+     * Drops the state of a request.
+     * 
+     * @param requestCallbackId the request callback id
+     */
+    public void remove(final int requestCallbackId)
+    {
+        mWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                load();
+                if (mRecords.remove(requestCallbackId) != null)
+                {
+                    append(encodeRemove(requestCallbackId));
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the state of a request and returns it. Waits for the queued changes, which include reading the journal
+     * unless the store was preloaded, so call it off the UI thread.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the state or null if none is stored or it can not be read
+     */
+    public S take(final int requestCallbackId)
+    {
+        Record record = await(mWriter.submit(new Callable<Record>()
+        {
+            @Override
+            public Record call()
+            {
+                load();
+                Record removedRecord = mRecords.remove(requestCallbackId);
+                if (removedRecord != null)
+                {
+                    append(encodeRemove(requestCallbackId));
+                }
+                return removedRecord;
+            }
+        }));
+        if (record == null)
+        {
+            return null;
+        }
+        try
+        {
+            return mCodec.read(new DataInputStream(new ByteArrayInputStream(record.mState)));
+        }
+        catch (IOException e)
+        {
+            Logger.ie(TAG, "Could not decode a state. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a task of the writer thread.
+     * 
+     * @param future the future of the task
+     * @return the result or null if the task failed or the wait was interrupted
+     */
+    private static <V> V await(Future<V> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            Logger.ie(TAG, "Could not access the journal. " + e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a put record.
+     * 
+     * @param requestCallbackId the request callback id
+     * @param record the record
+     * @return the bytes
+     */
+    private static byte[] encodePut(int requestCallbackId, Record record)
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(record.mState.length + PUT_RECORD_HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(buffer);
+        try
+        {
+            out.writeByte(RECORD_PUT);
+            out.writeInt(requestCallbackId);
+            out.writeLong(record.mPutTimeMillis);
+            out.writeInt(record.mState.length);
+            out.write(record.mState);
+        }
+        catch (IOException e)
+        {
+            // not thrown by a ByteArrayOutputStream
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes a remove record.
+     * 
+     * @param requestCallbackId the request callback id
+     * @return the bytes
+     */
+    private static byte[] encodeRemove(int requestCallbackId)
+    {
+        return new byte[] {
+                RECORD_REMOVE,
+                (byte)(requestCallbackId >>> 24),
+                (byte)(requestCallbackId >>> 16),
+                (byte)(requestCallbackId >>> 8),
+                (byte)requestCallbackId
+        };
+    }
+
+    /**
+     * Writes the journal header.
+     * 
+     * @param stream the stream
+     * @throws IOException Signals that the header could not be written.
+     */
+    private static void writeHeader(FileOutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.flush();
+    }
+
+    /**
+     * Appends a record to the journal, or rewrites the journal when most records are obsolete. Runs on the writer
+     * thread.
+     * 
+     * @param record the encoded record
+     */
+    private void append(byte[] record)
+    {
+        mJournalRecordCount++;
+        if (mJournalRecordCount > MIN_COMPACTION_RECORD_COUNT && mJournalRecordCount > 2 * mRecords.size())
+        {
+            compact();
+            return;
+        }
+        try
+        {
+            if (mStream == null)
+            {
+                mStream = openJournal();
+            }
+            mStream.write(record);
+        }
+        catch (IOException e)
+        {
+            Logger.w(TAG, "Could not append to the journal", e.getMessage(), null);
+            closeStream();
+        }
+    }
+
+    /**
+     * Closes the journal stream. Runs on the writer thread.
+     */
+    private void closeStream()
+    {
+        if (mStream != null)
+        {
+            try
+            {
+                mStream.close();
+            }
+            catch (IOException e)
+            {
+                // nothing left to write
+            }
+            mStream = null;
+        }
+    }
+
+    /**
+     * Rewrites the journal with the pending requests only. Runs on the writer thread.
+     */
+    private void compact()
+    {
+        mJournalRecordCount = mRecords.size();
+        closeStream();
+        File temporaryFile = new File(mFile.getPath() + TEMPORARY_FILE_SUFFIX);
+        try
+        {
+            FileOutputStream stream = new FileOutputStream(temporaryFile);
+            try
+            {
+                writeHeader(stream);
+                for (Map.Entry<Integer, Record> entry : mRecords.entrySet())
+                {
+                    stream.write(encodePut(entry.getKey(), entry.getValue()));
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+            if (!temporaryFile.renameTo(mFile))
+            {
+                throw new IOException("rename failed");
+            }
+        }
+        catch (IOException e)
+        {
+            Logger.w(TAG, "Could not compact the journal", e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Reads the journal before the first change. Runs on the writer thread.
+     */
+    private void load()
+    {
+        if (mIsLoaded)
+        {
+            return;
+        }
+        mIsLoaded = true;
+        if (!mFile.exists())
+        {
+            return;
+        }
+        int recordCount = 0;
+        try
+        {
+            long remainingLength = mFile.length() - HEADER_SIZE;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try
+            {
+                if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION)
+                {
+                    throw new IOException("unknown journal format");
+                }
+                while (true)
+                {
+                    int type = in.read();
+                    if (type < 0)
+                    {
+                        break;
+                    }
+                    int requestCallbackId = in.readInt();
+                    if (type == RECORD_PUT)
+                    {
+                        long putTimeMillis = in.readLong();
+                        int length = in.readInt();
+                        remainingLength -= PUT_RECORD_HEADER_SIZE;
+                        // a length that does not fit the rest of the file is a torn or corrupt last record
+                        if (length < 0 || length > remainingLength)
+                        {
+                            throw new EOFException("invalid state length " + length);
+                        }
+                        byte[] state = new byte[length];
+                        in.readFully(state);
+                        remainingLength -= length;
+                        mRecords.put(requestCallbackId, new Record(putTimeMillis, state));
+                    }
+                    else if (type == RECORD_REMOVE)
+                    {
+                        remainingLength -= REMOVE_RECORD_SIZE;
+                        mRecords.remove(requestCallbackId);
+                    }
+                    else
+                    {
+                        throw new IOException("unknown record type " + type);
+                    }
+                    recordCount++;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (EOFException e)
+        {
+            Logger.w(TAG, "Ignoring a torn record at the end of the journal", "", null);
+        }
+        catch (IOException e)
+        {
+            Logger.w(TAG, "Could not read the journal", e.getMessage(), null);
+        }
+        if (mTimeToLiveMillis > 0)
+        {
+            long nowMillis = System.currentTimeMillis();
+            for (Iterator<Record> iterator = mRecords.values().iterator(); iterator.hasNext();)
+            {
+                if (nowMillis - iterator.next().mPutTimeMillis > mTimeToLiveMillis)
+                {
+                    iterator.remove();
+                }
+            }
+        }
+        // start the journal of this process from the requests that survived
+        mJournalRecordCount = recordCount;
+        compact();
+    }
+
+    /**
+     * Opens the journal for appending, writing the header to a new journal. Runs on the writer thread.
+     * 
+     * @return the stream
+     * @throws IOException Signals that the journal could not be opened.
+     */
+    private FileOutputStream openJournal() throws IOException
+    {
+        boolean isNew = !mFile.exists() || mFile.length() == 0;
+        FileOutputStream stream = new FileOutputStream(mFile, true);
+        if (isNew)
+        {
+            writeHeader(stream);
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright  Microsoft Corporation, All Rights Reserved
+ *
+ * Licensed under MICROSOFT SOFTWARE LICENSE TERMS, 
+ * MICROSOFT RIGHTS MANAGEMENT SERVICE SDK UI LIBRARIES;
+ * You may not use this file except in compliance with the License.
+ * See the license for specific language governing permissions and limitations.
+ * You may obtain a copy of the license (RMS SDK UI libraries - EULA.DOCX) at the 
+ * root directory of this project.
+ *
+ * THIS CODE IS PROVIDED *AS IS* BASIS, WITHOUT WARRANTIES OR CONDITIONS
+ * OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING WITHOUT LIMITATION
+ * ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE, FITNESS FOR A
+ * PARTICULAR PURPOSE, MERCHANTABILITY OR NON-INFRINGEMENT.
+ */
+
+package com.microsoft.rightsmanagement.ui.utils;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Process;
+
+/**
+ * Allocates the request callback ids that show() methods use as CallbackManager keys and pass to their activity.
+ * <p>
+ * An id is a positive int made of a generation in the high bits, a provisional bit and a sequence number in the low
+ * bits. Ids are never reused within a process, unlike callback hash codes. The generation is stored in the shared
+ * preferences of the application and advanced on every process start, so an id restored from the saved state of an
+ * activity recreated after process death never matches an id allocated by the new process.
+ * </p>
+ * <p>
+ * allocate(Context) only returns ids of the stored generation; its first call reads the generation unless preload
+ * already did, so call preload early, for example in Application.onCreate, to keep the read off the UI thread.
+ * allocate() does not wait for the read; until then it returns provisional ids, whose generation is derived from the
+ * clock and the process id and whose provisional bit is set, so they never match an id of a stored generation.
+ * </p>
+ * <p>
+ * The generation has 7 bits, so it wraps after 128 process starts. An id saved by a process that died 128 starts ago
+ * can therefore match a new id again; its request has long expired by then.
+ * </p>
+ */
+public final class RequestIdAllocator
+{
+    private static final String GENERATION_KEY = "Generation";
+    private static final int GENERATION_MASK = 0x7F;
+    private static final int GENERATION_SHIFT = 24;
+    private static final String PREFERENCES_NAME = "com.microsoft.rightsmanagement.ui.RequestIdAllocator";
+    private static final int PROVISIONAL_BIT = 1 << (GENERATION_SHIFT - 1);
+    private static final int SEQUENCE_MASK = PROVISIONAL_BIT - 1;
+    private static final String TAG = "RequestIdAllocator";
+    private static final AtomicReference<FutureTask<Void>> sGenerationLoad = new AtomicReference<FutureTask<Void>>();
+    // until the stored generation is loaded, use provisional ids of a generation derived from the clock and the pid
+    private static final AtomicInteger sLastId = new AtomicInteger(
+            (((int)((System.currentTimeMillis() / 1000) ^ Process.myPid()) & GENERATION_MASK) << GENERATION_SHIFT)
+                    | PROVISIONAL_BIT);
+
+    /**
+     * Instantiates a new request id allocator.
+     */
+    private RequestIdAllocator()
+    {
+    }
+
+    /**
+     * Allocates a new id without waiting for the stored generation. Prefer allocate(Context) where a context is
+     * available.
+     * 
+     * @return the id, never 0
+     */
+    public static int allocate()
+    {
+        while (true)
+        {
+            int lastId = sLastId.get();
+            int generation = lastId >>> GENERATION_SHIFT;
+            int sequence = (lastId & SEQUENCE_MASK) + 1;
+            if (sequence > SEQUENCE_MASK)
+            {
+                generation = (generation + 1) & GENERATION_MASK;
+                sequence = 1;
+            }
+            int id = (generation << GENERATION_SHIFT) | (lastId & PROVISIONAL_BIT) | sequence;
+            if (sLastId.compareAndSet(lastId, id))
+            {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Allocates a new id of the stored generation. The first call in this process reads and advances the stored
+     * generation, or waits for the read started by preload.
+     * 
+     * @param context any context of the application
+     * @return the id, never 0
+     */
+    public static int allocate(Context context)
+    {
+        if (context != null)
+        {
+            FutureTask<Void> generationLoad = getGenerationLoad(context);
+            if (!generationLoad.isDone())
+            {
+                // runs the load here unless a background thread already started it
+                generationLoad.run();
+                try
+                {
+                    generationLoad.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e)
+                {
+                    Logger.ie(TAG, "Could not load the generation. " + e.getCause());
+                }
+            }
+        }
+        return allocate();
+    }
+
+    /**
+     * Gets the generation of an id.
+     * 
+     * @param id the id
+     * @return the generation
+     */
+    public static int getGeneration(int id)
+    {
+        return id >>> GENERATION_SHIFT;
+    }
+
+    /**
+     * Starts reading and advancing the stored generation in the background, so that the first allocate(Context) does
+     * not read it on the calling thread.
+     * 
+     * @param context any context of the application
+     */
+    public static void preload(Context context)
+    {
+        if (context == null)
+        {
+            throw new IllegalArgumentException("invalid parameter context");
+        }
+        FutureTask<Void> generationLoad = getGenerationLoad(context);
+        if (!generationLoad.isDone())
+        {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(generationLoad);
+        }
+    }
+
+    /**
+     * Gets the task that loads the generation, creating it on first use. The task runs once, on whichever thread
+     * runs it first.
+     * 
+     * @param context any context of the application
+     * @return the task
+     */
+    private static FutureTask<Void> getGenerationLoad(Context context)
+    {
+        FutureTask<Void> generationLoad = sGenerationLoad.get();
+        if (generationLoad == null)
+        {
+            final Context applicationContext = context.getApplicationContext();
+            sGenerationLoad.compareAndSet(null, new FutureTask<Void>(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    loadGeneration(applicationContext);
+                }
+            }, null));
+            generationLoad = sGenerationLoad.get();
+        }
+        return generationLoad;
+    }
+
+    /**
+     * Advances the stored generation and switches the ids allocated from now on to it. The sequence number is kept, so
+     * ids allocated before the switch stay unique.
+     * 
+     * @param applicationContext the application context
+     */
+    private static void loadGeneration(Context applicationContext)
+    {
+        SharedPreferences preferences = applicationContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        int generation = (preferences.getInt(GENERATION_KEY, getGeneration(sLastId.get())) + 1) & GENERATION_MASK;
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putInt(GENERATION_KEY, generation);
+        editor.apply();
+        while (true)
+        {
+            int lastId = sLastId.get();
+            if (sLastId.compareAndSet(lastId, (generation << GENERATION_SHIFT) | (lastId & SEQUENCE_MASK)))
+            {
+                break;
+            }
+        }
+    }
+}
@@ -55,6 +55,7 @@ public class ConsentFragment extends Fragment
         public void onCancelButtonClicked(boolean showAgain);
     }
     public static final String TAG = "ConsentFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
     private static final String CONSENT_MODEL = "CONSENT_MODEL";
     private ConsentFragmentEventListner mConsentFragmentEventListner;
     private ConsentModel mConsentModel;
@@ -82,7 +83,7 @@ public class ConsentFragment extends Fragment
     @Override
     public void onAttach(Activity activity)
     {
-        Logger.ms(TAG, "onAttach");
+        Logger.ms(TAG, TAG_ID, "onAttach");
         super.onAttach(activity);
         // This makes sure that the container activity has implemented
         // the callback interface. If not, throw an exception
@@ -95,7 +96,7 @@ public class ConsentFragment extends Fragment
             Logger.ie(TAG, "Activity must implement ConsentFragmentEventListner");
             throw e;
         }
-        Logger.me(TAG, "onAttach");
+        Logger.me(TAG, TAG_ID, "onAttach");
     }
 
     /*
@@ -106,7 +107,7 @@ public class ConsentFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, final Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreateView");
+        Logger.ms(TAG, TAG_ID, "onCreateView");
         super.onCreateView(inflater, container, savedInstanceState);
         Bundle args = getArguments();
         if (args != null && args.containsKey(CONSENT_MODEL))
@@ -129,7 +130,7 @@ public class ConsentFragment extends Fragment
                 getResources().getString(R.string.help_hyperlink));
         Helpers.makeTextViewAHTMLLink(getActivity(), privacyHyperLinkTextView,
                 getResources().getString(R.string.privacy_hyperlink));
-        Logger.me(TAG, "onCreateView");
+        Logger.me(TAG, TAG_ID, "onCreateView");
         return view;
     }
 
@@ -186,7 +187,7 @@ public class ConsentFragment extends Fragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "Accept button onClick called");
+                Logger.d(TAG, TAG_ID, "Accept button onClick called");
                 if (mDontShowAgainCheckbox != null && mDontShowAgainCheckbox.isShown())
                 {
                     mConsentFragmentEventListner.onAcceptButtonClicked(!mDontShowAgainCheckbox.isChecked());
@@ -203,7 +204,7 @@ public class ConsentFragment extends Fragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "Cancel button onClick called");
+                Logger.d(TAG, TAG_ID, "Cancel button onClick called");
                 if (mDontShowAgainCheckbox != null && mDontShowAgainCheckbox.isShown())
                 {
                     mConsentFragmentEventListner.onCancelButtonClicked(!mDontShowAgainCheckbox.isChecked());
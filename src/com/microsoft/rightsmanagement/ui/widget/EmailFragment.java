@@ -49,6 +49,7 @@ public class EmailFragment extends Fragment
         public void onContinue(String item);
     }
     public static final String TAG = "EmailFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
     private EmailFragmentEventListener mEmailFragmentEventListener;
 
     /*
@@ -58,7 +59,7 @@ public class EmailFragment extends Fragment
     @Override
     public void onAttach(Activity activity)
     {
-        Logger.ms(TAG, "onAttach");
+        Logger.ms(TAG, TAG_ID, "onAttach");
         super.onAttach(activity);
         // This makes sure that the container activity has implemented
         // the callback interface. If not, throw an exception
@@ -71,7 +72,7 @@ public class EmailFragment extends Fragment
             Logger.ie(TAG, "Activity must implement EmailFragmentEventListener");
             throw e;
         }
-        Logger.me(TAG, "onAttach");
+        Logger.me(TAG, TAG_ID, "onAttach");
     }
 
     /*
@@ -82,7 +83,7 @@ public class EmailFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, final Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreateView");
+        Logger.ms(TAG, TAG_ID, "onCreateView");
         super.onCreateView(inflater, container, savedInstanceState);
         int fragmentId = R.layout.email_fragment_layout;
         View view = inflater.inflate(fragmentId, container, false);
@@ -94,7 +95,7 @@ public class EmailFragment extends Fragment
         {
             public void onClick(View v)
             {
-                Logger.d(TAG, "onClick listener called on continueButton");
+                Logger.d(TAG, TAG_ID, "onClick listener called on continueButton");
                 mEmailFragmentEventListener.onContinue(emailEditText.getText().toString());
             }
         });
@@ -105,7 +106,7 @@ public class EmailFragment extends Fragment
                 getResources().getString(R.string.help_hyperlink));
         Helpers.makeTextViewAHTMLLink(getActivity(), privacyHyperLinkTextView,
                 getResources().getString(R.string.privacy_hyperlink));
-        Logger.me(TAG, "onCreateView");
+        Logger.me(TAG, TAG_ID, "onCreateView");
         return view;
     }
 
@@ -116,12 +117,12 @@ public class EmailFragment extends Fragment
      */
     public void setEmailText(String text)
     {
-        Logger.ms(TAG, "setEmailText");
-        Logger.d(TAG, String.format("text= %s", text));
+        Logger.ms(TAG, TAG_ID, "setEmailText");
+        Logger.d(TAG, TAG_ID, "text= %s", text);
         int userMailEditTextId = R.id.userMailEditText;
         EditText emailEditText = (EditText)getView().findViewById(userMailEditTextId);
         emailEditText.setText(text);
-        Logger.me(TAG, "setEmailText");
+        Logger.me(TAG, TAG_ID, "setEmailText");
     }
 
     /**
@@ -131,12 +132,12 @@ public class EmailFragment extends Fragment
      */
     public void setErrorText(String text)
     {
-        Logger.ms(TAG, "setErrorText");
-        Logger.d(TAG, String.format("text= %s", text));
+        Logger.ms(TAG, TAG_ID, "setErrorText");
+        Logger.d(TAG, TAG_ID, "text= %s", text);
         int errorTextViewId = R.id.errorTextView;
         TextView t = (TextView)getView().findViewById(errorTextViewId);
         t.setText(text);
         t.setVisibility(View.VISIBLE);
-        Logger.me(TAG, "setErrorText");
+        Logger.me(TAG, TAG_ID, "setErrorText");
     }
 }
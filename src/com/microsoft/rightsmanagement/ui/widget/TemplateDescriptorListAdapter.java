@@ -16,7 +16,8 @@
 
 package com.microsoft.rightsmanagement.ui.widget;
 
-import java.util.List;
+import java.util.Arrays;
+
 import android.content.Context;
 import android.content.res.Resources;
 import android.view.LayoutInflater;
@@ -24,228 +25,372 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 import com.microsoft.rightsmanagement.ui.R;
 import com.microsoft.rightsmanagement.ui.PolicyPickerActivity;
 import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModel;
-import com.microsoft.rightsmanagement.ui.utils.Logger;
 
 /**
- * An ArrayAdapter that generates view for TemplateDescriptor list.
+ * An adapter that generates views for the TemplateDescriptor list.
+ * <p>
+ * Row views keep their child views in a ViewHolder, so binding a row looks nothing up and allocates nothing. The
+ * adapter owns the selected item; a selection change rebinds only the rows that lose and gain the selection, and only
+ * if they are on screen.
+ * </p>
+ * <p>
+ * The list shows a subset of the template descriptor array, in array order, for search. Items are addressed by their
+ * index in the array, which never changes; item ids are these indexes, so they are stable across filtering, and list
+ * positions are only used for views.
+ * </p>
  */
-class TemplateDescriptorListAdapter extends ArrayAdapter<TemplateDescriptorModel>
+class TemplateDescriptorListAdapter extends BaseAdapter
 {
     /**
-     * The listener interface for receiving templateDescriptorListAdapterEvent events. The class that is interested in
-     * processing a templateDescriptorListAdapterEvent event implements this interface, and the object created with that
-     * class is registered with a component using the component's
-     * <code>addTemplateDescriptorListAdapterEventListener<code> method. When
-     * the templateDescriptorListAdapterEvent event occurs, that object's appropriate
-     * method is invoked.
-     * 
-     * @see TemplateDescriptorListAdapterEventEvent
+     * Holds the child views of a row.
      */
-    public interface TemplateDescriptorListAdapterEventListener
+    private static final class ViewHolder
     {
+        private final LinearLayout mContainer;
+        private final TextView mDescription;
+        private final TextView mName;
+        private int mItemIndex;
+
         /**
-         * Gets the selected index.
+         * Instantiates a new view holder.
          * 
-         * @return the selected index
+         * @param view the row view
          */
-        public int getSelectedIndex();
-    }
-    private Context mContext;
-    private View mPrevTouchedView;
-    private int mSelectedBackgroundColor;
-    private int mSelectedTextColor;
-    private List<TemplateDescriptorModel> mTemplateDescriptorItemList;
-    private TemplateDescriptorListAdapterEventListener mTemplateDescriptorListAdapterEventListener;
-    private int mUnSelectatbleTextColor;
-    private int mUnSelectedBackgroundColor;
-    private int mUnSelectedTextColor;
-    private String TAG = "TemplateDescriptorListAdapter";
+        ViewHolder(View view)
+        {
+            mContainer = (LinearLayout)view.findViewById(R.id.template_item_container);
+            mName = (TextView)view.findViewById(R.id.template_name);
+            mDescription = (TextView)view.findViewById(R.id.template_description);
+        }
+    }
+    private final Context mContext;
+    private Animation mDescriptionAnimation;
+    private final LayoutInflater mInflater;
+    // list position of every item, -1 for hidden items
+    private int[] mListPositions;
+    private final int mSelectedBackgroundColor;
+    private int mSelectedItemIndex;
+    private final int mSelectedTextColor;
+    private TemplateDescriptorModel[] mTemplateDescriptorItems;
+    private final int mUnSelectatbleTextColor;
+    private final int mUnSelectedBackgroundColor;
+    private final int mUnSelectedTextColor;
+    private int mVisibleCount;
+    // item index of every list position
+    private int[] mVisibleItemIndexes;
 
     /**
-     * Instantiates a new template descriptor list adapter.
+     * Instantiates a new template descriptor list adapter that shows all items.
      * 
      * @param context the context
-     * @param layoutId the layout id
-     * @param objects the objects
-     * @param callback the callback
+     * @param templateDescriptorItems the template descriptor items, not copied
+     * @param selectedItemIndex the index of the selected item, or -1
      */
     public TemplateDescriptorListAdapter(Context context,
-                                         int layoutId,
-                                         List<TemplateDescriptorModel> objects,
-                                         TemplateDescriptorListAdapterEventListener callback)
+                                         TemplateDescriptorModel[] templateDescriptorItems,
+                                         int selectedItemIndex)
     {
-        super(context, layoutId, objects);
-        mTemplateDescriptorItemList = objects;
+        mContext = context;
+        mInflater = LayoutInflater.from(context);
+        setItems(templateDescriptorItems, selectedItemIndex);
         Resources resources = context.getResources();
         mUnSelectedTextColor = resources.getColor(R.color.dark_grey);
         mUnSelectedBackgroundColor = resources.getColor(R.color.white);
         mSelectedTextColor = resources.getColor(R.color.white);
         mSelectedBackgroundColor = resources.getColor(R.color.dark_grey);
         mUnSelectatbleTextColor = resources.getColor(R.color.light_gray);
-        mContext = context;
-        mTemplateDescriptorListAdapterEventListener = callback;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.widget.BaseAdapter#areAllItemsEnabled()
+     */
+    @Override
+    public boolean areAllItemsEnabled()
+    {
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.widget.Adapter#getCount()
+     */
+    @Override
+    public int getCount()
+    {
+        return mVisibleCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.widget.Adapter#getItem(int)
+     */
+    @Override
+    public TemplateDescriptorModel getItem(int position)
+    {
+        return mTemplateDescriptorItems[mVisibleItemIndexes[position]];
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.widget.Adapter#getItemId(int)
+     */
+    @Override
+    public long getItemId(int position)
+    {
+        return mVisibleItemIndexes[position];
+    }
+
+    /**
+     * Gets the list position of an item.
+     * 
+     * @param itemIndex the item index
+     * @return the list position, or -1 if the item is hidden
+     */
+    public int getListPosition(int itemIndex)
+    {
+        return (itemIndex >= 0 && itemIndex < mListPositions.length) ? mListPositions[itemIndex] : -1;
+    }
+
+    /**
+     * Gets the selected item.
+     * 
+     * @return the selected item index, or -1
+     */
+    public int getSelectedItemIndex()
+    {
+        return mSelectedItemIndex;
     }
 
     /**
-     * This methods is called to each list item on its creation. Each item is an individual view and inflated and set
-     * separately.
+     * Creates or rebinds the view of a row.
      * 
      * @param position the position in the list.
-     * @param view the view of the item.
+     * @param view the recycled view of a row, or null.
      * @param parent the parent the parent view of the list.
-     * @return the initialized view.
-     * @see android.widget.ArrayAdapter#getView(int, android.view.View, android.view.ViewGroup)
+     * @return the bound view.
+     * @see android.widget.Adapter#getView(int, android.view.View, android.view.ViewGroup)
      */
     @Override
     public View getView(int position, View view, ViewGroup parent)
     {
-        Logger.d(TAG, String.format("getView - position = %d", position));
+        ViewHolder holder;
         if (view == null)
         {
-            LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            view = inflater.inflate(R.layout.template_descriptor_list_item, null);
+            view = mInflater.inflate(R.layout.template_descriptor_list_item, parent, false);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
         }
-        TemplateDescriptorModel selectedTemplateDescriptorItem = mTemplateDescriptorItemList.get(position);
-        if (selectedTemplateDescriptorItem != null)
+        else
         {
-            TextView templateNameTxtView = (TextView)view.findViewById(R.id.template_name);
-            if (templateNameTxtView != null)
-            {
-                templateNameTxtView.setText(selectedTemplateDescriptorItem.getName());
-                // temporary solution to disable custom permissions item
-                if (!PolicyPickerActivity.isTemplateDescriptorItemEnabled(selectedTemplateDescriptorItem))
-                {
-                    view.setClickable(false);
-                    view.setEnabled(false);
-                    templateNameTxtView.setEnabled(false);
-                    templateNameTxtView.setTextColor(mUnSelectatbleTextColor);
-                }
-                else
-                {
-                    if (position == mTemplateDescriptorListAdapterEventListener.getSelectedIndex())
-                    {
-                        String description = selectedTemplateDescriptorItem.getDescription();
-                        setViewHighlights(view, description);
-                    }
-                    else
-                    {
-                        setUnHighlighted(view);
-                    }
-                }
-            }
+            holder = (ViewHolder)view.getTag();
         }
+        bind(holder, mVisibleItemIndexes[position]);
         return view;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see android.widget.BaseAdapter#hasStableIds()
+     */
+    @Override
+    public boolean hasStableIds()
+    {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see android.widget.BaseAdapter#isEnabled(int)
+     */
+    @Override
+    public boolean isEnabled(int position)
+    {
+        // temporary solution to disable custom permissions item
+        return PolicyPickerActivity.isTemplateDescriptorItemEnabled(getItem(position));
+    }
+
     /**
-     * Sets the view highlights.
+     * Moves the selection and rebinds the rows that lose and gain it if they are on screen.
      * 
-     * @param view the view to be set.
-     * @param description the description for the highlighted view.
+     * @param itemIndex the index of the new selected item
+     * @param listView the list view that shows this adapter
      */
-    public void setViewHighlights(View view, String description)
+    public void setSelectedItemIndex(int itemIndex, ListView listView)
     {
-        if (mPrevTouchedView != null)
+        if (itemIndex == mSelectedItemIndex)
         {
-            setUnHighlighted(mPrevTouchedView);
+            return;
         }
-        setHighlighted(view, description);
-        mPrevTouchedView = view;
+        int previousItemIndex = mSelectedItemIndex;
+        mSelectedItemIndex = itemIndex;
+        rebindSelection(listView, previousItemIndex, false);
+        rebindSelection(listView, itemIndex, true);
     }
 
     /**
-     * Sets an item to be highlighted.
+     * Replaces the items, for example when more templates are loaded, and shows all of them.
      * 
-     * @param defaultSelectedView the view to be set.
-     * @param description when highlighted a description text is added.
+     * @param templateDescriptorItems the template descriptor items, not copied
+     * @param selectedItemIndex the index of the selected item, or -1
      */
-    protected void setHighlighted(View defaultSelectedView, String description)
+    public void setTemplateDescriptorItems(TemplateDescriptorModel[] templateDescriptorItems, int selectedItemIndex)
     {
-        setColorToItem(defaultSelectedView, mSelectedBackgroundColor, mSelectedTextColor);
-        showDescription(defaultSelectedView, description);
-        defaultSelectedView.setSelected(true);
+        setItems(templateDescriptorItems, selectedItemIndex);
+        notifyDataSetChanged();
     }
 
     /**
-     * Sets the un highlighted.
+     * Shows a subset of the items. Does nothing if the subset is the one shown, otherwise the list view rebinds its
+     * rows and keeps rows of items that stay visible by their stable ids.
      * 
-     * @param defaultSelectedView the new un highlighted
+     * @param itemIndexes the indexes of the items to show, ascending
+     * @param count the number of items to show
+     * @return true, if the shown items changed
      */
-    protected void setUnHighlighted(View defaultSelectedView)
+    public boolean setVisibleItems(int[] itemIndexes, int count)
     {
-        setColorToItem(defaultSelectedView, mUnSelectedBackgroundColor, mUnSelectedTextColor);
-        hideDescription(defaultSelectedView);
+        if (count == mVisibleCount)
+        {
+            int i = 0;
+            while (i < count && itemIndexes[i] == mVisibleItemIndexes[i])
+            {
+                i++;
+            }
+            if (i == count)
+            {
+                return false;
+            }
+        }
+        System.arraycopy(itemIndexes, 0, mVisibleItemIndexes, 0, count);
+        mVisibleCount = count;
+        Arrays.fill(mListPositions, -1);
+        for (int position = 0; position < count; position++)
+        {
+            mListPositions[itemIndexes[position]] = position;
+        }
+        notifyDataSetChanged();
+        return true;
     }
 
     /**
-     * hide description.
+     * Binds a row.
      * 
-     * @param defaultSelectedView the default selected view
+     * @param holder the holder of the row
+     * @param itemIndex the item index
      */
-    private void hideDescription(View defaultSelectedView)
+    private void bind(ViewHolder holder, int itemIndex)
     {
-        if (defaultSelectedView != null)
+        TemplateDescriptorModel templateDescriptorItem = mTemplateDescriptorItems[itemIndex];
+        holder.mItemIndex = itemIndex;
+        holder.mName.setText(templateDescriptorItem.getName());
+        boolean isEnabled = PolicyPickerActivity.isTemplateDescriptorItemEnabled(templateDescriptorItem);
+        holder.mName.setEnabled(isEnabled);
+        if (!isEnabled)
         {
-            TextView templateDescriptionTxtView = (TextView)defaultSelectedView.findViewById(R.id.template_description);
-            if (templateDescriptionTxtView != null)
-            {
-                templateDescriptionTxtView.setText("");
-                templateDescriptionTxtView.setVisibility(TextView.GONE);
-            }
+            holder.mContainer.setBackgroundColor(mUnSelectedBackgroundColor);
+            holder.mName.setTextColor(mUnSelectatbleTextColor);
+            holder.mContainer.setSelected(false);
+            hideDescription(holder);
+            return;
         }
+        bindSelection(holder, itemIndex == mSelectedItemIndex, false);
     }
 
     /**
-     * Sets the color to item.
+     * Binds the selection state of a row.
      * 
-     * @param defaultSelectedView the default selected view
-     * @param colorBackground the color background
-     * @param colorText the color text
+     * @param holder the holder of the row
+     * @param isSelected true, if the row is selected
+     * @param animate true, to animate a shown description
      */
-    private void setColorToItem(View defaultSelectedView, int colorBackground, int colorText)
+    private void bindSelection(ViewHolder holder, boolean isSelected, boolean animate)
     {
-        if (defaultSelectedView != null)
+        holder.mContainer.setBackgroundColor(isSelected ? mSelectedBackgroundColor : mUnSelectedBackgroundColor);
+        holder.mName.setTextColor(isSelected ? mSelectedTextColor : mUnSelectedTextColor);
+        holder.mContainer.setSelected(isSelected);
+        String description = mTemplateDescriptorItems[holder.mItemIndex].getDescription();
+        if (!isSelected || description == null || description.length() == 0)
         {
-            LinearLayout layout = (LinearLayout)defaultSelectedView.findViewById(R.id.template_item_container);
-            if (layout != null)
-            {
-                layout.setBackgroundColor(colorBackground);
-            }
-            TextView templateNameTxtView = (TextView)defaultSelectedView.findViewById(R.id.template_name);
-            if (templateNameTxtView != null)
+            hideDescription(holder);
+            return;
+        }
+        holder.mDescription.setText(description);
+        holder.mDescription.setVisibility(View.VISIBLE);
+        holder.mDescription.clearAnimation();
+        if (animate)
+        {
+            if (mDescriptionAnimation == null)
             {
-                templateNameTxtView.setTextColor(colorText);
+                mDescriptionAnimation = AnimationUtils.loadAnimation(mContext, R.animator.slide_down_animation);
             }
+            mDescriptionAnimation.reset();
+            holder.mDescription.startAnimation(mDescriptionAnimation);
         }
     }
 
     /**
-     * Show description.
+     * Hides the description of a row.
+     * 
+     * @param holder the holder of the row
+     */
+    private void hideDescription(ViewHolder holder)
+    {
+        holder.mDescription.clearAnimation();
+        holder.mDescription.setText("");
+        holder.mDescription.setVisibility(View.GONE);
+    }
+
+    /**
+     * Rebinds the selection state of the row of an item if it is on screen.
      * 
-     * @param defaultSelectedView the default selected view
-     * @param description the description
+     * @param listView the list view
+     * @param itemIndex the item index
+     * @param animate true, to animate a shown description
      */
-    private void showDescription(View defaultSelectedView, String description)
+    private void rebindSelection(ListView listView, int itemIndex, boolean animate)
     {
-        if ((defaultSelectedView != null) && (description != null) && (description.length() > 0))
+        int position = getListPosition(itemIndex);
+        if (position < 0 || !isEnabled(position))
         {
-            final TextView templateDescriptionTxtView = (TextView)defaultSelectedView
-                    .findViewById(R.id.template_description);
-            if (templateDescriptionTxtView != null)
+            return;
+        }
+        View view = listView.getChildAt(position - listView.getFirstVisiblePosition());
+        // a row that is not on screen is bound by getView when it scrolls in
+        if (view != null && view.getTag() instanceof ViewHolder)
+        {
+            ViewHolder holder = (ViewHolder)view.getTag();
+            if (holder.mItemIndex == itemIndex)
             {
-                templateDescriptionTxtView.setText(description);
-                Animation scaleText = AnimationUtils.loadAnimation(mContext, R.animator.slide_down_animation);
-                scaleText.reset();
-                templateDescriptionTxtView.setVisibility(TextView.VISIBLE);
-                templateDescriptionTxtView.clearAnimation();
-                templateDescriptionTxtView.startAnimation(scaleText);
+                bindSelection(holder, itemIndex == mSelectedItemIndex, animate);
             }
         }
     }
+
+    /**
+     * Sets the items and shows all of them without notifying the list view.
+     * 
+     * @param templateDescriptorItems the template descriptor items
+     * @param selectedItemIndex the index of the selected item, or -1
+     */
+    private void setItems(TemplateDescriptorModel[] templateDescriptorItems, int selectedItemIndex)
+    {
+        mTemplateDescriptorItems = templateDescriptorItems;
+        mSelectedItemIndex = selectedItemIndex;
+        mVisibleCount = templateDescriptorItems.length;
+        mVisibleItemIndexes = new int[mVisibleCount];
+        mListPositions = new int[mVisibleCount];
+        for (int i = 0; i < mVisibleCount; i++)
+        {
+            mVisibleItemIndexes[i] = i;
+            mListPositions[i] = i;
+        }
+    }
 }
@@ -16,8 +16,6 @@
 
 package com.microsoft.rightsmanagement.ui.widget;
 
-import java.util.Arrays;
-
 import android.app.Activity;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
@@ -26,7 +24,10 @@ import android.view.View.OnAttachStateChangeListener;
 import android.widget.ListView;
 import com.microsoft.rightsmanagement.ui.R;
 import com.microsoft.rightsmanagement.ui.PolicyPickerActivity;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorCatalog;
 import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorModel;
+import com.microsoft.rightsmanagement.ui.model.TemplateDescriptorSearchIndex;
+import com.microsoft.rightsmanagement.ui.utils.Helpers;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
 
 /**
@@ -52,6 +53,13 @@ public final class TemplateDescriptorListFragment extends ListFragment
          * @return the template descriptor items
          */
         public TemplateDescriptorModel[] getTemplateDescriptorItems();
+
+        /**
+         * Gets the search index of the templates, building it if it is not ready.
+         * 
+         * @return the search index, or null if there are no templates
+         */
+        public TemplateDescriptorSearchIndex getTemplateDescriptorSearchIndex();
     }
 
     /**
@@ -74,9 +82,66 @@ public final class TemplateDescriptorListFragment extends ListFragment
         public void onTemplateDescriptorItemSelected(int selectedTemplateDescriptorIndex);
     }
     public static final String TAG = "TemplateDescriptorListFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
+    private String mQuery;
+    // search buffers, allocated once so typing does not allocate per keystroke
+    private int[] mSearchResults;
     private TemplateDescriptorListAdapter mTemplateDescriptorArrayAdapter;
     private TemplateDescriptorDataProvider mTemplateDescriptorDataProvider;
     private TemplateDescriptorListEventListener mTemplateDescriptorListEventListener;
+    private int[] mVisibleItemIndexes;
+
+    /**
+     * Shows only the templates that match a query. Items that are not templates, like no protection, stay visible.
+     * 
+     * @param query the words typed by the user; an empty query shows all items
+     */
+    public void filter(String query)
+    {
+        mQuery = query;
+        TemplateDescriptorModel[] templateDescriptorItemArray = mTemplateDescriptorDataProvider
+                .getTemplateDescriptorItems();
+        if (mTemplateDescriptorArrayAdapter == null || templateDescriptorItemArray == null)
+        {
+            return;
+        }
+        TemplateDescriptorSearchIndex searchIndex = mTemplateDescriptorDataProvider.getTemplateDescriptorSearchIndex();
+        if (searchIndex == null)
+        {
+            return;
+        }
+        if (mSearchResults == null || mSearchResults.length < searchIndex.size())
+        {
+            mSearchResults = new int[searchIndex.size()];
+        }
+        if (mVisibleItemIndexes == null || mVisibleItemIndexes.length < templateDescriptorItemArray.length)
+        {
+            mVisibleItemIndexes = new int[templateDescriptorItemArray.length];
+        }
+        int resultCount = searchIndex.search(query, mSearchResults);
+        // both the results and the templates in the item array are in catalog order, so one walk merges them
+        int result = 0;
+        int visibleCount = 0;
+        for (int itemIndex = 0; itemIndex < templateDescriptorItemArray.length; itemIndex++)
+        {
+            int templateIndex = templateDescriptorItemArray[itemIndex].getIndex();
+            if (templateIndex == TemplateDescriptorCatalog.NO_INDEX)
+            {
+                mVisibleItemIndexes[visibleCount++] = itemIndex;
+                continue;
+            }
+            while (result < resultCount && mSearchResults[result] < templateIndex)
+            {
+                result++;
+            }
+            if (result < resultCount && mSearchResults[result] == templateIndex)
+            {
+                mVisibleItemIndexes[visibleCount++] = itemIndex;
+            }
+        }
+        Logger.d(TAG, TAG_ID, "filter matched %d of %d templates", resultCount, searchIndex.size());
+        mTemplateDescriptorArrayAdapter.setVisibleItems(mVisibleItemIndexes, visibleCount);
+    }
 
     /*
      * (non-Javadoc)
@@ -85,24 +150,16 @@ public final class TemplateDescriptorListFragment extends ListFragment
     @Override
     public void onActivityCreated(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onActivityCreated");
+        Logger.ms(TAG, TAG_ID, "onActivityCreated");
         super.onActivityCreated(savedInstanceState);
         if (mTemplateDescriptorDataProvider.getTemplateDescriptorItems() != null)
         {
             mTemplateDescriptorArrayAdapter = new TemplateDescriptorListAdapter(this.getActivity(),
-                    R.layout.template_descriptor_list_item, Arrays.asList(mTemplateDescriptorDataProvider
-                            .getTemplateDescriptorItems()),
-                    new TemplateDescriptorListAdapter.TemplateDescriptorListAdapterEventListener()
-                    {
-                        @Override
-                        public int getSelectedIndex()
-                        {
-                            return mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex();
-                        }
-                    });
+                    mTemplateDescriptorDataProvider.getTemplateDescriptorItems(),
+                    mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex());
         }
         setListAdapter(mTemplateDescriptorArrayAdapter);
-        Logger.me(TAG, "onActivityCreated");
+        Logger.me(TAG, TAG_ID, "onActivityCreated");
     }
 
     /*
@@ -112,7 +169,7 @@ public final class TemplateDescriptorListFragment extends ListFragment
     @Override
     public void onAttach(Activity activity)
     {
-        Logger.ms(TAG, "onAttach");
+        Logger.ms(TAG, TAG_ID, "onAttach");
         super.onAttach(activity);
         try
         {
@@ -124,7 +181,7 @@ public final class TemplateDescriptorListFragment extends ListFragment
             Logger.ie(TAG, "Activity must implement TemplateDescriptorListEventListener");
             throw e;
         }
-        Logger.me(TAG, "onAttach");
+        Logger.me(TAG, TAG_ID, "onAttach");
     }
 
     /*
@@ -134,12 +191,32 @@ public final class TemplateDescriptorListFragment extends ListFragment
     @Override
     public void onListItemClick(ListView list, View view, int position, long id)
     {
-        Logger.d(TAG, String.format("onListItemClick invoked with postion = %d and id = %d", position, id));
-        selectListItem(view, position);
+        Logger.d(TAG, TAG_ID, "onListItemClick invoked with postion = %d and id = %d", position, id);
+        // the id is the index in the item array, the position depends on the search
+        selectListItem((int)id);
         View v =  getActivity().findViewById(R.id.template_picker_fragment_container);
         v.invalidate();
     }
 
+    /**
+     * Rebinds the list after the data provider replaced its items, keeping the selection and the query.
+     */
+    public void onTemplateDescriptorItemsChanged()
+    {
+        TemplateDescriptorModel[] templateDescriptorItemArray = mTemplateDescriptorDataProvider
+                .getTemplateDescriptorItems();
+        if (mTemplateDescriptorArrayAdapter == null || templateDescriptorItemArray == null)
+        {
+            return;
+        }
+        mTemplateDescriptorArrayAdapter.setTemplateDescriptorItems(templateDescriptorItemArray,
+                mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex());
+        if (!Helpers.IsNullOrEmpty(mQuery))
+        {
+            filter(mQuery);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see android.support.v4.app.ListFragment#onViewCreated(android.view.View, android.os.Bundle)
@@ -147,7 +224,7 @@ public final class TemplateDescriptorListFragment extends ListFragment
     @Override
     public void onViewCreated(final View view, Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onViewCreated");
+        Logger.ms(TAG, TAG_ID, "onViewCreated");
         super.onViewCreated(view, savedInstanceState);
         // When rotating we need to scroll to the current policy selected.
         getListView().addOnAttachStateChangeListener(new OnAttachStateChangeListener()
@@ -155,17 +232,22 @@ public final class TemplateDescriptorListFragment extends ListFragment
             @Override
             public void onViewAttachedToWindow(View v)
             {
-                Logger.d(TAG,String.format("onViewAttachedToWindow(%s)", v.getClass().toString()));
+                Logger.d(TAG, TAG_ID, "onViewAttachedToWindow(%s)", v.getClass());
                 // select original item
-                final int position = mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex();
-                selectListItem(view, position);
+                final int itemIndex = mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex();
+                selectListItem(itemIndex);
                 // when item is clicked make sure the entire view is visible.
                 getListView().post(new Runnable()
                 {
                     @Override
                     public void run()
                     {
-                        getListView().smoothScrollToPosition(position);
+                        int position = mTemplateDescriptorArrayAdapter != null ? mTemplateDescriptorArrayAdapter
+                                .getListPosition(itemIndex) : -1;
+                        if (position >= 0)
+                        {
+                            getListView().smoothScrollToPosition(position);
+                        }
                     }
                 });
             }
@@ -176,37 +258,32 @@ public final class TemplateDescriptorListFragment extends ListFragment
                 // Do nothing.
             }
         });
-        Logger.me(TAG, "onViewCreated");
+        Logger.me(TAG, TAG_ID, "onViewCreated");
     }
 
     /**
      * Select list item.
      * 
-     * @param view the view
-     * @param position the position
+     * @param itemIndex the index in the template descriptor item array
      */
-    private void selectListItem(View view, final int position)
+    private void selectListItem(final int itemIndex)
     {
-        Logger.d(TAG, String.format("selectListItem(%s, %d)",view.getClass().toString(), position));
+        Logger.d(TAG, TAG_ID, "selectListItem(%d)", itemIndex);
         TemplateDescriptorModel[] templateDescriptorItemArray = mTemplateDescriptorDataProvider
                 .getTemplateDescriptorItems();
-        if (templateDescriptorItemArray == null || position < 0 || position >= templateDescriptorItemArray.length)
+        if (templateDescriptorItemArray == null || itemIndex < 0 || itemIndex >= templateDescriptorItemArray.length)
         {
             Logger.ie(TAG, "selectListItem has received invalid arguments");
             return;
         }
         // temporary solution for absence of custom permission feature
-        if (!PolicyPickerActivity.isTemplateDescriptorItemEnabled(templateDescriptorItemArray[position]))
+        if (!PolicyPickerActivity.isTemplateDescriptorItemEnabled(templateDescriptorItemArray[itemIndex]))
         {
             return;
         }
-        // Update view only if new position was selected.
-        if (position != mTemplateDescriptorDataProvider.getSelectedTemplateDescriptorItemIndex())
-        {
-            mTemplateDescriptorArrayAdapter.setViewHighlights(view,
-                    templateDescriptorItemArray[position].getDescription());
-        }
+        // rebinds only the rows that lose and gain the selection
+        mTemplateDescriptorArrayAdapter.setSelectedItemIndex(itemIndex, getListView());
         // Fire the listener.
-        mTemplateDescriptorListEventListener.onTemplateDescriptorItemSelected(position);
+        mTemplateDescriptorListEventListener.onTemplateDescriptorItemSelected(itemIndex);
     }
 }
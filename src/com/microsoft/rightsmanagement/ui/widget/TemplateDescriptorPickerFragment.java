@@ -22,11 +22,15 @@ import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentTransaction;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ProgressBar;
 import com.microsoft.rightsmanagement.ui.R;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
 
@@ -53,10 +57,14 @@ public class TemplateDescriptorPickerFragment extends Fragment
         public void onProtectionButtonClicked();
     }
     public static final String TAG = "TemplateDescriptorPickerFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
     private int mDisabledButtonColor;
     private int mEnabledButtonColor;
+    private boolean mIsLoading;
+    private ProgressBar mLoadingProgressBar;
     private Button mProtectionButton;
     private ProtectionButtonEventListener mProtectionButtonEventListener;
+    private EditText mSearchText;
     private TemplateDescriptorListFragment mTemplatesFragment;
 
     /*
@@ -66,7 +74,7 @@ public class TemplateDescriptorPickerFragment extends Fragment
     @Override
     public void onAttach(Activity activity)
     {
-        Logger.ms(TAG, "onAttach");
+        Logger.ms(TAG, TAG_ID, "onAttach");
         super.onAttach(activity);
         // This makes sure that the container activity has implemented
         // the callback interface. If not, it throws an exception
@@ -79,7 +87,7 @@ public class TemplateDescriptorPickerFragment extends Fragment
             Logger.ie(TAG, "Activity must implement ProtectionButtonEventListener");
             throw e;
         }
-        Logger.me(TAG, "onAttach");
+        Logger.me(TAG, TAG_ID, "onAttach");
     }
 
     /*
@@ -89,12 +97,12 @@ public class TemplateDescriptorPickerFragment extends Fragment
     @Override
     public void onCreate(Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreate");
+        Logger.ms(TAG, TAG_ID, "onCreate");
         super.onCreate(savedInstanceState);
         Resources resources = getActivity().getResources();
         mDisabledButtonColor = resources.getColor(R.color.light_gray);
         mEnabledButtonColor = resources.getColor(R.color.dark_black);
-        Logger.me(TAG, "onCreate");
+        Logger.me(TAG, TAG_ID, "onCreate");
     }
 
     /*
@@ -105,7 +113,7 @@ public class TemplateDescriptorPickerFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreateView");
+        Logger.ms(TAG, TAG_ID, "onCreateView");
         addTemplateDescriptorListFragment();
         super.onCreateView(inflater, container, savedInstanceState);
         View view = inflater.inflate(R.layout.template_descriptor_picker_fragment_layout, container, false);
@@ -116,14 +124,52 @@ public class TemplateDescriptorPickerFragment extends Fragment
             @Override
             public void onClick(View view)
             {
-                Logger.d(TAG, "protection button onClick called");
+                Logger.d(TAG, TAG_ID, "protection button onClick called");
                 mProtectionButtonEventListener.onProtectionButtonClicked();
             }
         });
-        Logger.me(TAG, "onCreateView");
+        mLoadingProgressBar = (ProgressBar)view.findViewById(R.id.template_loading_progress);
+        setLoading(mIsLoading);
+        mSearchText = (EditText)view.findViewById(R.id.template_search);
+        mSearchText.addTextChangedListener(new TextWatcher()
+        {
+            @Override
+            public void afterTextChanged(Editable s)
+            {
+                // the list fragment is added asynchronously and may not be attached yet
+                if (mTemplatesFragment != null && mTemplatesFragment.getActivity() != null)
+                {
+                    mTemplatesFragment.filter(s.toString());
+                }
+            }
+
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after)
+            {
+                // Do nothing.
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count)
+            {
+                // Do nothing.
+            }
+        });
+        Logger.me(TAG, TAG_ID, "onCreateView");
         return view;
     }
 
+    /**
+     * Rebinds the template list after the activity replaced its template descriptor items.
+     */
+    public void onTemplateDescriptorItemsChanged()
+    {
+        if (mTemplatesFragment != null && mTemplatesFragment.getActivity() != null)
+        {
+            mTemplatesFragment.onTemplateDescriptorItemsChanged();
+        }
+    }
+
     /**
      * removes child fragments
      */
@@ -139,6 +185,20 @@ public class TemplateDescriptorPickerFragment extends Fragment
         }
     }
 
+    /**
+     * Shows or hides the progress of templates that are still loading.
+     * 
+     * @param isLoading true, if more templates are coming
+     */
+    public void setLoading(boolean isLoading)
+    {
+        mIsLoading = isLoading;
+        if (mLoadingProgressBar != null)
+        {
+            mLoadingProgressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
+        }
+    }
+
     /**
      * Sets the protection button enabled.
      * 
@@ -160,7 +220,7 @@ public class TemplateDescriptorPickerFragment extends Fragment
                 .findFragmentByTag(TemplateDescriptorListFragment.TAG);
         if (mTemplatesFragment == null)
         {
-            Logger.d(TAG, "templatesFragment is null");
+            Logger.d(TAG, TAG_ID, "templatesFragment is null");
             mTemplatesFragment = new TemplateDescriptorListFragment();
             FragmentTransaction ft = childFragmentManager.beginTransaction();
             ft.setCustomAnimations(R.animator.slide_animation_in, 0);
@@ -168,7 +228,7 @@ public class TemplateDescriptorPickerFragment extends Fragment
         }
         else
         {
-            Logger.d(TAG, "templatesFragment is not null");
+            Logger.d(TAG, TAG_ID, "templatesFragment is not null");
         }
     }
 }
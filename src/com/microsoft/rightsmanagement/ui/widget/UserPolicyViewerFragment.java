@@ -16,7 +16,6 @@
 
 package com.microsoft.rightsmanagement.ui.widget;
 
-import java.util.List;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Color;
@@ -32,10 +31,10 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.microsoft.rightsmanagement.ui.R;
-import com.microsoft.rightsmanagement.ui.model.RightAccessCheckModel;
 import com.microsoft.rightsmanagement.ui.model.UserPolicyModel;
 import com.microsoft.rightsmanagement.ui.utils.Logger;
 
@@ -85,6 +84,7 @@ public class UserPolicyViewerFragment extends Fragment
     // changes
     public static final String FRAGMENT_BUNDLE_DATA_KEY = "dataKey";
     public static final String TAG = "UserPolicyViewerFragment";
+    private static final int TAG_ID = Logger.getTagId(TAG);
     private static final int ALPHA_VALUE = (int)(0.8 * 255);
     private final static String UNKNOWN_TEXT = "Unknown";
     private Button mEditBtn;
@@ -104,7 +104,7 @@ public class UserPolicyViewerFragment extends Fragment
     @Override
     public void onAttach(Activity activity)
     {
-        Logger.ms(TAG, "onAttach");
+        Logger.ms(TAG, TAG_ID, "onAttach");
         super.onAttach(activity);
         // This makes sure that the container activity has implemented
         // the callback interface. If not, it throws an exception
@@ -118,7 +118,7 @@ public class UserPolicyViewerFragment extends Fragment
             Logger.ie(TAG, "Activity must implement UserPolicyViewerFragmentEventListener");
             throw e;
         }
-        Logger.me(TAG, "onAttach");
+        Logger.me(TAG, TAG_ID, "onAttach");
     }
 
     /**
@@ -133,7 +133,7 @@ public class UserPolicyViewerFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState)
     {
-        Logger.ms(TAG, "onCreateView");
+        Logger.ms(TAG, TAG_ID, "onCreateView");
         int backGroundColor = R.color.black;
         int color = Color.argb(ALPHA_VALUE, Color.red(backGroundColor), Color.green(backGroundColor),
                 Color.blue(backGroundColor));
@@ -152,7 +152,7 @@ public class UserPolicyViewerFragment extends Fragment
             @Override
             public void onClick(View v)
             {
-                Logger.d(TAG, "Edit button onClick called");
+                Logger.d(TAG, TAG_ID, "Edit button onClick called");
                 mUserPolicyViewerFragmentEventListener.onEditButtonClicked();
             }
         });
@@ -162,28 +162,57 @@ public class UserPolicyViewerFragment extends Fragment
             // TODO restore state
         }
         drawUI();
-        Logger.me(TAG, "onCreateView");
+        Logger.me(TAG, TAG_ID, "onCreateView");
         return view;
     }
 
     /**
-     * Draws and appends rights views.
+     * Replaces the placeholder of the rights with the rights once the data provider set them on the model. Must be
+     * called on the main thread.
+     */
+    public void onEffectiveViewableRightsAvailable()
+    {
+        if (!isAdded() || getActivity() == null)
+        {
+            Logger.d(TAG, TAG_ID, "Fragment is detached, nothing to update");
+            return;
+        }
+        UserPolicyModel userPolicyModel = mUserPolicyDataProvider != null ? mUserPolicyDataProvider
+                .getUserPolicyModel() : null;
+        if (mRightLayout == null || userPolicyModel == null || userPolicyModel.isIssuedToOwner())
+        {
+            Logger.d(TAG, TAG_ID, "Rights are not displayed, nothing to update");
+            return;
+        }
+        mRightLayout.removeAllViews();
+        drawRights();
+    }
+
+    /**
+     * Draws and appends rights views, or a progress placeholder while the rights are computed.
      */
     private void drawRights()
     {
+        UserPolicyModel userPolicyModel = mUserPolicyDataProvider.getUserPolicyModel();
+        if (!userPolicyModel.hasEffectiveRights())
+        {
+            ProgressBar placeholder = new ProgressBar(getActivity());
+            placeholder.setIndeterminate(true);
+            mRightLayout.addView(placeholder);
+            return;
+        }
         LayoutInflater inflater = (LayoutInflater)getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        List<RightAccessCheckModel> effectiveViewableRights = mUserPolicyDataProvider.getUserPolicyModel()
-                .getEffectiveViewableRights();
-        for (RightAccessCheckModel obj : effectiveViewableRights)
+        Context applicationContext = getActivity().getApplicationContext();
+        for (int position = 0; position < userPolicyModel.getViewableRightCount(); position++)
         {
             View rightView = inflater.inflate(R.layout.user_policy_viewer_rights_item, null);
             TextView rightNameTxtView = (TextView)rightView.findViewById(R.id.right_text_view);
             ImageView imageView = (ImageView)rightView.findViewById(R.id.rights_item_image_view);
             if (rightNameTxtView != null)
             {
-                rightNameTxtView.setText(obj.getRightName());
+                rightNameTxtView.setText(userPolicyModel.getViewableRightDisplayName(applicationContext, position));
                 // set the correct icon in case right is supported or not
-                if (obj.getHasAccess())
+                if (userPolicyModel.hasViewableRightAccess(position))
                 {
                     rightNameTxtView.setTextColor(getResources().getColor(R.color.light_gray));
                     imageView.setImageDrawable(getResources().getDrawable(R.drawable.v));
@@ -208,7 +237,7 @@ public class UserPolicyViewerFragment extends Fragment
         if ((mPolicyNameTextView == null) || (mOwnerNameTextView == null) || (userPolicyModel == null)
                 || (mUpperTitleTextView == null) || (mPolicyDescTextView == null) || (mEditBtn == null))
         {
-            Logger.d(TAG, "Failed updating UI as view is not available");
+            Logger.d(TAG, TAG_ID, "Failed updating UI as view is not available");
             return;
         }
         String policyName = ((userPolicyModel != null) && (userPolicyModel.getName() != null)) ? userPolicyModel
@@ -244,14 +273,14 @@ public class UserPolicyViewerFragment extends Fragment
         // if this is not owner just show the rights with no header
         if (userPolicyModel.isIssuedToOwner())
         {
-            Logger.d(TAG, "user is the owner of user policy");
+            Logger.d(TAG, TAG_ID, "user is the owner of user policy");
             mUpperTitleTextView.setText(getString(R.string.policy_viewer_owner_content));
             mOwnerNameTextView.setVisibility(View.GONE);
             setPolicyEditingButtonViewState(mUserPolicyDataProvider.isUserPolicyEditingEnabled());
         }
         else
         {
-            Logger.d(TAG, "user is not the owner of user policy");
+            Logger.d(TAG, TAG_ID, "user is not the owner of user policy");
             //ignore input of allowing edit enabled and hide policy edit button 
             setPolicyEditingButtonViewState(false);
             mUpperTitleTextView.setText(R.string.policy_viewer_non_owner_content);